@@ -2,8 +2,10 @@ package tw.luke.checkout;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class CheckoutBackendApplication {
 
 	public static void main(String[] args) {
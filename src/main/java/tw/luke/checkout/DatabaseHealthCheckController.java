@@ -5,6 +5,8 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.sql.Connection;
+
 
 @RestController
 @RequestMapping("/api/health") 
@@ -20,9 +22,12 @@ public class DatabaseHealthCheckController {
             Integer status = jdbcTemplate.queryForObject("SELECT 1", Integer.class);
             
             if (status != null && status.equals(1)) {
-                return "資料庫連線測試成功！MySQL 主機 (" + 
-                       jdbcTemplate.getDataSource().getConnection().getMetaData().getURL() + 
-                       ") 狀態良好。";
+                // 用完要還連線，不然每呼叫一次就少一條 (也會佔住 JDBC 閘門的名額)
+                try (Connection connection = jdbcTemplate.getDataSource().getConnection()) {
+                    return "資料庫連線測試成功！MySQL 主機 (" + 
+                           connection.getMetaData().getURL() + 
+                           ") 狀態良好。";
+                }
             } else {
                 return "連線開啟，但 SELECT 1 查詢結果異常。";
             }
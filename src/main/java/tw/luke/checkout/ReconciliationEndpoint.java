@@ -0,0 +1,53 @@
+package tw.luke.checkout;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import tw.luke.checkout.repository.ReconciliationRepository;
+import tw.luke.checkout.service.InventoryReconciler;
+
+import java.util.Map;
+
+// 庫存對帳 (InventoryReconciler)
+// GET  /actuator/reconciliation        最後一次對帳的結果 (不會觸發掃描；還沒跑過回 404)
+// POST /actuator/reconciliation        body {} 或 {"fix": true}：對帳 (掃兩張明細表)，fix 時補回憑空少掉的剩餘數量 (其他落差只回報)
+//                                      已經有對帳在跑會被拒絕
+// POST /actuator/reconciliation/{id}   body {"restock": 20}：補貨 (負的是收回)，剩餘數量與總配額一起加減
+//                                      body {"capacity": 500}：直接指定總配額 (後台新增、還沒有總配額的票種)
+// POST 要帶 X-Admin-Token (ActuatorWriteGuardConfig)：掃描很重，改庫存的更不用說
+@Component
+@Endpoint(id = "reconciliation")
+public class ReconciliationEndpoint {
+
+    private final InventoryReconciler inventoryReconciler;
+    private final ReconciliationRepository reconciliationRepository;
+
+    public ReconciliationEndpoint(InventoryReconciler inventoryReconciler, ReconciliationRepository reconciliationRepository) {
+        this.inventoryReconciler = inventoryReconciler;
+        this.reconciliationRepository = reconciliationRepository;
+    }
+
+    @ReadOperation
+    public InventoryReconciler.Report lastReport() {
+        return inventoryReconciler.lastReport();
+    }
+
+    @WriteOperation
+    public InventoryReconciler.Report reconcile(@Nullable Boolean fix) {
+        return inventoryReconciler.reconcile(Boolean.TRUE.equals(fix));
+    }
+
+    @WriteOperation
+    public Map<String, Object> adjust(@Selector long eventTicketTypeId, @Nullable Integer restock, @Nullable Integer capacity) {
+        if ((restock == null) == (capacity == null)) {
+            throw new IllegalArgumentException("restock 與 capacity 要指定其中一個");
+        }
+        boolean updated = restock != null
+            ? reconciliationRepository.restock(eventTicketTypeId, restock)
+            : reconciliationRepository.setCapacity(eventTicketTypeId, capacity);
+        return Map.of("eventTicketTypeId", eventTicketTypeId, "updated", updated);
+    }
+}
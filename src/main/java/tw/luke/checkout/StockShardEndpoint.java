@@ -0,0 +1,64 @@
+package tw.luke.checkout;
+
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+import tw.luke.checkout.repository.StockShardRepository;
+import tw.luke.checkout.service.StockShardRebalancer;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// 分片庫存的管理入口 (開賣前把熱門票種切成分片)
+// GET    /actuator/stockshards        所有分片模式的票種與各分片剩餘數量
+// GET    /actuator/stockshards/{id}   單一票種
+// POST   /actuator/stockshards/{id}   body {"shards": 8}：開啟分片 / 改變分片數
+// DELETE /actuator/stockshards/{id}   關閉分片 (合併回 custom_limit)
+// POST   /actuator/stockshards        立刻整理所有分片 (平常由 StockShardRebalancer 定期做)
+// POST / DELETE 要帶 X-Admin-Token (ActuatorWriteGuardConfig)
+@Component
+@Endpoint(id = "stockshards")
+public class StockShardEndpoint {
+
+    private final StockShardRepository stockShardRepository;
+    private final StockShardRebalancer stockShardRebalancer;
+
+    public StockShardEndpoint(StockShardRepository stockShardRepository, StockShardRebalancer stockShardRebalancer) {
+        this.stockShardRepository = stockShardRepository;
+        this.stockShardRebalancer = stockShardRebalancer;
+    }
+
+    @ReadOperation
+    public Map<Long, List<StockShardRepository.Shard>> status() {
+        Map<Long, List<StockShardRepository.Shard>> result = new LinkedHashMap<>();
+        for (Long ticketTypeId : stockShardRepository.findSharded()) {
+            result.put(ticketTypeId, stockShardRepository.shards(ticketTypeId));
+        }
+        return result;
+    }
+
+    @ReadOperation
+    public List<StockShardRepository.Shard> shards(@Selector long eventTicketTypeId) {
+        return stockShardRepository.shards(eventTicketTypeId);
+    }
+
+    @WriteOperation
+    public List<StockShardRepository.Shard> enable(@Selector long eventTicketTypeId, int shards) {
+        stockShardRepository.enable(eventTicketTypeId, shards);
+        return stockShardRepository.shards(eventTicketTypeId);
+    }
+
+    @DeleteOperation
+    public void disable(@Selector long eventTicketTypeId) {
+        stockShardRepository.disable(eventTicketTypeId);
+    }
+
+    @WriteOperation
+    public Map<Long, Integer> rebalance() {
+        return stockShardRebalancer.rebalanceAll();
+    }
+}
@@ -0,0 +1,49 @@
+package tw.luke.checkout;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+import tw.luke.checkout.repository.TicketCatalogRepository;
+
+import java.util.Map;
+
+// 票種目錄快取的管理入口
+// GET    /actuator/ticketcatalog       看快取狀態
+// DELETE /actuator/ticketcatalog       整個清掉 (後台改價之後)
+// DELETE /actuator/ticketcatalog/{id}  只清一個票種
+// DELETE 要帶 X-Admin-Token (ActuatorWriteGuardConfig)
+@Component
+@Endpoint(id = "ticketcatalog")
+public class TicketCatalogEndpoint {
+
+    private final TicketCatalogRepository ticketCatalogRepository;
+
+    public TicketCatalogEndpoint(TicketCatalogRepository ticketCatalogRepository) {
+        this.ticketCatalogRepository = ticketCatalogRepository;
+    }
+
+    @ReadOperation
+    public Map<String, Object> status() {
+        CacheStats stats = ticketCatalogRepository.stats();
+        return Map.of(
+            "size", ticketCatalogRepository.size(),
+            "hitCount", stats.hitCount(),
+            "missCount", stats.missCount(),
+            "hitRate", stats.hitRate(),
+            "evictionCount", stats.evictionCount()
+        );
+    }
+
+    @DeleteOperation
+    public void invalidateAll() {
+        ticketCatalogRepository.invalidateAll();
+    }
+
+    @DeleteOperation
+    public void invalidate(@Selector long eventTicketTypeId) {
+        ticketCatalogRepository.invalidate(eventTicketTypeId);
+    }
+}
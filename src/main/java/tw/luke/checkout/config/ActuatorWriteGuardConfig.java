@@ -0,0 +1,57 @@
+package tw.luke.checkout.config;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+// /actuator 的寫入操作 (POST / PUT / DELETE：清票種目錄快取、開關庫存分片、庫存對帳修正) 要帶 X-Admin-Token
+// token 跟 app.actuator.admin-token 比對 (固定時間比較)；沒有設定 token 時寫入一律拒絕，只剩讀取
+// GET / HEAD 不檢查 (health、metrics 跟各個管理入口的狀態)
+@Configuration
+public class ActuatorWriteGuardConfig {
+
+    public static final String ADMIN_TOKEN_HEADER = "X-Admin-Token";
+
+    private static final byte[] FORBIDDEN_BODY =
+        "{\"status\": \"error\", \"message\": \"管理操作需要授權\"}".getBytes(StandardCharsets.UTF_8);
+
+    @Bean
+    FilterRegistrationBean<OncePerRequestFilter> actuatorWriteGuard(@Value("${app.actuator.admin-token:}") String adminToken) {
+        byte[] expected = adminToken.getBytes(StandardCharsets.UTF_8);
+        OncePerRequestFilter filter = new OncePerRequestFilter() {
+            @Override
+            protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+                    throws ServletException, IOException {
+                String method = request.getMethod();
+                if ("GET".equals(method) || "HEAD".equals(method) || authorized(request.getHeader(ADMIN_TOKEN_HEADER), expected)) {
+                    chain.doFilter(request, response);
+                    return;
+                }
+                response.setStatus(HttpStatus.FORBIDDEN.value());
+                response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+                response.setContentLength(FORBIDDEN_BODY.length);
+                response.getOutputStream().write(FORBIDDEN_BODY);
+            }
+        };
+        FilterRegistrationBean<OncePerRequestFilter> registration = new FilterRegistrationBean<>(filter);
+        registration.addUrlPatterns("/actuator/*");
+        return registration;
+    }
+
+    private static boolean authorized(String token, byte[] expected) {
+        return expected.length > 0 && token != null
+            && MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8), expected);
+    }
+}
@@ -0,0 +1,53 @@
+package tw.luke.checkout.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.MethodParameter;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+// 解析 @CurrentUserId 參數
+// 還沒有登入機制，預設所有請求都是 DEFAULT_USER_ID
+// app.current-user.header-enabled=true 時改用 X-User-Id header (壓測模擬很多買家用，正式環境不要打開)
+@Configuration
+public class CurrentUserConfig implements WebMvcConfigurer {
+
+    public static final long DEFAULT_USER_ID = 1L;
+    public static final String USER_ID_HEADER = "X-User-Id";
+
+    @Value("${app.current-user.header-enabled:false}")
+    private boolean headerEnabled;
+
+    @Override
+    public void addArgumentResolvers(List<HandlerMethodArgumentResolver> resolvers) {
+        resolvers.add(new HandlerMethodArgumentResolver() {
+            @Override
+            public boolean supportsParameter(MethodParameter parameter) {
+                return parameter.hasParameterAnnotation(CurrentUserId.class);
+            }
+
+            @Override
+            public Object resolveArgument(MethodParameter parameter, ModelAndViewContainer mavContainer,
+                                          NativeWebRequest webRequest, WebDataBinderFactory binderFactory) {
+                return currentUserId(webRequest.getHeader(USER_ID_HEADER));
+            }
+        });
+    }
+
+    // header = X-User-Id 的值 (沒帶是 null)；限流 (RateLimitConfig) 在進 controller 之前也用這個判斷是哪個使用者
+    public long currentUserId(String header) {
+        if (!headerEnabled || header == null || header.isBlank()) {
+            return DEFAULT_USER_ID;
+        }
+        try {
+            return Long.parseLong(header.trim());
+        } catch (NumberFormatException e) {
+            throw new RuntimeException(USER_ID_HEADER + " 格式錯誤: " + header);
+        }
+    }
+}
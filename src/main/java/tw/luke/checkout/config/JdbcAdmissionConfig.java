@@ -0,0 +1,57 @@
+package tw.luke.checkout.config;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+// 在 DataSource 外面套上 AdmissionControlDataSource
+// app.jdbc-admission.enabled=false 可以關掉 (例如要量測沒有閘門時的表現)
+@Configuration
+@ConditionalOnProperty(prefix = "app.jdbc-admission", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class JdbcAdmissionConfig {
+
+    @Bean
+    static BeanPostProcessor jdbcAdmissionPostProcessor(Environment env, ObjectProvider<MeterRegistry> meterRegistry) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (!(bean instanceof DataSource dataSource) || bean instanceof AdmissionControlDataSource) {
+                    return bean;
+                }
+                // 預設跟 Hikari 的連線數一樣，讓排隊發生在這裡而不是 Hikari 裡面
+                int permits = env.getProperty("app.jdbc-admission.permits", Integer.class,
+                    env.getProperty("spring.datasource.hikari.maximum-pool-size", Integer.class, 10));
+                Duration maxWait = env.getProperty("app.jdbc-admission.max-wait", Duration.class, Duration.ofSeconds(5));
+                int maxQueue = env.getProperty("app.jdbc-admission.max-queue", Integer.class, 10_000);
+
+                AdmissionControlDataSource gate = new AdmissionControlDataSource(dataSource, permits, maxWait, maxQueue);
+                meterRegistry.ifAvailable(registry -> bindMetrics(registry, gate, beanName));
+                return gate;
+            }
+        };
+    }
+
+    private static void bindMetrics(MeterRegistry registry, AdmissionControlDataSource gate, String name) {
+        Gauge.builder("jdbc.admission.active", gate, AdmissionControlDataSource::getActive)
+            .tag("name", name)
+            .description("目前拿著連線的請求數")
+            .register(registry);
+        Gauge.builder("jdbc.admission.waiting", gate, AdmissionControlDataSource::getWaiting)
+            .tag("name", name)
+            .description("在閘門前排隊的請求數")
+            .register(registry);
+        FunctionCounter.builder("jdbc.admission.rejected", gate, AdmissionControlDataSource::getRejected)
+            .tag("name", name)
+            .description("排隊已滿或等待逾時而被拒絕的次數")
+            .register(registry);
+    }
+}
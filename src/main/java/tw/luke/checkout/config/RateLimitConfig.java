@@ -0,0 +1,96 @@
+package tw.luke.checkout.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// 購物車與結帳 API 的限流：每個 (使用者, client IP) 在每個 API 各自一個 token bucket (RateLimiter)
+// 超過的請求在 HandlerInterceptor 就回 429 + Retry-After，不進 controller、不碰資料庫
+// 還沒有登入機制時所有人都是 DEFAULT_USER_ID，等於依 IP 限流；前面有 reverse proxy 時要設定 server.forward-headers-strategy 才拿得到真正的 IP
+// 指標：checkout.rate_limit.rejected{endpoint} 被擋下的次數、checkout.rate_limit.buckets{endpoint} 目前記住的 bucket 數
+// app.rate-limit.enabled=false 可以關掉
+@Configuration
+@ConditionalOnProperty(prefix = "app.rate-limit", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class RateLimitConfig implements WebMvcConfigurer {
+
+    // API (app.rate-limit.<名稱>) -> 路徑
+    private static final Map<String, String> ENDPOINTS = Map.of(
+        "add", "/api/checkout/add",
+        "add-bulk", "/api/checkout/add-bulk",
+        "submit", "/api/checkout/submit"
+    );
+    private static final byte[] REJECTED_BODY =
+        "{\"status\": \"error\", \"message\": \"請求太頻繁，請稍後再試\"}".getBytes(StandardCharsets.UTF_8);
+
+    private final Environment env;
+    private final CurrentUserConfig currentUser;
+    private final MeterRegistry registry;
+
+    public RateLimitConfig(Environment env, CurrentUserConfig currentUser, MeterRegistry registry) {
+        this.env = env;
+        this.currentUser = currentUser;
+        this.registry = registry;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry interceptors) {
+        Duration idleTtl = env.getProperty("app.rate-limit.idle-ttl", Duration.class, Duration.ofMinutes(1));
+        long maxBuckets = env.getProperty("app.rate-limit.max-buckets", Long.class, 100_000L);
+        ENDPOINTS.forEach((name, path) -> {
+            double perSecond = env.getProperty("app.rate-limit." + name + ".per-second", Double.class, name.equals("submit") ? 1.0 : 5.0);
+            int burst = env.getProperty("app.rate-limit." + name + ".burst", Integer.class, name.equals("submit") ? 3 : 20);
+            RateLimiter limiter = new RateLimiter(perSecond, burst, idleTtl, maxBuckets);
+            interceptors.addInterceptor(interceptor(name, limiter)).addPathPatterns(path);
+        });
+    }
+
+    private HandlerInterceptor interceptor(String name, RateLimiter limiter) {
+        Counter rejected = Counter.builder("checkout.rate_limit.rejected")
+            .tag("endpoint", name)
+            .description("超過限流被擋下 (429) 的請求數")
+            .register(registry);
+        Gauge.builder("checkout.rate_limit.buckets", limiter, RateLimiter::size)
+            .tag("endpoint", name)
+            .description("限流目前記住的 bucket 數 (閒置的會被移除)")
+            .register(registry);
+
+        return new HandlerInterceptor() {
+            @Override
+            public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws IOException {
+                if (!"POST".equals(request.getMethod())) {
+                    return true;
+                }
+                long userId = currentUser.currentUserId(request.getHeader(CurrentUserConfig.USER_ID_HEADER));
+                long waitNanos = limiter.tryAcquire(new RateLimiter.Key(userId, request.getRemoteAddr()));
+                if (waitNanos == 0) {
+                    return true;
+                }
+                rejected.increment();
+                response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+                // Retry-After 只能是整數秒，無條件進位
+                response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf((waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1)));
+                response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+                response.setContentLength(REJECTED_BODY.length);
+                response.getOutputStream().write(REJECTED_BODY);
+                return false;
+            }
+        };
+    }
+}
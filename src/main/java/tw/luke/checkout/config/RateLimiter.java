@@ -0,0 +1,70 @@
+package tw.luke.checkout.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+// 每個 key 一個 token bucket：容量 burst 個，每秒補 perSecond 個
+// 用 GCRA 的寫法，一個 bucket 只要一個 AtomicLong (下一個 token 理論上補滿的時間)，CAS 前進，不用鎖也不用背景補 token
+//   tat = max(tat, now) + interval；tat - now 超過 burst * interval 代表 token 用完了
+// bucket 放在 Caffeine：idle-ttl 沒用到就移除 (閒置夠久的 bucket 早就補滿了，移掉再建一個結果一樣)，
+// 另外最多 maxBuckets 個，被大量不同 IP 打的時候記憶體也有上限
+public class RateLimiter {
+
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final LongSupplier clock;
+    private final Cache<Key, AtomicLong> buckets;
+
+    public record Key(long userId, String clientIp) {}
+
+    public RateLimiter(double perSecond, int burst, Duration idleTtl, long maxBuckets) {
+        this(perSecond, burst, idleTtl, maxBuckets, System::nanoTime);
+    }
+
+    RateLimiter(double perSecond, int burst, Duration idleTtl, long maxBuckets, LongSupplier clock) {
+        if (perSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("per-second 必須大於 0、burst 至少 1: " + perSecond + " / " + burst);
+        }
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / perSecond);
+        this.burstNanos = intervalNanos * burst;
+        this.clock = clock;
+        // idle-ttl 比補滿的時間短的話，移除等於送對方一整個 burst
+        Duration ttl = idleTtl.toNanos() < burstNanos ? Duration.ofNanos(burstNanos) : idleTtl;
+        this.buckets = Caffeine.newBuilder()
+                .expireAfterAccess(ttl)
+                .maximumSize(maxBuckets)
+                .ticker(clock::getAsLong)
+                .build();
+    }
+
+    // 拿一個 token：拿到回 0，token 用完回傳還要等幾奈秒才會有下一個
+    public long tryAcquire(Key key) {
+        AtomicLong tat = buckets.get(key, k -> new AtomicLong(clock.getAsLong()));
+        while (true) {
+            long now = clock.getAsLong();
+            long previous = tat.get();
+            long next = Math.max(previous, now) + intervalNanos;
+            long wait = next - now - burstNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (tat.compareAndSet(previous, next)) {
+                return 0;
+            }
+        }
+    }
+
+    public long size() {
+        return buckets.estimatedSize();
+    }
+
+    // 測試用：立刻執行到期移除
+    void cleanUp() {
+        buckets.cleanUp();
+    }
+}
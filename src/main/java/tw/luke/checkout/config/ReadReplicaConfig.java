@@ -0,0 +1,58 @@
+package tw.luke.checkout.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+// 讀取副本 (app.read-replica.enabled=true 才啟用)：DataSource 換成 主庫 + 副本 兩個連線池的讀寫分流
+// 主庫照用 spring.datasource.*，副本用 app.read-replica.* (url / username / password / driver-class-name / hikari.*)
+// 兩個池的 Hikari 指標分開 (hikaricp.connections.*{pool=primary|replica})，分流次數在 datasource.routing{pool}
+// 沒啟用時維持 Spring Boot 預設的單一 DataSource，onReplica / ReadYourWrites 都等於沒作用
+@Configuration
+@ConditionalOnProperty(prefix = "app.read-replica", name = "enabled", havingValue = "true")
+public class ReadReplicaConfig implements DisposableBean {
+
+    private final List<HikariDataSource> pools = new ArrayList<>();
+
+    @Bean
+    public DataSource dataSource(DataSourceProperties properties, Environment env, ObjectProvider<MeterRegistry> meterRegistry) {
+        Binder binder = Binder.get(env);
+        DataSourceProperties replicaProperties = binder.bind("app.read-replica", DataSourceProperties.class)
+            .orElseThrow(() -> new IllegalStateException("已啟用讀取副本，但沒有設定 app.read-replica.url"));
+
+        MeterRegistry registry = meterRegistry.getIfAvailable();
+        HikariDataSource primary = pool("primary", properties, binder, "spring.datasource.hikari", registry);
+        HikariDataSource replica = pool("replica", replicaProperties, binder, "app.read-replica.hikari", registry);
+        return new LazyConnectionDataSourceProxy(new ReadWriteRoutingDataSource(primary, replica, registry));
+    }
+
+    private HikariDataSource pool(String name, DataSourceProperties properties, Binder binder, String hikariPrefix, MeterRegistry registry) {
+        HikariDataSource pool = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        binder.bind(hikariPrefix, Bindable.ofInstance(pool));
+        pool.setPoolName(name);
+        if (registry != null) {
+            pool.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(registry));
+        }
+        pools.add(pool);
+        return pool;
+    }
+
+    @Override
+    public void destroy() {
+        pools.forEach(HikariDataSource::close);
+    }
+}
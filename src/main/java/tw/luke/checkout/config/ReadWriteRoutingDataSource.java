@@ -0,0 +1,85 @@
+package tw.luke.checkout.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+// 讀寫分流：寫入與一般交易走主庫，唯讀交易 (@Transactional(readOnly = true)) 與 onReplica 包起來的讀取走副本
+// 外面要再包一層 LazyConnectionDataSourceProxy：交易開始時還沒下 SQL，等真的用到連線時 readOnly 已經設好才決定拿哪一邊
+// 寫入交易裡一律用主庫 (就算被 onReplica 包著)，不會有「交易的第一個 SQL 剛好是讀取」而整個交易跑到副本的情況
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+
+    public enum Pool { PRIMARY, REPLICA }
+
+    // onPrimary / onReplica 指定的目標 (巢狀時以最內層為準)
+    private static final ThreadLocal<Pool> FORCED = new ThreadLocal<>();
+
+    private final Map<Pool, Counter> routed = new EnumMap<>(Pool.class);
+
+    public ReadWriteRoutingDataSource(DataSource primary, DataSource replica, MeterRegistry meterRegistry) {
+        setTargetDataSources(Map.of(Pool.PRIMARY, primary, Pool.REPLICA, replica));
+        setDefaultTargetDataSource(primary);
+        setLenientFallback(false);
+        afterPropertiesSet();
+        if (meterRegistry != null) {
+            for (Pool pool : Pool.values()) {
+                routed.put(pool, Counter.builder("datasource.routing")
+                    .tag("pool", pool.name().toLowerCase())
+                    .description("分配到這個連線池的連線數")
+                    .register(meterRegistry));
+            }
+        }
+    }
+
+    // 這段讀取走副本 (沒有設定副本時什麼都不影響)
+    public static <T> T onReplica(Supplier<T> body) {
+        return with(Pool.REPLICA, body);
+    }
+
+    // 這段讀取一定走主庫 (例如剛寫完要馬上讀回來)
+    public static <T> T onPrimary(Supplier<T> body) {
+        return with(Pool.PRIMARY, body);
+    }
+
+    static Pool current() {
+        boolean readOnly = TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+        if (TransactionSynchronizationManager.isActualTransactionActive() && !readOnly) {
+            return Pool.PRIMARY;
+        }
+        Pool forced = FORCED.get();
+        if (forced != null) {
+            return forced;
+        }
+        return readOnly ? Pool.REPLICA : Pool.PRIMARY;
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        Pool pool = current();
+        Counter counter = routed.get(pool);
+        if (counter != null) {
+            counter.increment();
+        }
+        return pool;
+    }
+
+    private static <T> T with(Pool pool, Supplier<T> body) {
+        Pool previous = FORCED.get();
+        FORCED.set(pool);
+        try {
+            return body.get();
+        } finally {
+            if (previous == null) {
+                FORCED.remove();
+            } else {
+                FORCED.set(previous);
+            }
+        }
+    }
+}
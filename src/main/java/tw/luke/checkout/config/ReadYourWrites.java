@@ -0,0 +1,44 @@
+package tw.luke.checkout.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+// 讀到自己剛寫的：某個範圍 (使用者的購物車、票種目錄...) 剛有寫入的話，window 內的讀取改走主庫
+// 副本有複寫延遲，剛加進購物車或剛結帳完馬上去副本讀，可能讀到寫入之前的資料
+// window 要大於副本平常的延遲；0 = 不保證 (永遠讀副本)
+@Component
+public class ReadYourWrites {
+
+    private final Cache<String, Boolean> recentWrites;
+
+    public ReadYourWrites(@Value("${app.read-replica.read-your-writes:5s}") Duration window) {
+        this.recentWrites = Caffeine.newBuilder()
+                .expireAfterWrite(window)
+                .maximumSize(100_000)
+                .build();
+    }
+
+    public static String user(long userId) {
+        return "user:" + userId;
+    }
+
+    public void written(String scope) {
+        recentWrites.put(scope, Boolean.TRUE);
+    }
+
+    public boolean recentlyWritten(String scope) {
+        return recentWrites.getIfPresent(scope) != null;
+    }
+
+    // 可以讀副本的查詢，scope 剛寫過就改讀主庫
+    public <T> T read(String scope, Supplier<T> query) {
+        return recentlyWritten(scope)
+            ? ReadWriteRoutingDataSource.onPrimary(query)
+            : ReadWriteRoutingDataSource.onReplica(query);
+    }
+}
@@ -0,0 +1,30 @@
+package tw.luke.checkout.config;
+
+// 計算某段程式 (例如一次結帳) 在目前 thread 上送了幾個 SQL statement
+// begin() 到 end() 之間經過 StatementCountingDataSource 建立的 Statement 都會算進去
+// 沒有 begin() 的 thread 只多一次 ThreadLocal 查詢，不計數
+public final class SqlStatementCounter {
+
+    private static final ThreadLocal<int[]> CURRENT = new ThreadLocal<>();
+
+    private SqlStatementCounter() {
+    }
+
+    public static void begin() {
+        CURRENT.set(new int[1]);
+    }
+
+    // 結束計數並回傳數量
+    public static int end() {
+        int[] count = CURRENT.get();
+        CURRENT.remove();
+        return count == null ? 0 : count[0];
+    }
+
+    static void increment() {
+        int[] count = CURRENT.get();
+        if (count != null) {
+            count[0]++;
+        }
+    }
+}
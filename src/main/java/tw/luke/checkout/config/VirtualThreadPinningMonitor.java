@@ -0,0 +1,66 @@
+package tw.luke.checkout.config;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+// Virtual thread 被 pin 住 (在 synchronized 區塊或 native frame 裡做 blocking I/O) 的診斷
+// 用 JFR 的 jdk.VirtualThreadPinned 事件，超過門檻就把發生位置印出來
+// 只在排查問題時打開：app.virtual-threads.pinning-monitor.enabled=true
+// (另一種方式是啟動時加 -Djdk.tracePinnedThreads=short，但那會在每次 pin 時印整段 stack)
+@Component
+@ConditionalOnProperty(prefix = "app.virtual-threads.pinning-monitor", name = "enabled", havingValue = "true")
+public class VirtualThreadPinningMonitor implements InitializingBean, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadPinningMonitor.class);
+
+    private static final int MAX_FRAMES = 8;
+
+    private final Duration threshold;
+    private RecordingStream stream;
+
+    public VirtualThreadPinningMonitor(@Value("${app.virtual-threads.pinning-monitor.threshold:20ms}") Duration threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        stream = new RecordingStream();
+        stream.enable("jdk.VirtualThreadPinned").withThreshold(threshold).withStackTrace();
+        stream.onEvent("jdk.VirtualThreadPinned", this::report);
+        stream.startAsync();
+        log.info("Virtual thread pinning monitor 啟動，門檻 {} ms", threshold.toMillis());
+    }
+
+    private void report(RecordedEvent event) {
+        String frames = "(no stack trace)";
+        if (event.getStackTrace() != null) {
+            List<RecordedFrame> top = event.getStackTrace().getFrames().stream().limit(MAX_FRAMES).toList();
+            frames = top.stream()
+                .map(f -> f.getMethod().getType().getName() + "." + f.getMethod().getName() + ":" + f.getLineNumber())
+                .collect(Collectors.joining("\n    at "));
+        }
+        log.warn("Virtual thread 被 pin 住 {} ms，thread={}\n    at {}",
+            event.getDuration().toMillis(),
+            event.getThread() == null ? "?" : event.getThread().getJavaName(),
+            frames);
+    }
+
+    @Override
+    public void destroy() {
+        if (stream != null) {
+            stream.close();
+        }
+    }
+}
@@ -1,143 +1,210 @@
 package tw.luke.checkout.controller;
 
 import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import tw.luke.checkout.config.CurrentUserId;
+import tw.luke.checkout.config.ReadYourWrites;
 import tw.luke.checkout.dto.*;
-import tw.luke.checkout.service.CheckoutService;
+import tw.luke.checkout.repository.AvailabilityRepository;
+import tw.luke.checkout.service.AvailabilityStream;
+import tw.luke.checkout.service.CartStore;
+import tw.luke.checkout.service.CheckoutIdempotencyService;
+import tw.luke.checkout.service.CheckoutSummaryService;
+import tw.luke.checkout.service.ECPayCallbackProcessor;
+import tw.luke.checkout.service.CheckoutQueue;
 
 import java.io.IOException; 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 @RestController
 @RequestMapping("/api/checkout")
 public class CheckoutController {
     
-    @Autowired
-    private CheckoutService checkoutService;
+    private static final Logger log = LoggerFactory.getLogger(CheckoutController.class);
     
     @Autowired
-    private JdbcTemplate jdbcTemplate;
+    private CheckoutIdempotencyService checkoutIdempotencyService;
+    
+    @Autowired(required = false)
+    private CheckoutQueue checkoutQueue;
     
     @Autowired
     private tw.luke.checkout.repository.OrderRepository orderRepository;
     
-    // 加入/更新購物車
+    @Autowired
+    private CartStore cartStore;
+    
+    @Autowired
+    private ReadYourWrites readYourWrites;
+    
+    @Autowired
+    private CheckoutSummaryService checkoutSummaryService;
+    
+    // 可以存但每次都要先問 (帶 If-None-Match)，只存在使用者自己的瀏覽器
+    private static final CacheControl REVALIDATE = CacheControl.noCache().cachePrivate();
+    
+    @Autowired
+    private ECPayCallbackProcessor ecPayCallbackProcessor;
+    
+    @Autowired
+    private AvailabilityStream availabilityStream;
+    
+    @Autowired
+    private AvailabilityRepository availabilityRepository;
+    
+    private static final CacheControl AVAILABILITY_CACHE = CacheControl.maxAge(Duration.ofSeconds(1)).cachePublic();
+    
+    // 加入/更新購物車 (購物車在記憶體，CartStore 會定期寫回 cart_items)
     @PostMapping("/add")
-    @Transactional
-    public String addToCart(@RequestBody AddToCartForm form) {
-        long currentUserId = 1L; 
-        long ticketTypeId = form.ticketTypeId();
-        int quantityToAdd = form.quantity();
+    public String addToCart(@CurrentUserId long currentUserId, @RequestBody AddToCartForm form) {
+        addAllToCart(currentUserId, List.of(form));
         
-        // 防呆
-        if (quantityToAdd <= 0) {
-            jdbcTemplate.update("DELETE FROM cart_items WHERE user_id = ? AND event_ticket_type_id = ?", currentUserId, ticketTypeId);
+        // 防呆：數量 <= 0 代表移除
+        if (form.quantity() != null && form.quantity() <= 0) {
             return "{\"status\": \"success\", \"message\": \"Item removed\"}";
         }
-        
-        // 計算「預期總數量」 (原本購物車有的 + 這次要加的)
-        // 先查購物車現在有幾張 (如果沒有就是 0)
-        String sqlCount = "SELECT COALESCE(SUM(quantity), 0) FROM cart_items WHERE user_id = ? AND event_ticket_type_id = ?";
-        Integer currentCartQty = jdbcTemplate.queryForObject(sqlCount, Integer.class, currentUserId, ticketTypeId);
-        
-        int finalQuantity = currentCartQty + quantityToAdd;
-        
-        // 檢查規則 ：單次限購規則 (例如總數不能超過 4) 
-        // 這裡假設要檢查總數
-        if (finalQuantity > 4) {
-            throw new RuntimeException("單一票種每人限購 4 張");
-        }
-        
-        // 檢查規則 ：資料庫庫存檢查 (Call Repository) 
-        // KEY point
-        // 呼叫 checkStock
-        boolean isStockEnough = orderRepository.checkStock(ticketTypeId, finalQuantity);
-        
-        if (!isStockEnough) {
-            throw new RuntimeException("庫存不足！無法加入購物車");
-        }
-        
-        // 執行加入/更新
-        if (currentCartQty > 0) {
-            jdbcTemplate.update("UPDATE cart_items SET quantity = ? WHERE user_id = ? AND event_ticket_type_id = ?", finalQuantity, currentUserId, ticketTypeId);
-        } else {
-            jdbcTemplate.update("INSERT INTO cart_items (user_id, event_ticket_type_id, quantity) VALUES (?, ?, ?)", currentUserId, ticketTypeId, finalQuantity);
-        }
+        return "{\"status\": \"success\", \"message\": \"Cart updated\"}";
+    }
+    
+    // 一次加入/更新多個票種：全部一起檢查限購與庫存 (一個查詢)，任何一個不通過就都不改
+    @PostMapping("/add-bulk")
+    public String addAllToCart(@CurrentUserId long currentUserId, @RequestBody List<AddToCartForm> forms) {
+        cartStore.update(currentUserId, current -> {
+            // 計算「預期總數量」 (原本購物車有的 + 這次要加的)，同一個票種出現多次就依序累加
+            Map<Long, Integer> finalQuantities = new LinkedHashMap<>();
+            Set<Long> added = new HashSet<>();
+            for (AddToCartForm form : forms) {
+                if (form.ticketTypeId() == null || form.quantity() == null) {
+                    throw new RuntimeException("請指定票種與數量");
+                }
+                long ticketTypeId = form.ticketTypeId();
+                int quantityToAdd = form.quantity();
+                if (quantityToAdd <= 0) {
+                    finalQuantities.put(ticketTypeId, 0);
+                    added.remove(ticketTypeId);
+                    continue;
+                }
+                int currentCartQty = finalQuantities.containsKey(ticketTypeId)
+                    ? finalQuantities.get(ticketTypeId)
+                    : current.getOrDefault(ticketTypeId, 0);
+                finalQuantities.put(ticketTypeId, currentCartQty + quantityToAdd);
+                added.add(ticketTypeId);
+            }
+            
+            // 檢查規則 ：單次限購規則 (單一票種總數不能超過 4)
+            Map<Long, Integer> required = new LinkedHashMap<>();
+            for (Long ticketTypeId : added) {
+                int finalQuantity = finalQuantities.get(ticketTypeId);
+                if (finalQuantity > 4) {
+                    throw new RuntimeException("單一票種每人限購 4 張");
+                }
+                required.put(ticketTypeId, finalQuantity);
+            }
+            
+            // 檢查規則 ：資料庫庫存檢查 (所有要加的票種一個查詢；讀副本，剛結帳完的使用者讀主庫)
+            if (!readYourWrites.read(ReadYourWrites.user(currentUserId), () -> orderRepository.findShortages(required)).isEmpty()) {
+                throw new RuntimeException("庫存不足！無法加入購物車");
+            }
+            return finalQuantities;
+        });
         
         return "{\"status\": \"success\", \"message\": \"Cart updated\"}";
     }
     
     // 取得結帳頁面資訊
+    // 帶 ETag：購物車沒變時瀏覽器送 If-None-Match 回來，直接回 304 (不組摘要、不碰資料庫)
     @GetMapping("/summary")
-    public CheckoutStubResponse getCheckoutSummary() {
-        long currentUserId = 1L;
-        
-        
-        String sql = """
-            SELECT 
-                ci.id AS cart_id,
-                e.title AS product_name,  
-                tt_template.name AS ticket_type, 
-                ci.quantity,
-                CASE
-                    WHEN ett.custom_price IS NOT NULL AND ett.custom_price > 0 THEN ett.custom_price
-                    ELSE tt_template.price
-                END AS unit_price
-            FROM otp.cart_items ci
-            JOIN otp.event_ticket_type ett ON ci.event_ticket_type_id = ett.id
-            JOIN otp.ticket_type tt_template ON ett.ticket_template_id = tt_template.id
-            JOIN otp.event e ON ett.event_id = e.id
-            WHERE ci.user_id = ?
-        """;
-        
-        List<OrderItemDto> order = jdbcTemplate.query(sql, (rs, rowNum) -> {
-            double price = rs.getDouble("unit_price");
-            int qty = rs.getInt("quantity");
-            
-            return new OrderItemDto(
-                rs.getLong("cart_id"),
-                rs.getString("product_name"), 
-                rs.getString("ticket_type"), 
-                price,                        
-                qty,
-                price * qty // 由於 price 和 subtotal 已經是 double，這裡的計算結果也是 double
-            );
-        }, currentUserId);
-        
-        CustomerDto customer = jdbcTemplate.queryForObject(
-            "SELECT email FROM otp.user WHERE id = ?", 
-            (rs, rowNum) -> {
-                String email = rs.getString("email");
-                // 這裡使用假資料 ("Stub Name", "0912-345-678") 來滿足 CustomerDto 的結構
-                return new CustomerDto("Test User", "0912-345-678", email);
-            },
-            currentUserId
-        );
-        
-        int totalAmount = (int) order.stream().mapToDouble(OrderItemDto::subtotal).sum();
-        return new CheckoutStubResponse(customer, order, totalAmount);
+    public ResponseEntity<CheckoutStubResponse> getCheckoutSummary(@CurrentUserId long currentUserId, WebRequest request) {
+        if (request.checkNotModified(checkoutSummaryService.etag(currentUserId))) {
+            return null;
+        }
+        CheckoutSummaryService.Summary summary = checkoutSummaryService.summary(currentUserId);
+        return ResponseEntity.ok()
+            .eTag(summary.etag())
+            .cacheControl(REVALIDATE)
+            .body(summary.response());
     }
     
-    // 輔助 API
+    // 輔助 API (跟 summary 一樣依購物車版本號回 304)
     @GetMapping("/my-cart-simple")
-    public List<Map<String, Object>> getMyCartSimple() {
-        return jdbcTemplate.queryForList("SELECT event_ticket_type_id AS ticket_type_id, quantity FROM cart_items WHERE user_id = ?", 1L);
+    public ResponseEntity<List<Map<String, Object>>> getMyCartSimple(@CurrentUserId long currentUserId, WebRequest request) {
+        if (request.checkNotModified(checkoutSummaryService.etag(currentUserId))) {
+            return null;
+        }
+        CartStore.View cart = cartStore.view(currentUserId);
+        List<Map<String, Object>> items = new ArrayList<>();
+        cart.items().forEach((ticketTypeId, quantity) ->
+            items.add(Map.of("ticket_type_id", ticketTypeId, "quantity", quantity)));
+        return ResponseEntity.ok()
+            .eTag(checkoutSummaryService.etag(cart))
+            .cacheControl(REVALIDATE)
+            .body(items);
+    }
+    
+    // 活動所有票種的剩餘數量 (商品頁載入時一次拿)：回傳記憶體裡的快照，背景每 snapshot-refresh 重新查一次 (見 AvailabilityRepository)
+    // 快照本來就會晚一點，允許瀏覽器 / CDN 跟著快取同樣的時間
+    @GetMapping("/events/{eventId}/availability")
+    public ResponseEntity<List<TicketAvailability>> getEventAvailability(@PathVariable long eventId) {
+        return ResponseEntity.ok()
+            .cacheControl(AVAILABILITY_CACHE)
+            .body(availabilityRepository.findByEvent(eventId));
+    }
+    
+    // 商品頁的即時庫存 (SSE)：連上先收到完整的剩餘數量，之後只推有變動的票種 (見 AvailabilityStream)
+    @GetMapping(value = "/availability", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter availability() {
+        return availabilityStream.subscribe();
     }
     
     // 送出訂單 (給前端 JS 呼叫)
+    // 有開排隊區時立刻回傳 {status: queued, ticketId, position}，前端再用下面的 API 輪詢結果
+    // idempotency key 可以放在 JSON (idempotencyKey) 或 Header (Idempotency-Key)，重送會拿到第一次的結果
     @PostMapping("/submit")
-    public Map<String, String> submitOrder(@RequestBody CheckoutForm form) {
-        return checkoutService.processOrder(form);
+    public Map<String, String> submitOrder(@CurrentUserId long currentUserId,
+                                           @RequestBody CheckoutForm form,
+                                           @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        if (form.idempotencyKey() == null && idempotencyKey != null) {
+            form = form.withIdempotencyKey(idempotencyKey);
+        }
+        if (checkoutQueue != null) {
+            return checkoutQueue.submit(currentUserId, form);
+        }
+        return checkoutIdempotencyService.processOrder(currentUserId, form);
+    }
+    
+    // 查詢排隊結果
+    @GetMapping("/submit/{ticketId}")
+    public Map<String, String> getSubmitStatus(@CurrentUserId long currentUserId, @PathVariable String ticketId) {
+        if (checkoutQueue == null) {
+            throw new RuntimeException("未啟用結帳排隊");
+        }
+        return checkoutQueue.status(ticketId, currentUserId);
     }
     
-    // 綠界交易
-    @RequestMapping(value = "/ecpay-return", method = {RequestMethod.POST, RequestMethod.GET})
+    // 綠界交易 (瀏覽器直接打開時)
+    @GetMapping("/ecpay-return")
     public void ecpayReturn(HttpServletResponse response) throws IOException {
-        System.out.println("收到綠界回傳 (POST/GET)，準備跳轉 success.html");
+        log.debug("收到綠界回傳 (GET)，準備跳轉 success.html");
         response.sendRedirect("/success.html");
     }
+    
+    // 綠界付款結果通知 (ReturnURL，server 對 server 的 POST)，body 一定要回 1|OK，否則綠界會重送
+    @PostMapping(value = "/ecpay-return", produces = MediaType.TEXT_PLAIN_VALUE)
+    public String ecpayNotify(@RequestParam Map<String, String> params) {
+        return ecPayCallbackProcessor.handle(params);
+    }
 }
\ No newline at end of file
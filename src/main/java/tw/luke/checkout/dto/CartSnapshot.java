@@ -0,0 +1,65 @@
+package tw.luke.checkout.dto;
+
+import java.util.List;
+
+// 結帳當下的購物車快照：一次結帳只從資料庫讀一次，價格已經算好，之後的預約、扣庫存、付款、建單都共用這份
+public record CartSnapshot(
+        long userId,
+        List<Line> lines
+) {
+    
+    public CartSnapshot {
+        lines = List.copyOf(lines);
+    }
+    
+    public boolean isEmpty() {
+        return lines.isEmpty();
+    }
+    
+    public int totalQuantity() {
+        return lines.stream().mapToInt(Line::quantity).sum();
+    }
+    
+    // 總金額 (分)
+    public long totalCents() {
+        long total = 0;
+        for (Line line : lines) {
+            total += line.subtotalCents();
+        }
+        return total;
+    }
+    
+    // 總金額 (與原本 calculateTotal 一樣，取整數元)
+    public int totalAmount() {
+        return Money.dollars(totalCents());
+    }
+    
+    // 單筆訂單只對應一個活動，取第一行的 event_id (購物車是空的回傳 null)
+    public Long eventId() {
+        return lines.isEmpty() ? null : lines.get(0).eventId();
+    }
+    
+    /**
+     * 購物車的一行
+     * @param eventTicketTypeId event_ticket_type.id
+     * @param eventId 活動 ID
+     * @param quantity 購買張數
+     * @param unitPriceCents 成交單價，單位是分 (custom_price 優先，否則用票種樣板價格)
+     * @param limited 是否限量
+     * @param stockAtLoad 讀取快照當下的剩餘數量 (非鎖定讀取，只能當參考，扣庫存以 UPDATE 結果為準；custom_limit 是 NULL 時為 0)
+     * @param stockShards 庫存分片數 (0 = 直接扣 custom_limit，見 StockShardRepository)
+     */
+    public record Line(
+            long eventTicketTypeId,
+            long eventId,
+            int quantity,
+            long unitPriceCents,
+            boolean limited,
+            int stockAtLoad,
+            int stockShards
+    ) {
+        public long subtotalCents() {
+            return unitPriceCents * quantity;
+        }
+    }
+}
@@ -1,11 +1,19 @@
 package tw.luke.checkout.dto;
 
 // 這是用來對應前端送過來的 JSON 欄位
+// idempotencyKey：前端每次進結帳頁產生一次，重送 / 連點都帶同一個，後端只會真的結帳一次
 public record CheckoutForm(
     String paymentMethod,
     String atmLast5,
     String invoiceType,
     String invoiceValue,
     String customerEmail,
-    String invOption      
-) {}
\ No newline at end of file
+    String invOption,
+    String idempotencyKey
+) {
+    
+    // Header (Idempotency-Key) 帶進來的 key 補進表單
+    public CheckoutForm withIdempotencyKey(String key) {
+        return new CheckoutForm(paymentMethod, atmLast5, invoiceType, invoiceValue, customerEmail, invOption, key);
+    }
+}
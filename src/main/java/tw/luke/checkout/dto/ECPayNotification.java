@@ -0,0 +1,15 @@
+package tw.luke.checkout.dto;
+
+// 綠界付款結果通知 (ReturnURL) 裡本服務會用到的欄位
+// rtnCode = 1 代表付款成功，其他都是失敗；tradeAmt 要跟訂單金額一致才會入帳
+public record ECPayNotification(
+    String merchantTradeNo,
+    String tradeNo,
+    int rtnCode,
+    int tradeAmt
+) {
+
+    public boolean isPaid() {
+        return rtnCode == 1;
+    }
+}
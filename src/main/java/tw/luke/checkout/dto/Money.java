@@ -0,0 +1,27 @@
+package tw.luke.checkout.dto;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+// 金額一律用 long 的「分」(新台幣 1 元 = 100 分) 在程式裡傳遞與相加，不用 double (會有誤差) 也不用每一步都配置 BigDecimal
+// 只有進出資料庫 DECIMAL 欄位 (價格) 與 JSON 顯示時才轉換
+public final class Money {
+
+    private Money() {
+    }
+
+    // DECIMAL(10, 2) → 分
+    public static long cents(BigDecimal amount) {
+        return amount.movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+    }
+
+    // 分 → DECIMAL(10, 2)
+    public static BigDecimal decimal(long cents) {
+        return BigDecimal.valueOf(cents, 2);
+    }
+
+    // 分 → 整數元 (去掉小數，跟原本 BigDecimal.intValue() 一樣)；訂單、預約、金流的金額欄位都是 INT 元
+    public static int dollars(long cents) {
+        return Math.toIntExact(cents / 100);
+    }
+}
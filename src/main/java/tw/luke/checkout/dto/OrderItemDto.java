@@ -1,10 +1,31 @@
 package tw.luke.checkout.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.math.BigDecimal;
+
+// 金額在程式裡是分 (Money)，JSON 的 unitprice / subtotal 照舊輸出「元」
 public record OrderItemDto(
         Long id,
         String product,
         String type,
-        double unitprice,   
-        int quantity,
-        double subtotal     
-) {}
\ No newline at end of file
+        @JsonIgnore long unitPriceCents,
+        int quantity
+) {
+
+    @JsonIgnore
+    public long subtotalCents() {
+        return unitPriceCents * quantity;
+    }
+
+    @JsonProperty("unitprice")
+    public BigDecimal unitprice() {
+        return Money.decimal(unitPriceCents);
+    }
+
+    @JsonProperty("subtotal")
+    public BigDecimal subtotal() {
+        return Money.decimal(subtotalCents());
+    }
+}
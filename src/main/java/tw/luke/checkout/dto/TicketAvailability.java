@@ -0,0 +1,8 @@
+package tw.luke.checkout.dto;
+
+// 票種的剩餘數量 (商品頁一次拿一整個活動)：limited = false 時 remaining 沒有意義 (不會賣完)
+public record TicketAvailability(
+        long id,              // event_ticket_type.id
+        boolean limited,
+        int remaining         // 已含分片庫存
+) {}
@@ -0,0 +1,10 @@
+package tw.luke.checkout.dto;
+
+// 票種目錄 (event_ticket_type 展開後的結果)：價格、活動、票種名稱，開賣期間幾乎不會變，適合快取
+public record TicketCatalog(
+        long eventTicketTypeId,
+        long eventId,
+        String eventTitle,
+        String ticketName,
+        long priceCents   // 已套用 custom_price 優先規則 (見 Money)
+) {}
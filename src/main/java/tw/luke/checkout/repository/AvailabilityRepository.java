@@ -0,0 +1,117 @@
+package tw.luke.checkout.repository;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import tw.luke.checkout.config.ReadWriteRoutingDataSource;
+import tw.luke.checkout.dto.TicketAvailability;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+// 所有票種剩餘數量的快照 (整張 event_ticket_type 一個查詢)，下面幾個地方共用同一份，不各自查資料庫：
+// - 商品頁載入 (GET /api/checkout/events/{id}/availability)：依活動分好的票種清單
+// - 加入購物車的預檢 (OrderRepository.findShortages)：快照已經不夠就不用查資料庫
+// - 即時庫存 (AvailabilityStream)：每個 tick 用 reload 重新查一次並換上新的快照，其他人跟著拿到這一份
+// stale-while-revalidate：快照超過 refresh 之後第一個讀取的人照樣拿舊的，同時在背景重新查一次 (同時只會有一個查詢)
+// 超過 max-stale 都沒人讀 (也沒有 tick) 才會丟掉，下一個讀取同步載入
+// 只是顯示與預檢用 (會晚 refresh 左右)，真正扣庫存一律以資料庫為準
+@Repository
+public class AvailabilityRepository {
+
+    private static final String AVAILABILITY_SQL = """
+        SELECT ett.id, ett.event_id, ett.is_limited, %s AS remaining
+        FROM otp.event_ticket_type ett
+        ORDER BY ett.event_id, ett.id
+    """.formatted(StockShardRepository.TOTAL_STOCK_SQL);
+
+    // 快照只有一份，cache 只用這一個 key (保留 Caffeine 的背景刷新與統計)
+    private static final String ALL = "all";
+
+    // byTicketType：票種 ID -> 剩餘數量；byEvent：活動 ID -> 票種 (依票種 ID 排序)；remaining：限量票種 ID -> 剩餘張數
+    public record Snapshot(Map<Long, TicketAvailability> byTicketType,
+                           Map<Long, List<TicketAvailability>> byEvent,
+                           Map<Long, Integer> remaining) {}
+
+    private final JdbcTemplate jdbcTemplate;
+    private final LoadingCache<String, Snapshot> snapshots;
+
+    public AvailabilityRepository(JdbcTemplate jdbcTemplate,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${app.availability.snapshot-refresh:1s}") Duration refresh,
+                                  @Value("${app.availability.snapshot-max-stale:1m}") Duration maxStale) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.snapshots = Caffeine.newBuilder()
+                .refreshAfterWrite(refresh)
+                .expireAfterWrite(maxStale)
+                // 背景重新查詢會卡在 JDBC 上，不要佔用 ForkJoinPool.commonPool
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .recordStats()
+                .build(key -> load());
+
+        // /actuator/metrics/cache.gets?tag=cache:ticketAvailability
+        CaffeineCacheMetrics.monitor(meterRegistry, snapshots, "ticketAvailability");
+    }
+
+    public Snapshot snapshot() {
+        return snapshots.get(ALL);
+    }
+
+    // 馬上重新查一次並換上新的快照 (AvailabilityStream 每個 tick 呼叫)
+    public Snapshot reload() {
+        Snapshot snapshot = load();
+        snapshots.put(ALL, snapshot);
+        return snapshot;
+    }
+
+    // 活動的所有票種 (依票種 ID 排序)；沒有這個活動回傳空的
+    public List<TicketAvailability> findByEvent(long eventId) {
+        return snapshot().byEvent().getOrDefault(eventId, List.of());
+    }
+
+    // 快照裡的單一票種；沒有就回傳 null
+    public TicketAvailability find(long eventTicketTypeId) {
+        return snapshot().byTicketType().get(eventTicketTypeId);
+    }
+
+    public void invalidateAll() {
+        snapshots.invalidateAll();
+    }
+
+    public CacheStats stats() {
+        return snapshots.stats();
+    }
+
+    private Snapshot load() {
+        Map<Long, TicketAvailability> byTicketType = new HashMap<>();
+        Map<Long, List<TicketAvailability>> byEvent = new HashMap<>();
+        Map<Long, Integer> remaining = new HashMap<>();
+        // 晚一點沒關係，讀副本
+        ReadWriteRoutingDataSource.onReplica(() -> {
+            jdbcTemplate.query(AVAILABILITY_SQL, rs -> {
+                TicketAvailability ticket = new TicketAvailability(
+                    rs.getLong("id"),
+                    OrderRepository.isLimited(rs),
+                    Math.max(0, rs.getInt("remaining"))
+                );
+                byTicketType.put(ticket.id(), ticket);
+                byEvent.computeIfAbsent(rs.getLong("event_id"), eventId -> new ArrayList<>()).add(ticket);
+                if (ticket.limited()) {
+                    remaining.put(ticket.id(), ticket.remaining());
+                }
+            });
+            return null;
+        });
+        byEvent.replaceAll((eventId, tickets) -> List.copyOf(tickets));
+        return new Snapshot(Map.copyOf(byTicketType), Map.copyOf(byEvent), Map.copyOf(remaining));
+    }
+}
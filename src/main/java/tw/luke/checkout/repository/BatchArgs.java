@@ -0,0 +1,30 @@
+package tw.luke.checkout.repository;
+
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+
+// batchUpdate 的參數：每一列直接用 setter 從物件填進 PreparedStatement (setLong / setInt)，
+// 不用先為每一列組一個 Object[] 再把每個值 box 起來
+final class BatchArgs {
+
+    private BatchArgs() {
+    }
+
+    static <T> BatchPreparedStatementSetter of(List<T> items, ParameterizedPreparedStatementSetter<T> setter) {
+        return new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                setter.setValues(ps, items.get(i));
+            }
+
+            @Override
+            public int getBatchSize() {
+                return items.size();
+            }
+        };
+    }
+}
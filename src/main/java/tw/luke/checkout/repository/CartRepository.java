@@ -0,0 +1,83 @@
+package tw.luke.checkout.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// cart_items 的讀寫，只給 CartStore 用 (購物車平常在記憶體，這裡是載入與 write-behind 寫回)
+@Repository
+public class CartRepository {
+
+    // 一個 statement 最多幾列 (MySQL 一個 statement 的參數上限是 65535 個)
+    private static final int MAX_ROWS_PER_STATEMENT = 1000;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // 票種 ID -> 張數 (舊資料同一票種可能有多列，合併起來)
+    public Map<Long, Integer> load(long userId) {
+        Map<Long, Integer> items = new LinkedHashMap<>();
+        jdbcTemplate.query(
+            "SELECT event_ticket_type_id, quantity FROM otp.cart_items WHERE user_id = ? ORDER BY id",
+            rs -> {
+                items.merge(rs.getLong("event_ticket_type_id"), rs.getInt("quantity"), Integer::sum);
+            },
+            userId
+        );
+        return items;
+    }
+
+    // 把一批 (可能來自很多使用者的) 購物車變動寫回，整批一個交易
+    // 張數 > 0 的用一個多列 INSERT ... ON DUPLICATE KEY UPDATE (uk_cart_items_user_ticket) 一次寫完，有移除的才多一個 DELETE
+    // 依 (user_id, 票種) 排序，跟其他寫入同樣順序拿鎖
+    @Transactional
+    public void write(List<Line> lines) {
+        if (lines.isEmpty()) {
+            return;
+        }
+        List<Line> sorted = lines.stream()
+            .sorted(Comparator.comparingLong(Line::userId).thenComparingLong(Line::eventTicketTypeId))
+            .toList();
+        List<Line> upserts = sorted.stream().filter(line -> line.quantity() > 0).toList();
+        List<Line> removals = sorted.stream().filter(line -> line.quantity() <= 0).toList();
+
+        for (int from = 0; from < upserts.size(); from += MAX_ROWS_PER_STATEMENT) {
+            List<Line> chunk = upserts.subList(from, Math.min(from + MAX_ROWS_PER_STATEMENT, upserts.size()));
+            List<Object> args = new ArrayList<>(chunk.size() * 3);
+            for (Line line : chunk) {
+                args.add(line.userId());
+                args.add(line.eventTicketTypeId());
+                args.add(line.quantity());
+            }
+            jdbcTemplate.update("""
+                INSERT INTO otp.cart_items (user_id, event_ticket_type_id, quantity)
+                VALUES %s
+                ON DUPLICATE KEY UPDATE quantity = VALUES(quantity)
+            """.formatted(String.join(", ", Collections.nCopies(chunk.size(), "(?, ?, ?)"))), args.toArray());
+        }
+
+        for (int from = 0; from < removals.size(); from += MAX_ROWS_PER_STATEMENT) {
+            List<Line> chunk = removals.subList(from, Math.min(from + MAX_ROWS_PER_STATEMENT, removals.size()));
+            List<Object> args = new ArrayList<>(chunk.size() * 2);
+            for (Line line : chunk) {
+                args.add(line.userId());
+                args.add(line.eventTicketTypeId());
+            }
+            jdbcTemplate.update("""
+                DELETE FROM otp.cart_items
+                WHERE (user_id, event_ticket_type_id) IN (%s)
+            """.formatted(String.join(", ", Collections.nCopies(chunk.size(), "(?, ?)"))), args.toArray());
+        }
+    }
+
+    // quantity = 0 代表從購物車移除
+    public record Line(long userId, long eventTicketTypeId, int quantity) {}
+}
@@ -0,0 +1,105 @@
+package tw.luke.checkout.repository;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+// 結帳 idempotency key 的資料庫紀錄 (otp.checkout_idempotency)，跨機器、跨重啟都有效
+// claim 在 processOrder 扣庫存 / 建訂單的交易裡呼叫：訂單成立才會留下紀錄，結帳失敗 rollback 後同一個 key 可以重試
+// complete 在交易 commit、付款準備完成之後才寫；付款準備失敗時 release 放掉 key (訂單已經取消)，同一個 key 可以重試
+// claim 時一併記下訂單編號 (merchant_trade_no)：commit 之後、complete 之前當機的 key 可以用 findOrphan 找回訂單
+@Repository
+public class CheckoutIdempotencyRepository {
+    
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final TypeReference<Map<String, String>> RESPONSE_TYPE = new TypeReference<>() {};
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    private static final String FIND_ORPHAN_SQL = """
+        SELECT ci.merchant_trade_no, o.status, o.total_amount, o.payment_method
+        FROM otp.checkout_idempotency ci
+        LEFT JOIN otp.orders o ON o.merchant_trade_no = ci.merchant_trade_no
+        WHERE ci.user_id = ? AND ci.idempotency_key = ?
+          AND ci.response IS NULL AND ci.merchant_trade_no IS NOT NULL
+          AND ci.created_at < TIMESTAMPADD(SECOND, ?, NOW())
+    """;
+    
+    // 佔用了 key、訂單也建了，但結果沒存下來 (orderStatus = null 代表訂單不在了)
+    // paymentMethod 是建訂單時選的付款方式 (V12 之前的訂單是 null)
+    public record Orphan(String merchantTradeNo, String orderStatus, int totalAmount, String paymentMethod) {}
+    
+    // 佔用 key (PRIMARY KEY 擋重複)，merchantTradeNo 是這次結帳要建立的訂單
+    // 另一個交易正拿著同一個 key 時，MySQL 會等它 commit / rollback 才決定這裡成功或重複
+    public void claim(long userId, String idempotencyKey, String merchantTradeNo) {
+        try {
+            jdbcTemplate.update(
+                "INSERT INTO otp.checkout_idempotency (user_id, idempotency_key, merchant_trade_no, created_at) VALUES (?, ?, ?, NOW())",
+                userId, idempotencyKey, merchantTradeNo
+            );
+        } catch (DuplicateKeyException e) {
+            throw new DuplicateSubmissionException(idempotencyKey);
+        }
+    }
+    
+    // 結帳完成，把要回給前端的結果存起來
+    public void complete(long userId, String idempotencyKey, Map<String, String> response) {
+        try {
+            jdbcTemplate.update(
+                "UPDATE otp.checkout_idempotency SET response = ? WHERE user_id = ? AND idempotency_key = ?",
+                JSON.writeValueAsString(response), userId, idempotencyKey
+            );
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("結帳結果無法儲存", e);
+        }
+    }
+    
+    // 放掉還沒有結果的 key (訂單 commit 之後付款準備失敗)
+    public void release(long userId, String idempotencyKey) {
+        jdbcTemplate.update(
+            "DELETE FROM otp.checkout_idempotency WHERE user_id = ? AND idempotency_key = ? AND response IS NULL",
+            userId, idempotencyKey
+        );
+    }
+    
+    // 之前存下來的結果，沒有紀錄回傳 null (還在處理中也是 null)
+    public Map<String, String> findResponse(long userId, String idempotencyKey) {
+        List<String> rows = jdbcTemplate.queryForList(
+            "SELECT response FROM otp.checkout_idempotency WHERE user_id = ? AND idempotency_key = ?",
+            String.class, userId, idempotencyKey
+        );
+        if (rows.isEmpty() || rows.get(0) == null) {
+            return null;
+        }
+        try {
+            return JSON.readValue(rows.get(0), RESPONSE_TYPE);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("結帳結果讀取失敗", e);
+        }
+    }
+    
+    // 佔用超過 staleAfter 還沒有結果的 key (正常結帳幾秒內就會 complete，超過就是存結果之前當機了)，沒有回傳 null
+    public Orphan findOrphan(long userId, String idempotencyKey, Duration staleAfter) {
+        List<Orphan> rows = jdbcTemplate.query(FIND_ORPHAN_SQL, (rs, rowNum) -> new Orphan(
+            rs.getString("merchant_trade_no"), rs.getString("status"), rs.getInt("total_amount"), rs.getString("payment_method")
+        ), userId, idempotencyKey, -staleAfter.toSeconds());
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+    
+    // 清掉超過保留期限的紀錄 (created_at 有索引)
+    public int purgeOlderThan(Duration retention) {
+        return jdbcTemplate.update(
+            "DELETE FROM otp.checkout_idempotency WHERE created_at < TIMESTAMPADD(SECOND, ?, NOW())",
+            -retention.toSeconds()
+        );
+    }
+}
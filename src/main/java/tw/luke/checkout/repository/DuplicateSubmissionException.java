@@ -0,0 +1,16 @@
+package tw.luke.checkout.repository;
+
+// 同一個 idempotency key 已經結帳過 (可能是別台機器、或重啟前)，呼叫端改回傳當時存下來的結果
+public class DuplicateSubmissionException extends RuntimeException {
+    
+    private final String idempotencyKey;
+    
+    public DuplicateSubmissionException(String idempotencyKey) {
+        super("此訂單已送出過，請勿重複結帳 (key: " + idempotencyKey + ")");
+        this.idempotencyKey = idempotencyKey;
+    }
+    
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+}
@@ -1,136 +1,202 @@
 package tw.luke.checkout.repository;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
+import java.time.Duration;
 import java.util.Objects;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import tw.luke.checkout.dto.CartSnapshot;
 import tw.luke.checkout.dto.CheckoutForm;
-import tw.luke.checkout.dto.CustomerDto;
+import tw.luke.checkout.dto.Money;
+import tw.luke.checkout.dto.TicketAvailability;
+import tw.luke.checkout.dto.TicketCatalog;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 @Repository
 public class OrderRepository {
     
+    private static final Logger log = LoggerFactory.getLogger(OrderRepository.class);
+    
     @Autowired
     private JdbcTemplate jdbcTemplate;
     
+    @Autowired
+    private TicketCatalogRepository ticketCatalogRepository;
+    
+    @Autowired
+    private StockShardRepository stockShardRepository;
+    
+    @Autowired
+    private AvailabilityRepository availabilityRepository;
+    
+    
+    // 條件式扣庫存：檢查與扣除在同一個 UPDATE 完成，WHERE custom_limit >= ? 不成立就不會扣
+    private static final String DECREASE_STOCK_SQL = """
+        UPDATE otp.event_ticket_type
+        SET custom_limit = custom_limit - ?
+        WHERE id = ? AND is_limited = 1 AND custom_limit >= ?
+    """;
+    
+    private static final ParameterizedPreparedStatementSetter<CartSnapshot.Line> DECREASE_STOCK_ARGS = (ps, line) -> {
+        ps.setInt(1, line.quantity());
+        ps.setLong(2, line.eventTicketTypeId());
+        ps.setInt(3, line.quantity());
+    };
+    
+    private static final Comparator<CartSnapshot.Line> BY_TICKET_TYPE = Comparator.comparingLong(CartSnapshot.Line::eventTicketTypeId);
     
-    // 檢查並扣除庫存 (修正版：處理 INT UNSIGNED 轉型問題)
-    public void decreaseStock(long userId) {
-        // 先把使用者購物車裡的東西撈出來
-        String sqlCart = "SELECT event_ticket_type_id, quantity FROM otp.cart_items WHERE user_id = ?";
-        List<Map<String, Object>> cartItems = jdbcTemplate.queryForList(sqlCart, userId);
+    // 購物車的一列 + 它的限量設定與剩餘數量 (custom_limit 是 NULL 時 stock = 0)
+    private record CartRow(long eventTicketTypeId, int quantity, boolean limited, int stockShards, int stock) {}
+    
+    private static final RowMapper<CartRow> CART_ROW = (rs, rowNum) -> new CartRow(
+        rs.getLong("event_ticket_type_id"),
+        rs.getInt("quantity"),
+        isLimited(rs),
+        rs.getInt("stock_shards"),
+        rs.getInt("custom_limit")
+    );
+    
+    private static final String CART_SQL = """
+        SELECT ci.event_ticket_type_id, ci.quantity, ett.is_limited, ett.stock_shards,
+               %s AS custom_limit
+        FROM otp.cart_items ci
+        JOIN otp.event_ticket_type ett ON ci.event_ticket_type_id = ett.id
+        WHERE ci.user_id = ?
+    """.formatted(StockShardRepository.TOTAL_STOCK_SQL);
+    
+    // 讀取購物車快照 (一次結帳只讀這一次)
+    // 價格、活動從票種目錄快取拿；限量設定與剩餘數量一直在變，跟購物車一起從 event_ticket_type 讀 (分片模式加總所有分片)
+    public CartSnapshot loadCartSnapshot(long userId) {
+        List<CartRow> cartItems = jdbcTemplate.query(CART_SQL, CART_ROW, userId);
+        
+        List<Long> ticketTypeIds = new ArrayList<>(cartItems.size());
+        for (CartRow item : cartItems) {
+            ticketTypeIds.add(item.eventTicketTypeId());
+        }
+        Map<Long, TicketCatalog> catalog = ticketCatalogRepository.findAll(ticketTypeIds);
         
-        if (cartItems.isEmpty()) {
+        List<CartSnapshot.Line> lines = new ArrayList<>(cartItems.size());
+        for (CartRow item : cartItems) {
+            TicketCatalog ticket = catalog.get(item.eventTicketTypeId());
+            if (ticket == null) {
+                // 找不到對應的活動 / 票種樣板 (跟原本 JOIN 不到一樣，略過)
+                continue;
+            }
+            lines.add(new CartSnapshot.Line(
+                item.eventTicketTypeId(),
+                ticket.eventId(),
+                item.quantity(),
+                ticket.priceCents(),
+                item.limited(),
+                item.stock(),
+                item.stockShards()
+            ));
+        }
+        
+        return new CartSnapshot(userId, lines);
+    }
+    
+    // 檢查並扣除庫存 (整台購物車一次 batch，任何一筆失敗就整筆 rollback)
+    @Transactional
+    public void decreaseStock(CartSnapshot cart) {
+        if (cart.isEmpty()) {
             throw new RuntimeException("購物車是空的，無法結帳");
         }
         
-        // 逐筆檢查庫存
-        for (Map<String, Object> item : cartItems) {
-            Long eventTicketId = (Long) item.get("event_ticket_type_id"); 
-            Integer buyQty = (Integer) item.get("quantity");
-            
-            // 查詢該票種的限量設定 (is_limited) 和 剩餘數量 (custom_limit) 
-            String sqlCheck = "SELECT is_limited, custom_limit FROM otp.event_ticket_type WHERE id = ?";
-            Map<String, Object> ticketInfo = jdbcTemplate.queryForMap(sqlCheck, eventTicketId);
-            
-            // 處理 is_limited
-            Object isLimitedObj = ticketInfo.get("is_limited");
-            boolean isLimited = false;
-            if (isLimitedObj instanceof Number) {
-                isLimited = ((Number) isLimitedObj).intValue() == 1;
-            } else if (isLimitedObj instanceof Boolean) {
-                isLimited = (Boolean) isLimitedObj;
+        List<Long> shortIds = new ArrayList<>();
+        List<CartSnapshot.Line> direct = new ArrayList<>();
+        List<CartSnapshot.Line> sharded = new ArrayList<>();
+        for (CartSnapshot.Line line : cart.lines()) {
+            // 無限量的票種不用扣，也就不用去拿 row lock
+            if (!line.limited()) {
+                continue;
             }
             
-            // 取得 custom_limit
-            Object limitObj = ticketInfo.get("custom_limit");
-            Integer currentLimit = null;
-            
-            // 先轉成 Number，再取 intValue()，這樣不管是 Long (INT UNSIGNED) 還是 Integer (INT) 都不會報錯
-            if (limitObj != null) {
-                currentLimit = ((Number) limitObj).intValue();
+            // 讀快照時就已經不夠了 (賣完之後的大量請求)，直接判定失敗，不必排隊等 row lock
+            if (line.stockAtLoad() < line.quantity()) {
+                shortIds.add(line.eventTicketTypeId());
+            } else if (line.stockShards() > 0) {
+                sharded.add(line);
+            } else {
+                direct.add(line);
             }
+        }
+        if (!shortIds.isEmpty()) {
+            throw new StockShortageException(shortIds);
+        }
+        
+        // 依票種 ID 排序後再扣，所有結帳都用同樣順序拿 row lock，避免互相 deadlock
+        // (先 event_ticket_type 的列，再分片的列，跟 StockShardRepository 的順序一樣)
+        if (!direct.isEmpty()) {
+            direct.sort(BY_TICKET_TYPE);
+            int[] updated = jdbcTemplate.batchUpdate(DECREASE_STOCK_SQL, BatchArgs.of(direct, DECREASE_STOCK_ARGS));
             
-            if (isLimited) {
-                // 檢查剩餘數量是否足夠
-                if (currentLimit == null || currentLimit < buyQty) {
-                    throw new RuntimeException("很抱歉，部分商品庫存不足！(剩餘: " + (currentLimit == null ? 0 : currentLimit) + ")");
+            // 真正的判斷以 UPDATE 為準：沒更新到的列就是在這段時間被別人買走了
+            for (int i = 0; i < updated.length; i++) {
+                if (updated[i] == 0) {
+                    shortIds.add(direct.get(i).eventTicketTypeId());
                 }
-                
-                // 扣除庫存
-                jdbcTemplate.update(
-                    "UPDATE otp.event_ticket_type SET custom_limit = custom_limit - ? WHERE id = ?",
-                    buyQty, eventTicketId
-                );
             }
         }
+        
+        // 分片模式的票種：隨機扣一個分片，不用跟其他結帳搶同一列
+        sharded.sort(BY_TICKET_TYPE);
+        for (CartSnapshot.Line line : sharded) {
+            if (!shortIds.isEmpty()) {
+                break;
+            }
+            if (!stockShardRepository.decrease(line.eventTicketTypeId(), line.stockShards(), line.quantity())) {
+                shortIds.add(line.eventTicketTypeId());
+            }
+        }
+        if (!shortIds.isEmpty()) {
+            // 丟出例外讓交易 rollback，前面已經扣掉的列也會一起還原
+            throw new StockShortageException(shortIds);
+        }
     }
     
+    // is_limited 是 TINYINT(1)：不管 Driver 把它當 Boolean 還是數字，getInt 都是 0 / 1 (NULL 也是 0)
+    static boolean isLimited(ResultSet rs) throws SQLException {
+        return rs.getInt("is_limited") == 1;
+    }
     
     
     
     
-    // 計算總金額
-    public Integer calculateTotal(long userId) {
-        String sqlTotal = """
-            SELECT COALESCE(SUM(
-                ci.quantity * CASE
-                    WHEN ett.custom_price IS NOT NULL AND ett.custom_price > 0 THEN ett.custom_price
-                    ELSE tt_template.price
-                END
-            ), 0)
-            FROM otp.cart_items ci
-            JOIN otp.event_ticket_type ett ON ci.event_ticket_type_id = ett.id
-            JOIN otp.ticket_type tt_template ON ett.ticket_template_id = tt_template.id
-            WHERE ci.user_id = ?
-        """;
-        
-        Double total = jdbcTemplate.queryForObject(sqlTotal, Double.class, userId);
-        return total != null ? total.intValue() : 0;
-    }
     
-    // 建立預約鎖定 (Reservation Lock)
-    public void createReservations(long userId) {
-        
-        // 獲取訂單明細
-        // 撈 ett.event_id 以符合 Foreign Key 限制
-        String sqlItems = """
-            SELECT 
-                ci.quantity, 
-                ett.id AS event_ticket_type_id,
-                ett.event_id, 
-                CASE
-                    WHEN ett.custom_price IS NOT NULL AND ett.custom_price > 0 THEN ett.custom_price
-                    ELSE tt_template.price
-                END AS price_at_purchase
-            FROM otp.cart_items ci
-            JOIN otp.event_ticket_type ett ON ci.event_ticket_type_id = ett.id
-            JOIN otp.ticket_type tt_template ON ett.ticket_template_id = tt_template.id
-            WHERE ci.user_id = ?
-        """;
-        List<Map<String, Object>> cartItems = jdbcTemplate.queryForList(sqlItems, userId);
+    // 建立預約鎖定 (Reservation Lock)，保留 hold 之後到期，回傳 reservation id
+    public long createReservations(CartSnapshot cart, Duration hold) {
         
-        if (cartItems.isEmpty()) return;
-        
-        final int totalQuantity = cartItems.stream().mapToInt(item -> (Integer) item.get("quantity")).sum();
-        final Integer totalAmount = calculateTotal(userId); 
+        final long userId = cart.userId();
+        final int totalQuantity = cart.totalQuantity();
+        final int totalAmount = cart.totalAmount();
         
         // 取得真正的 Event ID (解決 Foreign Key 錯誤)
-        final Long realEventId = cartItems.stream()
-        .map(item -> (Long) item.get("event_id"))
-        .filter(Objects::nonNull) 
-        .findFirst()
-        .orElseThrow(() -> new RuntimeException("無法從購物車取得有效的活動 ID (Event ID)"));
+        final Long realEventId = cart.eventId();
+        if (realEventId == null) {
+            throw new RuntimeException("無法從購物車取得有效的活動 ID (Event ID)");
+        }
         
         // 取得票種 ID (作為 ticket_type_id 和 scheduleId 的填充值)
-        final Long proxyTicketTypeId = (Long) cartItems.get(0).get("event_ticket_type_id");
+        final Long proxyTicketTypeId = cart.lines().get(0).eventTicketTypeId();
         
         // 寫入資料庫 ---
         KeyHolder keyHolder = new GeneratedKeyHolder();
@@ -139,7 +205,7 @@ public class OrderRepository {
         String insertReservationHeaderSql = """
             INSERT INTO otp.reservations 
             (user_id, event_id, quantity, ticket_type_id, totalAmount, scheduleId, userId, created_at, expires_at, status) 
-            VALUES (?, ?, ?, ?, ?, ?, ?, NOW(), DATE_ADD(NOW(), INTERVAL 15 MINUTE), 'LOCKED')
+            VALUES (?, ?, ?, ?, ?, ?, ?, NOW(), TIMESTAMPADD(SECOND, ?, NOW()), 'LOCKED')
         """;
         
         jdbcTemplate.update(connection -> {
@@ -149,7 +215,7 @@ public class OrderRepository {
             ps.setLong(1, userId);                 
             
             // event_id (bigint, FK) 
-            // 放入從 DB 查出的 realEventId
+            // 放入從購物車快照取得的 realEventId
             ps.setObject(2, realEventId);          
             
             // quantity (int)
@@ -169,47 +235,42 @@ public class OrderRepository {
             // 這是表中的第 14 欄，注意它是 INT 型別，需轉型
             ps.setInt(7, (int) userId);                 
             
+            // expires_at 
+            ps.setLong(8, hold.toSeconds());
+            
             return ps;
         }, keyHolder);
         
         long reservationId = Objects.requireNonNull(keyHolder.getKey()).longValue();
         
-        // 預約鎖定明細表 (otp.reservation_items)
+        // 預約鎖定明細表 (otp.reservation_items)，整台購物車一次 batch 寫入
         String insertReservationItemSql = """
             INSERT INTO otp.reservation_items 
             (reservationId, ticketTypeId, quantity, unitPrice) 
             VALUES (?, ?, ?, ?)
         """;
         
-        for (Map<String, Object> item : cartItems) {
-            jdbcTemplate.update(insertReservationItemSql,
-                reservationId, 
-                (Long) item.get("event_ticket_type_id"), 
-                (Integer) item.get("quantity"),
-                (Integer) ((java.math.BigDecimal) item.get("price_at_purchase")).intValue()
-            );
-        }
-        System.out.println("DEBUG: 成功為 User " + userId + " 創建預約鎖定 ID: " + reservationId);
+        jdbcTemplate.batchUpdate(insertReservationItemSql, BatchArgs.of(cart.lines(), (ps, line) -> {
+            ps.setLong(1, reservationId);
+            ps.setLong(2, line.eventTicketTypeId());
+            ps.setInt(3, line.quantity());
+            ps.setInt(4, Money.dollars(line.unitPriceCents()));
+        }));
+        
+        log.debug("成功為 User {} 創建預約鎖定 ID: {}", userId, reservationId);
+        return reservationId;
     }
     
-    // 建立正式訂單 (Order)
-    public void createOrder(long userId, CheckoutForm form, int totalAmount) {
+    // 建立正式訂單 (Order)，reservation_id 讓預約過期時可以一併把還沒付款的訂單失效
+    // merchant_trade_no 是送給金流的編號，付款通知 (ECPayCallbackProcessor) 靠它找回這筆訂單
+    public void createOrder(CartSnapshot cart, CheckoutForm form, long reservationId, String merchantTradeNo) {
         
         // 1. 取得 Event ID (假設單筆訂單只對應一個 Event)
-        String eventSql = "SELECT distinct ett.event_id FROM otp.cart_items ci JOIN otp.event_ticket_type ett ON ci.event_ticket_type_id = ett.id WHERE ci.user_id = ?";
-        List<Long> eventIds = jdbcTemplate.queryForList(eventSql, Long.class, userId);
-        final Long eventId = eventIds.isEmpty() ? null : eventIds.get(0); 
-        
-        // 2. 處理發票和買家資訊 (從資料庫撈 CustomerDto)
-        final CustomerDto customer = jdbcTemplate.queryForObject(
-            "SELECT account FROM otp.user WHERE id = ?",
-            (rs, rowNum) -> {
-                String email = rs.getString("account");
-                return new CustomerDto("Test User", "0912-345-678", email);
-            },
-            userId
-        );
+        final long userId = cart.userId();
+        final Long eventId = cart.eventId();
+        final int totalAmount = cart.totalAmount();
         
+        // 2. 處理發票資訊
         final String invType = form.invoiceType();
         final String invOpt = form.invOption(); 
         final String invVal = form.invoiceValue();
@@ -245,8 +306,9 @@ public class OrderRepository {
         String insertOrderSql = """
             INSERT INTO otp.orders 
             (user_id, event_id, total_amount, status,
-             invoice_type, invoice_carrier_type, invoice_carrier_code, invoice_tax_id, invoice_donation_code, invoice_value) 
-            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+             invoice_type, invoice_carrier_type, invoice_carrier_code, invoice_tax_id, invoice_donation_code, invoice_value,
+             reservation_id, merchant_trade_no, payment_method) 
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
         """;
         
         // 執行插入並獲取主鍵
@@ -263,6 +325,9 @@ public class OrderRepository {
             ps.setObject(8, taxId);         // invoice_tax_id
             ps.setObject(9, donationCode);  // invoice_donation_code
             ps.setString(10, invVal);       // invoice_value
+            ps.setLong(11, reservationId);  // reservation_id
+            ps.setString(12, merchantTradeNo); // merchant_trade_no
+            ps.setString(13, form.paymentMethod()); // payment_method
             return ps;
         }, keyHolder);
         
@@ -271,37 +336,20 @@ public class OrderRepository {
         // 5. 獲取訂單 ID
         long orderId = Objects.requireNonNull(keyHolder.getKey()).longValue();
         
-        // 6. 插入【訂單明細表】(otp.checkout_orders) (價格快照)
-        String sqlItems = """
-            SELECT 
-                ci.quantity, ett.id AS event_ticket_type_id,
-                CASE
-                    WHEN ett.custom_price IS NOT NULL AND ett.custom_price > 0 THEN ett.custom_price
-                    ELSE tt_template.price
-                END AS price_at_purchase
-            FROM otp.cart_items ci
-            JOIN otp.event_ticket_type ett ON ci.event_ticket_type_id = ett.id
-            JOIN otp.ticket_type tt_template ON ett.ticket_template_id = tt_template.id
-            WHERE ci.user_id = ?
-        """;
-        
-        List<Map<String, Object>> cartItems = jdbcTemplate.queryForList(sqlItems, userId);
-        
+        // 6. 插入【訂單明細表】(otp.checkout_orders) (價格快照)，整台購物車一次 batch 寫入
         String insertItemSql = """
             INSERT INTO otp.checkout_orders 
             (order_id, event_ticket_type_id, price_at_purchase, quantity, event_id) 
             VALUES (?, ?, ?, ?, ?)
         """;
         
-        for (Map<String, Object> item : cartItems) {
-            jdbcTemplate.update(insertItemSql,
-                orderId, 
-                (Long) item.get("event_ticket_type_id"),
-                (java.math.BigDecimal) item.get("price_at_purchase"), 
-                (Integer) item.get("quantity"),
-                eventId 
-            );
-        }
+        jdbcTemplate.batchUpdate(insertItemSql, BatchArgs.of(cart.lines(), (ps, line) -> {
+            ps.setLong(1, orderId);
+            ps.setLong(2, line.eventTicketTypeId());
+            ps.setBigDecimal(3, Money.decimal(line.unitPriceCents()));
+            ps.setInt(4, line.quantity());
+            ps.setObject(5, eventId);
+        }));
     }
     
     // 清空購物車
@@ -310,44 +358,67 @@ public class OrderRepository {
     }
     
     
-    // 單純檢查庫存是否足夠 (給 Controller 的 Add 使用)
-    public boolean checkStock(long ticketTypeId, int requiredQuantity) {
-        String sql = "SELECT is_limited, custom_limit FROM otp.event_ticket_type WHERE id = ?";
-        
-        try {
-            Map<String, Object> ticketInfo = jdbcTemplate.queryForMap(sql, ticketTypeId);
-            
-            // 處理 is_limited
-            Object isLimitedObj = ticketInfo.get("is_limited");
-            boolean isLimited = false;
-            if (isLimitedObj instanceof Number) {
-                isLimited = ((Number) isLimitedObj).intValue() == 1;
-            } else if (isLimitedObj instanceof Boolean) {
-                isLimited = (Boolean) isLimitedObj;
-            }
-            
-            // 如果是無限量，直接回傳 true (庫存充足)
-            if (!isLimited) {
-                return true;
-            }
-            
-            // 處理 custom_limit (安全轉型)
-            Object limitObj = ticketInfo.get("custom_limit");
-            Integer currentStock = null;
-            if (limitObj != null) {
-                currentStock = ((Number) limitObj).intValue();
+    // 一次檢查多個票種的庫存 (票種 ID -> 需要的張數)，回傳不夠的票種 ID (查不到的票種也算不夠)
+    // 唯讀交易 (有設定副本就讀副本)：只是加入購物車前的預檢，真正扣庫存時還會再檢查一次
+    // 先看庫存快照 (AvailabilityRepository，最多晚 snapshot-refresh)：已經不夠的直接擋下，不用查資料庫；都夠的話還是以資料庫為準
+    @Transactional(readOnly = true)
+    public List<Long> findShortages(Map<Long, Integer> requiredQuantities) {
+        if (requiredQuantities.isEmpty()) {
+            return List.of();
+        }
+        List<Long> shortIds = new ArrayList<>();
+        requiredQuantities.forEach((ticketTypeId, required) -> {
+            TicketAvailability snapshot = availabilityRepository.find(ticketTypeId);
+            if (snapshot != null && snapshot.limited() && snapshot.remaining() < required) {
+                shortIds.add(ticketTypeId);
             }
-            
-            // 判斷庫存
-            // 如果庫存是 null 或是 庫存 < 需要的數量，代表不足
-            if (currentStock == null || currentStock < requiredQuantity) {
-                return false; 
+        });
+        if (!shortIds.isEmpty()) {
+            return shortIds;
+        }
+
+        String placeholders = String.join(",", Collections.nCopies(requiredQuantities.size(), "?"));
+        Map<Long, Integer> available = new HashMap<>();
+        jdbcTemplate.query(
+            "SELECT ett.id, ett.is_limited, %s AS custom_limit FROM otp.event_ticket_type ett WHERE ett.id IN (%s)"
+                .formatted(StockShardRepository.TOTAL_STOCK_SQL, placeholders),
+            rs -> {
+                available.put(rs.getLong("id"), isLimited(rs) ? rs.getInt("custom_limit") : Integer.MAX_VALUE);
+            },
+            requiredQuantities.keySet().toArray()
+        );
+        
+        requiredQuantities.forEach((ticketTypeId, required) -> {
+            if (available.getOrDefault(ticketTypeId, 0) < required) {
+                shortIds.add(ticketTypeId);
             }
-            
-            return true; // 庫存足夠
-            
-        } catch (Exception e) {
-            // 如果查不到該票種，視為庫存不足或錯誤
+        });
+        return shortIds;
+    }
+
+    private static final String CHECK_STOCK_SQL = "SELECT ett.is_limited, %s AS custom_limit FROM otp.event_ticket_type ett WHERE ett.id = ?"
+        .formatted(StockShardRepository.TOTAL_STOCK_SQL);
+    
+    // 單純檢查庫存是否足夠 (單一票種)
+    @Transactional(readOnly = true)
+    public boolean checkStock(long ticketTypeId, int requiredQuantity) {
+        try {
+            Boolean enough = jdbcTemplate.query(CHECK_STOCK_SQL, rs -> {
+                // 查不到該票種，視為庫存不足
+                if (!rs.next()) {
+                    return false;
+                }
+                // 如果是無限量，直接回傳 true (庫存充足)
+                if (!isLimited(rs)) {
+                    return true;
+                }
+                // 庫存是 null 或是 庫存 < 需要的數量，代表不足
+                int currentStock = rs.getInt("custom_limit");
+                return !rs.wasNull() && currentStock >= requiredQuantity;
+            }, ticketTypeId);
+            return Boolean.TRUE.equals(enough);
+        } catch (DataAccessException e) {
+            // 查詢失敗，視為庫存不足
             return false;
         }
     }
@@ -0,0 +1,207 @@
+package tw.luke.checkout.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import tw.luke.checkout.dto.ECPayNotification;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// 付款結果入帳：一批通知在同一個交易裡套用 (ECPayCallbackProcessor 的批次寫入)
+// 狀態轉換：
+//   付款成功 + 預約還是 LOCKED      → 預約 CONFIRMED、訂單 PENDING / PAYMENT_FAILED → PAID
+//   付款成功 + 預約已經過期還庫存了 → 訂單 PENDING / EXPIRED / PAYMENT_FAILED → PAID_LATE (需要人工處理：補票或退款)
+//   付款失敗                        → 訂單 PENDING → PAYMENT_FAILED (預約留給到期回收還庫存)
+//   金額不符 / 找不到訂單 / 訂單已取消 → 訂單不動，同一個交易裡寫一筆 otp.payment_exceptions 給人工對帳
+// 只有訂單會跟著變成 PAID 的預約才會被確認，付款成功但訂單沒入帳的一律留紀錄
+// 每個 UPDATE 都帶原本狀態的條件，重複的通知不會重複套用
+@Repository
+public class PaymentRepository {
+
+    public static final String PAID = "PAID";
+    public static final String PAID_LATE = "PAID_LATE";
+    public static final String PAYMENT_FAILED = "PAYMENT_FAILED";
+    public static final String AMOUNT_MISMATCH = "AMOUNT_MISMATCH";
+    public static final String UNKNOWN_ORDER = "UNKNOWN_ORDER";
+    public static final String ORDER_CLOSED = "ORDER_CLOSED";
+    public static final String UNCHANGED = "UNCHANGED";
+
+    private static final String CONFIRM_RESERVATION_SQL = """
+        UPDATE otp.reservations
+        SET status = 'CONFIRMED'
+        WHERE id = ? AND status = 'LOCKED'
+    """;
+
+    private static final String MARK_PAID_SQL = """
+        UPDATE otp.orders
+        SET status = 'PAID', paid_at = NOW(), gateway_trade_no = ?
+        WHERE id = ? AND status IN ('PENDING', 'PAYMENT_FAILED')
+    """;
+
+    private static final String MARK_PAID_LATE_SQL = """
+        UPDATE otp.orders
+        SET status = 'PAID_LATE', paid_at = NOW(), gateway_trade_no = ?
+        WHERE id = ? AND status IN ('PENDING', 'EXPIRED', 'PAYMENT_FAILED')
+    """;
+
+    private static final String MARK_FAILED_SQL = """
+        UPDATE otp.orders
+        SET status = 'PAYMENT_FAILED', gateway_trade_no = ?
+        WHERE id = ? AND status = 'PENDING'
+    """;
+
+    private static final String INSERT_EXCEPTION_SQL = """
+        INSERT INTO otp.payment_exceptions
+        (merchant_trade_no, gateway_trade_no, reason, trade_amt, order_id, order_amount, received_at)
+        VALUES (?, ?, ?, ?, ?, ?, NOW())
+    """;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // 回傳每個 MerchantTradeNo 套用後的結果 (上面的常數之一)
+    @Transactional
+    public Map<String, String> applyNotifications(Collection<ECPayNotification> notifications) {
+        Map<String, String> outcomes = new LinkedHashMap<>();
+        if (notifications.isEmpty()) {
+            return outcomes;
+        }
+
+        // 同一批裡同一筆訂單出現多次時，以付款成功的那一則為準
+        Map<String, ECPayNotification> byTradeNo = new HashMap<>();
+        for (ECPayNotification n : notifications) {
+            byTradeNo.merge(n.merchantTradeNo(), n, (a, b) -> a.isPaid() ? a : b);
+        }
+
+        // 1. 一次查出這批通知對應的訂單 (merchant_trade_no 有 unique 索引)
+        String placeholders = String.join(",", Collections.nCopies(byTradeNo.size(), "?"));
+        List<OrderMatch> orders = jdbcTemplate.query("""
+            SELECT id, merchant_trade_no, reservation_id, total_amount, status
+            FROM otp.orders
+            WHERE merchant_trade_no IN (%s)
+            ORDER BY id
+        """.formatted(placeholders), ORDER_MATCH, byTradeNo.keySet().toArray());
+
+        for (String tradeNo : byTradeNo.keySet()) {
+            outcomes.put(tradeNo, UNKNOWN_ORDER);
+        }
+
+        List<OrderRow> paid = new ArrayList<>();
+        List<OrderRow> failed = new ArrayList<>();
+        List<PaymentException> exceptions = new ArrayList<>();
+        Map<String, ECPayNotification> unknown = new LinkedHashMap<>(byTradeNo);
+        for (OrderMatch row : orders) {
+            String tradeNo = row.merchantTradeNo();
+            ECPayNotification n = unknown.remove(tradeNo);
+            OrderRow order = new OrderRow(row.id(), row.reservationId(), row.totalAmount(), row.status(), n);
+            if (!n.isPaid()) {
+                failed.add(order);
+            } else if (row.totalAmount() != n.tradeAmt()) {
+                outcomes.put(tradeNo, AMOUNT_MISMATCH);
+                exceptions.add(new PaymentException(n, AMOUNT_MISMATCH, row.id(), row.totalAmount()));
+            } else if (PAID.equals(row.status()) || PAID_LATE.equals(row.status())) {
+                // 重送的通知，之前已經入帳了
+                outcomes.put(tradeNo, UNCHANGED);
+            } else {
+                paid.add(order);
+            }
+        }
+        for (ECPayNotification n : unknown.values()) {
+            if (n.isPaid()) {
+                exceptions.add(new PaymentException(n, UNKNOWN_ORDER, null, null));
+            }
+        }
+
+        // 2. 先鎖預約再鎖訂單 (跟 ReservationRepository.expireAndRelease 同樣順序)，都依 ID 排序
+        //    只確認還能變成 PAID 的訂單的預約；取消 / 到期回收訂單狀態之前都要先拿到預約的鎖，
+        //    所以預約確認成功之後訂單一定還是 PENDING / PAYMENT_FAILED (付款通知只有這一條寫入 thread)
+        List<OrderRow> withReservation = paid.stream()
+            .filter(o -> o.reservationId != null && o.payable())
+            .sorted((a, b) -> Long.compare(a.reservationId, b.reservationId))
+            .toList();
+        int[] confirmed = jdbcTemplate.batchUpdate(CONFIRM_RESERVATION_SQL,
+            BatchArgs.of(withReservation, (ps, o) -> ps.setLong(1, o.reservationId)));
+
+        List<OrderRow> onTime = new ArrayList<>();
+        List<OrderRow> late = new ArrayList<>();
+        for (OrderRow order : paid) {
+            if (order.reservationId == null) {
+                onTime.add(order);
+            } else if (!order.payable()) {
+                late.add(order);
+            }
+        }
+        for (int i = 0; i < confirmed.length; i++) {
+            // 預約沒有從 LOCKED 變成 CONFIRMED：已經過期還庫存，或已經被取消了
+            (confirmed[i] > 0 ? onTime : late).add(withReservation.get(i));
+        }
+
+        // 3. 更新訂單狀態
+        apply(MARK_PAID_SQL, onTime, PAID, outcomes);
+        apply(MARK_PAID_LATE_SQL, late, PAID_LATE, outcomes);
+        apply(MARK_FAILED_SQL, failed, PAYMENT_FAILED, outcomes);
+
+        // 收了錢但訂單已經取消 (或其他不能入帳的狀態)：訂單不動，留紀錄
+        for (OrderRow order : paid) {
+            String tradeNo = order.notification.merchantTradeNo();
+            if (UNCHANGED.equals(outcomes.get(tradeNo))) {
+                outcomes.put(tradeNo, ORDER_CLOSED);
+                exceptions.add(new PaymentException(order.notification, ORDER_CLOSED, order.orderId, order.totalAmount));
+            }
+        }
+
+        // 4. 收了錢卻入不了帳的通知留紀錄 (跟入帳同一個交易，沒 commit 就不會回 1|OK)
+        if (!exceptions.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_EXCEPTION_SQL, BatchArgs.of(exceptions, (ps, e) -> {
+                ps.setString(1, e.notification.merchantTradeNo());
+                ps.setString(2, e.notification.tradeNo());
+                ps.setString(3, e.reason);
+                ps.setInt(4, e.notification.tradeAmt());
+                ps.setObject(5, e.orderId);
+                ps.setObject(6, e.orderAmount);
+            }));
+        }
+        return outcomes;
+    }
+
+    private void apply(String sql, List<OrderRow> orders, String status, Map<String, String> outcomes) {
+        if (orders.isEmpty()) {
+            return;
+        }
+        List<OrderRow> sorted = orders.stream().sorted((a, b) -> Long.compare(a.orderId, b.orderId)).toList();
+        int[] updated = jdbcTemplate.batchUpdate(sql, BatchArgs.of(sorted, (ps, o) -> {
+            ps.setString(1, o.notification.tradeNo());
+            ps.setLong(2, o.orderId);
+        }));
+        for (int i = 0; i < updated.length; i++) {
+            outcomes.put(sorted.get(i).notification.merchantTradeNo(), updated[i] > 0 ? status : UNCHANGED);
+        }
+    }
+
+    private record OrderRow(long orderId, Long reservationId, int totalAmount, String status, ECPayNotification notification) {
+        // 付款成功時可以直接變成 PAID 的訂單狀態
+        boolean payable() {
+            return "PENDING".equals(status) || PAYMENT_FAILED.equals(status);
+        }
+    }
+
+    private record PaymentException(ECPayNotification notification, String reason, Long orderId, Integer orderAmount) {}
+
+    // 付款通知對應到的訂單 (reservation_id 可能是 NULL)
+    private record OrderMatch(long id, String merchantTradeNo, Long reservationId, int totalAmount, String status) {}
+
+    private static final RowMapper<OrderMatch> ORDER_MATCH = (rs, rowNum) -> {
+        // wasNull 看的是最後讀的欄位，要緊接在 reservation_id 後面
+        long reservationId = rs.getLong("reservation_id");
+        Long reservationIdOrNull = rs.wasNull() ? null : reservationId;
+        return new OrderMatch(rs.getLong("id"), rs.getString("merchant_trade_no"), reservationIdOrNull, rs.getInt("total_amount"), rs.getString("status"));
+    };
+}
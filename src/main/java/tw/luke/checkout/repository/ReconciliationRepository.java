@@ -0,0 +1,175 @@
+package tw.luke.checkout.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// 庫存對帳 (InventoryReconciler) 用的查詢
+// 預約明細 / 訂單明細依主鍵切成區間 (id > ? AND id <= ?) 各自加總，每個區間是一個很短的唯讀查詢，不會長時間佔著連線或鎖
+// 單一票種的重新確認在一個 REPEATABLE READ 的唯讀交易裡讀完剩餘數量與兩邊的加總 (同一個快照，InnoDB 的一致性讀取不加鎖)
+@Repository
+public class ReconciliationRepository {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // 預約明細：LOCKED = 還沒付款、鎖著庫存；CONFIRMED = 已付款
+    private static final String RESERVATION_TALLY_SQL = """
+        SELECT ri.ticketTypeId AS ticket_type_id, r.status, SUM(ri.quantity) AS quantity
+        FROM otp.reservation_items ri
+        JOIN otp.reservations r ON r.id = ri.reservationId
+        WHERE %s AND r.status IN ('LOCKED', 'CONFIRMED')
+        GROUP BY ri.ticketTypeId, r.status
+    """;
+
+    // 訂單明細：PAID = 已付款；PAID_LATE = 付款時預約已經過期還庫存了 (要人工補票或退款)
+    // 沒有預約的 PAID 訂單 (reservation_id 是 NULL) 沒有 CONFIRMED 預約可以對，不算進來；PAID_LATE 一律算
+    private static final String ORDER_TALLY_SQL = """
+        SELECT co.event_ticket_type_id AS ticket_type_id, o.status, SUM(co.quantity) AS quantity
+        FROM otp.checkout_orders co
+        JOIN otp.orders o ON o.id = co.order_id
+        WHERE %s AND (o.status = 'PAID_LATE' OR (o.status = 'PAID' AND o.reservation_id IS NOT NULL))
+        GROUP BY co.event_ticket_type_id, o.status
+    """;
+
+    private static final String STOCK_SQL = """
+        SELECT ett.id, ett.event_id, ett.capacity, %s AS remaining
+        FROM otp.event_ticket_type ett
+        WHERE ett.is_limited = 1
+    """.formatted(StockShardRepository.TOTAL_STOCK_SQL);
+
+    // 只動 custom_limit (分片模式的票種也是)
+    private static final String ADD_STOCK_SQL = """
+        UPDATE otp.event_ticket_type
+        SET custom_limit = custom_limit + ?
+        WHERE id = ? AND is_limited = 1
+    """;
+
+    // 補貨：剩餘數量與總配額一起加，等式不變；總配額還沒填的票種不動 (要先 setCapacity)
+    private static final String RESTOCK_SQL = """
+        UPDATE otp.event_ticket_type
+        SET custom_limit = custom_limit + ?, capacity = capacity + ?
+        WHERE id = ? AND is_limited = 1 AND capacity IS NOT NULL AND custom_limit + ? >= 0
+    """;
+
+    private static final String SET_CAPACITY_SQL = """
+        UPDATE otp.event_ticket_type
+        SET capacity = ?
+        WHERE id = ? AND is_limited = 1
+    """;
+
+    // 限量票種目前的總配額 (沒設定是 NULL) 與剩餘數量 (custom_limit + 分片)
+    public record Stock(long id, long eventId, Integer capacity, int remaining) {}
+
+    private static final RowMapper<Stock> STOCK_ROW = (rs, rowNum) -> {
+        // wasNull 看的是最後讀的欄位，要緊接在 capacity 後面
+        int capacity = rs.getInt("capacity");
+        Integer capacityOrNull = rs.wasNull() ? null : capacity;
+        return new Stock(rs.getLong("id"), rs.getLong("event_id"), capacityOrNull, rs.getInt("remaining"));
+    };
+
+    // 一個票種在兩張明細表裡的張數
+    public static final class Counts {
+        public long held;       // LOCKED 預約
+        public long sold;       // CONFIRMED 預約
+        public long paid;       // PAID 訂單
+        public long paidLate;   // PAID_LATE 訂單
+
+        public void add(Counts other) {
+            held += other.held;
+            sold += other.sold;
+            paid += other.paid;
+            paidLate += other.paidLate;
+        }
+    }
+
+    public List<Stock> findLimited() {
+        return jdbcTemplate.query(STOCK_SQL, STOCK_ROW);
+    }
+
+    public long maxReservationItemId() {
+        return jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) FROM otp.reservation_items", Long.class);
+    }
+
+    public long maxCheckoutOrderId() {
+        return jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) FROM otp.checkout_orders", Long.class);
+    }
+
+    // 預約明細 ID 在 (afterId, toId] 之間的張數，加到 into (票種 ID -> 張數)
+    public void tallyReservationItems(long afterId, long toId, Map<Long, Counts> into) {
+        jdbcTemplate.query(RESERVATION_TALLY_SQL.formatted("ri.id > ? AND ri.id <= ?"), reservationTally(into), afterId, toId);
+    }
+
+    // 訂單明細 ID 在 (afterId, toId] 之間的張數，加到 into
+    public void tallyCheckoutOrders(long afterId, long toId, Map<Long, Counts> into) {
+        jdbcTemplate.query(ORDER_TALLY_SQL.formatted("co.id > ? AND co.id <= ?"), orderTally(into), afterId, toId);
+    }
+
+    private static RowCallbackHandler reservationTally(Map<Long, Counts> into) {
+        return rs -> {
+            Counts counts = into.computeIfAbsent(rs.getLong("ticket_type_id"), id -> new Counts());
+            if ("LOCKED".equals(rs.getString("status"))) {
+                counts.held += rs.getLong("quantity");
+            } else {
+                counts.sold += rs.getLong("quantity");
+            }
+        };
+    }
+
+    private static RowCallbackHandler orderTally(Map<Long, Counts> into) {
+        return rs -> {
+            Counts counts = into.computeIfAbsent(rs.getLong("ticket_type_id"), id -> new Counts());
+            if ("PAID".equals(rs.getString("status"))) {
+                counts.paid += rs.getLong("quantity");
+            } else {
+                counts.paidLate += rs.getLong("quantity");
+            }
+        };
+    }
+
+    public record Snapshot(Stock stock, Counts counts) {}
+
+    // 單一票種的剩餘數量與兩邊的加總，全部在同一個快照裡讀 (走 idx_reservation_items_ticket_type / idx_checkout_orders_ticket_type)
+    // 要跟主庫的 custom_limit 比，呼叫端用 ReadWriteRoutingDataSource.onPrimary 包起來；票種不存在或改成不限量回傳 null
+    @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+    public Snapshot snapshot(long ticketTypeId) {
+        List<Stock> stock = jdbcTemplate.query(STOCK_SQL + " AND ett.id = ?", STOCK_ROW, ticketTypeId);
+        if (stock.isEmpty()) {
+            return null;
+        }
+        Map<Long, Counts> counts = new HashMap<>();
+        jdbcTemplate.query(RESERVATION_TALLY_SQL.formatted("ri.ticketTypeId = ?"), reservationTally(counts), ticketTypeId);
+        jdbcTemplate.query(ORDER_TALLY_SQL.formatted("co.event_ticket_type_id = ?"), orderTally(counts), ticketTypeId);
+        return new Snapshot(stock.get(0), counts.getOrDefault(ticketTypeId, new Counts()));
+    }
+
+    // 剩餘數量補回 quantity 張 (差值修正，不管這段時間有沒有人結帳都成立)；票種不在了或改成不限量回傳 false
+    public boolean addStock(long ticketTypeId, int quantity) {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("補回的張數要大於 0: " + quantity);
+        }
+        return jdbcTemplate.update(ADD_STOCK_SQL, quantity, ticketTypeId) > 0;
+    }
+
+    // 後台補貨 (quantity > 0) 或收回沒賣的票 (quantity < 0)：總配額跟著加減，對帳的等式維持成立
+    // 剩餘數量不夠收回、票種沒有總配額、不是限量票種就不動，回傳 false
+    public boolean restock(long ticketTypeId, int quantity) {
+        return jdbcTemplate.update(RESTOCK_SQL, quantity, quantity, ticketTypeId, quantity) > 0;
+    }
+
+    // 直接指定總配額 (後台新增的票種、或人工核對過的數字)
+    public boolean setCapacity(long ticketTypeId, int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("總配額不能是負的: " + capacity);
+        }
+        return jdbcTemplate.update(SET_CAPACITY_SQL, capacity, ticketTypeId) > 0;
+    }
+}
@@ -0,0 +1,144 @@
+package tw.luke.checkout.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// 預約鎖定 (otp.reservations) 到期回收
+// 查詢都走 (status, expires_at) 索引的範圍掃描，不會整張表掃過去
+// 多台機器同時跑也安全：每一筆都用 WHERE status = 'LOCKED' 的條件式 UPDATE 認領，只有一台會認領成功並還庫存
+@Repository
+public class ReservationRepository {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private StockShardRepository stockShardRepository;
+
+    // 剩餘秒數用資料庫的 NOW() 算，app 與 MySQL 的時鐘 / 時區不一致也不會影響
+    private static final String FIND_DUE_SQL = """
+        SELECT id, TIMESTAMPDIFF(SECOND, NOW(), expires_at) AS seconds_left
+        FROM otp.reservations
+        WHERE status = 'LOCKED' AND expires_at <= TIMESTAMPADD(SECOND, ?, NOW())
+        ORDER BY expires_at
+        LIMIT ?
+    """;
+
+    private static final String CLAIM_SQL = """
+        UPDATE otp.reservations
+        SET status = 'EXPIRED'
+        WHERE id = ? AND status = 'LOCKED' AND expires_at <= NOW()
+    """;
+
+    // 結帳在訂單 commit 之後才失敗 (付款準備失敗)：不用等到期，直接取消
+    private static final String CANCEL_SQL = """
+        UPDATE otp.reservations
+        SET status = 'CANCELLED'
+        WHERE id = ? AND status = 'LOCKED'
+    """;
+
+    private static final String RELEASE_STOCK_SQL = """
+        UPDATE otp.event_ticket_type
+        SET custom_limit = custom_limit + ?
+        WHERE id = ? AND is_limited = 1
+    """;
+
+    private static final String CLOSE_ORDER_SQL = """
+        UPDATE otp.orders
+        SET status = ?
+        WHERE reservation_id = ? AND status = 'PENDING'
+    """;
+
+    public record Due(long reservationId, long secondsLeft) {}
+
+    // 一個票種要還回去的張數
+    private record Release(long ticketTypeId, int quantity, int stockShards) {}
+
+    private static final RowMapper<Release> RELEASE_ROW = (rs, rowNum) -> new Release(
+        rs.getLong("ticketTypeId"),
+        rs.getInt("quantity"),
+        rs.getInt("stock_shards")
+    );
+
+    // 找出 lookahead 之內會到期 (或早就過期) 的 LOCKED 預約，依到期時間排序
+    public List<Due> findLockedDueWithin(Duration lookahead, int limit) {
+        return jdbcTemplate.query(FIND_DUE_SQL, (rs, rowNum) -> new Due(
+            rs.getLong("id"),
+            rs.getLong("seconds_left")
+        ), lookahead.toSeconds(), limit);
+    }
+
+    // 認領一批到期預約並還庫存 (同一個交易)，回傳這台機器實際認領到的 ID
+    // 還沒到期、已經付款、或被別台機器先認領的會被略過
+    @Transactional
+    public List<Long> expireAndRelease(List<Long> reservationIds) {
+        return claimAndRelease(CLAIM_SQL, reservationIds, "EXPIRED");
+    }
+
+    // 取消一筆還在 LOCKED 的預約並馬上還庫存 (不管到期了沒)，對應的 PENDING 訂單改成 CANCELLED
+    // 回傳是否真的取消到 (已經付款、到期回收過的不會動)
+    @Transactional
+    public boolean cancelAndRelease(long reservationId) {
+        return !claimAndRelease(CANCEL_SQL, List.of(reservationId), "CANCELLED").isEmpty();
+    }
+
+    private List<Long> claimAndRelease(String claimSql, List<Long> reservationIds, String orderStatus) {
+        if (reservationIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        // 依 ID 排序後再認領，多台機器同時處理重疊的批次也不會互相 deadlock
+        List<Long> sortedIds = reservationIds.stream().sorted().distinct().toList();
+        int[] claimed = jdbcTemplate.batchUpdate(claimSql, BatchArgs.of(sortedIds, (ps, id) -> ps.setLong(1, id)));
+
+        List<Long> claimedIds = new ArrayList<>();
+        for (int i = 0; i < claimed.length; i++) {
+            if (claimed[i] > 0) {
+                claimedIds.add(sortedIds.get(i));
+            }
+        }
+        if (claimedIds.isEmpty()) {
+            return claimedIds;
+        }
+
+        // 同一個票種合併成一筆 UPDATE，依票種 ID 排序 (跟 decreaseStock 同樣的拿鎖順序：先 event_ticket_type 再分片)
+        String placeholders = String.join(",", Collections.nCopies(claimedIds.size(), "?"));
+        List<Release> quantities = jdbcTemplate.query("""
+            SELECT ri.ticketTypeId, SUM(ri.quantity) AS quantity, MAX(ett.stock_shards) AS stock_shards
+            FROM otp.reservation_items ri
+            JOIN otp.event_ticket_type ett ON ett.id = ri.ticketTypeId
+            WHERE ri.reservationId IN (%s)
+            GROUP BY ri.ticketTypeId
+            ORDER BY ri.ticketTypeId
+        """.formatted(placeholders), RELEASE_ROW, claimedIds.toArray());
+
+        List<Release> direct = new ArrayList<>();
+        List<Release> sharded = new ArrayList<>();
+        for (Release row : quantities) {
+            (row.stockShards() > 0 ? sharded : direct).add(row);
+        }
+        jdbcTemplate.batchUpdate(RELEASE_STOCK_SQL, BatchArgs.of(direct, (ps, row) -> {
+            ps.setInt(1, row.quantity());
+            ps.setLong(2, row.ticketTypeId());
+        }));
+        for (Release row : sharded) {
+            stockShardRepository.release(row.ticketTypeId(), row.stockShards(), row.quantity());
+        }
+
+        // 還沒付款的訂單跟著失效，之後的付款通知不能再用這筆庫存
+        jdbcTemplate.batchUpdate(CLOSE_ORDER_SQL, BatchArgs.of(claimedIds, (ps, id) -> {
+            ps.setString(1, orderStatus);
+            ps.setLong(2, id);
+        }));
+
+        return claimedIds;
+    }
+}
@@ -0,0 +1,167 @@
+package tw.luke.checkout.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+// 熱門票種的分片庫存 (otp.ticket_stock_shards)
+// 每張票都扣同一列 event_ticket_type.custom_limit 的話，所有結帳都排隊等那一個 row lock
+// 分片模式 (event_ticket_type.stock_shards > 0) 把庫存拆成 N 列，結帳隨機扣一列，N 個結帳可以同時進行
+// 剩餘數量 = custom_limit + 所有分片的 remaining (開啟分片時 custom_limit 會全部搬進分片變成 0)
+// 拿鎖順序：event_ticket_type 的列 (依 ID) → 分片的列 (依票種 ID)，跟 decreaseStock / expireAndRelease 一致
+@Repository
+public class StockShardRepository {
+
+    // 票種的總剩餘數量 (分片模式也適用)，給 SELECT ... FROM otp.event_ticket_type ett 用
+    public static final String TOTAL_STOCK_SQL = """
+        ett.custom_limit + COALESCE((
+            SELECT SUM(s.remaining) FROM otp.ticket_stock_shards s WHERE s.event_ticket_type_id = ett.id
+        ), 0)""";
+
+    private static final String TAKE_SQL = """
+        UPDATE otp.ticket_stock_shards
+        SET remaining = remaining - ?
+        WHERE event_ticket_type_id = ? AND shard_no = ? AND remaining >= ?
+    """;
+
+    private static final String PUT_BACK_SQL = """
+        UPDATE otp.ticket_stock_shards
+        SET remaining = remaining + ?
+        WHERE event_ticket_type_id = ? AND shard_no = ?
+    """;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // 從分片扣 quantity 張 (要在結帳的交易裡)，回傳是否扣成功
+    // 先隨機挑一個分片整筆扣；那個分片不夠就依分片編號從各分片湊 (湊不齊回傳 false，交易 rollback 會把湊到一半的還回去)
+    public boolean decrease(long eventTicketTypeId, int shards, int quantity) {
+        int first = ThreadLocalRandom.current().nextInt(Math.max(1, shards));
+        if (jdbcTemplate.update(TAKE_SQL, quantity, eventTicketTypeId, first, quantity) > 0) {
+            return true;
+        }
+
+        int needed = quantity;
+        for (Shard shard : shards(eventTicketTypeId)) {
+            int take = Math.min(needed, shard.remaining());
+            if (take <= 0) {
+                continue;
+            }
+            if (jdbcTemplate.update(TAKE_SQL, take, eventTicketTypeId, shard.shardNo(), take) > 0) {
+                needed -= take;
+                if (needed == 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // 還庫存 (預約到期) 到隨機一個分片；分片剛好被重新切過找不到的話還給 custom_limit
+    public void release(long eventTicketTypeId, int shards, int quantity) {
+        int shardNo = ThreadLocalRandom.current().nextInt(Math.max(1, shards));
+        if (jdbcTemplate.update(PUT_BACK_SQL, quantity, eventTicketTypeId, shardNo) == 0) {
+            jdbcTemplate.update("""
+                UPDATE otp.event_ticket_type
+                SET custom_limit = custom_limit + ?
+                WHERE id = ? AND is_limited = 1
+            """, quantity, eventTicketTypeId);
+        }
+    }
+
+    // 開啟分片或改變分片數：目前的剩餘數量 (custom_limit + 舊分片) 平均切成 shards 份
+    @Transactional
+    public void enable(long eventTicketTypeId, int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("分片數至少要 1: " + shards);
+        }
+        Integer total = lockTotal(eventTicketTypeId);
+        if (total == null) {
+            throw new RuntimeException("票種不存在或不是限量票種: " + eventTicketTypeId);
+        }
+        split(eventTicketTypeId, shards, total);
+    }
+
+    // 關閉分片：所有分片合併回 custom_limit
+    @Transactional
+    public void disable(long eventTicketTypeId) {
+        Integer total = lockTotal(eventTicketTypeId);
+        if (total == null) {
+            throw new RuntimeException("票種不存在或不是限量票種: " + eventTicketTypeId);
+        }
+        jdbcTemplate.update("DELETE FROM otp.ticket_stock_shards WHERE event_ticket_type_id = ?", eventTicketTypeId);
+        jdbcTemplate.update("UPDATE otp.event_ticket_type SET custom_limit = ?, stock_shards = 0 WHERE id = ?", total, eventTicketTypeId);
+    }
+
+    // 重新平均分配：結帳隨機扣，賣到後面各分片會不平均 (有的已經是 0，扣到它就要走比較慢的湊數路線)
+    // 剩下的量不夠每個分片 minPerShard 張時順便減少分片數 (最少 1 個)；回傳新的分片數，沒有分片的票種回傳 0
+    @Transactional
+    public int rebalance(long eventTicketTypeId, int minPerShard) {
+        Integer total = lockTotal(eventTicketTypeId);
+        Integer shards = jdbcTemplate.queryForObject(
+            "SELECT stock_shards FROM otp.event_ticket_type WHERE id = ?", Integer.class, eventTicketTypeId);
+        if (total == null || shards == null || shards == 0) {
+            return 0;
+        }
+        int target = Math.max(1, Math.min(shards, total / Math.max(1, minPerShard)));
+        split(eventTicketTypeId, target, total);
+        return target;
+    }
+
+    // 目前各分片的剩餘數量 (不加鎖，依分片編號)
+    public List<Shard> shards(long eventTicketTypeId) {
+        return jdbcTemplate.query("""
+            SELECT shard_no, remaining
+            FROM otp.ticket_stock_shards
+            WHERE event_ticket_type_id = ?
+            ORDER BY shard_no
+        """, (rs, rowNum) -> new Shard(rs.getInt("shard_no"), rs.getInt("remaining")), eventTicketTypeId);
+    }
+
+    // 開著分片模式的票種 ID
+    public List<Long> findSharded() {
+        return jdbcTemplate.queryForList(
+            "SELECT id FROM otp.event_ticket_type WHERE stock_shards > 0 ORDER BY id", Long.class);
+    }
+
+    // 鎖住票種與它的分片 (照拿鎖順序)，回傳總剩餘數量；不是限量票種回傳 null
+    private Integer lockTotal(long eventTicketTypeId) {
+        List<Integer> base = jdbcTemplate.queryForList(
+            "SELECT custom_limit FROM otp.event_ticket_type WHERE id = ? AND is_limited = 1 FOR UPDATE",
+            Integer.class, eventTicketTypeId);
+        if (base.isEmpty()) {
+            return null;
+        }
+        List<Integer> shardRemaining = jdbcTemplate.queryForList("""
+            SELECT remaining
+            FROM otp.ticket_stock_shards
+            WHERE event_ticket_type_id = ?
+            ORDER BY shard_no
+            FOR UPDATE
+        """, Integer.class, eventTicketTypeId);
+        int total = base.get(0) == null ? 0 : base.get(0);
+        for (Integer remaining : shardRemaining) {
+            total += remaining;
+        }
+        return total;
+    }
+
+    // total 平均切成 shards 份 (餘數給前面幾個分片)，custom_limit 歸零
+    private void split(long eventTicketTypeId, int shards, int total) {
+        jdbcTemplate.update("DELETE FROM otp.ticket_stock_shards WHERE event_ticket_type_id = ?", eventTicketTypeId);
+        List<Object[]> rows = new ArrayList<>(shards);
+        for (int shardNo = 0; shardNo < shards; shardNo++) {
+            rows.add(new Object[] { eventTicketTypeId, shardNo, total / shards + (shardNo < total % shards ? 1 : 0) });
+        }
+        jdbcTemplate.batchUpdate(
+            "INSERT INTO otp.ticket_stock_shards (event_ticket_type_id, shard_no, remaining) VALUES (?, ?, ?)", rows);
+        jdbcTemplate.update("UPDATE otp.event_ticket_type SET custom_limit = 0, stock_shards = ? WHERE id = ?", shards, eventTicketTypeId);
+    }
+
+    public record Shard(int shardNo, int remaining) {}
+}
@@ -0,0 +1,18 @@
+package tw.luke.checkout.repository;
+
+import java.util.List;
+
+// 扣庫存失敗：記錄是哪幾個票種 (event_ticket_type.id) 不夠賣
+public class StockShortageException extends RuntimeException {
+    
+    private final List<Long> shortTicketTypeIds;
+    
+    public StockShortageException(List<Long> shortTicketTypeIds) {
+        super("很抱歉，部分商品庫存不足！(票種: " + shortTicketTypeIds + ")");
+        this.shortTicketTypeIds = List.copyOf(shortTicketTypeIds);
+    }
+    
+    public List<Long> getShortTicketTypeIds() {
+        return shortTicketTypeIds;
+    }
+}
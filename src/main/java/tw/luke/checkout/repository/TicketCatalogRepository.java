@@ -0,0 +1,126 @@
+package tw.luke.checkout.repository;
+
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import tw.luke.checkout.config.ReadYourWrites;
+import tw.luke.checkout.dto.Money;
+import tw.luke.checkout.dto.TicketCatalog;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// 票種目錄快取 (key = event_ticket_type.id)
+// 價格、活動名稱在開賣期間幾乎不會變，不需要每個請求都去 join event_ticket_type / ticket_type / event
+// 庫存 (custom_limit) 一直在變，不放在這裡
+// 載入時讀副本；手動失效 (後台剛改過) 之後的一段時間讀主庫，避免把副本上的舊價格又載回來
+@Repository
+public class TicketCatalogRepository {
+
+    private static final String CATALOG_SQL = """
+        SELECT
+            ett.id AS event_ticket_type_id,
+            ett.event_id,
+            e.title AS event_title,
+            tt_template.name AS ticket_name,
+            CASE
+                WHEN ett.custom_price IS NOT NULL AND ett.custom_price > 0 THEN ett.custom_price
+                ELSE tt_template.price
+            END AS price
+        FROM otp.event_ticket_type ett
+        JOIN otp.ticket_type tt_template ON ett.ticket_template_id = tt_template.id
+        JOIN otp.event e ON ett.event_id = e.id
+        WHERE ett.id IN (%s)
+    """;
+
+    private static final String SCOPE = "catalog";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ReadYourWrites readYourWrites;
+    private final LoadingCache<Long, TicketCatalog> cache;
+
+    public TicketCatalogRepository(JdbcTemplate jdbcTemplate,
+                                   ReadYourWrites readYourWrites,
+                                   MeterRegistry meterRegistry,
+                                   @Value("${app.catalog-cache.max-size:10000}") long maxSize,
+                                   @Value("${app.catalog-cache.ttl:5m}") Duration ttl) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.readYourWrites = readYourWrites;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build(new CatalogLoader());
+
+        // 命中率等統計會出現在 /actuator/metrics/cache.gets?tag=cache:ticketCatalog
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "ticketCatalog");
+    }
+
+    public TicketCatalog find(long eventTicketTypeId) {
+        return cache.get(eventTicketTypeId);
+    }
+
+    // 一次取多筆：沒命中的部分用一個 IN 查詢補齊；資料庫裡不存在的 ID 不會出現在回傳結果
+    public Map<Long, TicketCatalog> findAll(Collection<Long> eventTicketTypeIds) {
+        if (eventTicketTypeIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return cache.getAll(eventTicketTypeIds);
+    }
+
+    // 後台改了價格 / 活動名稱之後要呼叫，讓下一次讀取重新載入
+    public void invalidate(long eventTicketTypeId) {
+        readYourWrites.written(SCOPE);
+        cache.invalidate(eventTicketTypeId);
+    }
+
+    public void invalidateAll() {
+        readYourWrites.written(SCOPE);
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    private class CatalogLoader implements CacheLoader<Long, TicketCatalog> {
+
+        @Override
+        public TicketCatalog load(Long key) {
+            return loadAll(Set.of(key)).get(key);
+        }
+
+        @Override
+        public Map<Long, TicketCatalog> loadAll(Set<? extends Long> keys) {
+            String placeholders = String.join(",", Collections.nCopies(keys.size(), "?"));
+            List<TicketCatalog> rows = readYourWrites.read(SCOPE, () -> jdbcTemplate.query(CATALOG_SQL.formatted(placeholders), (rs, rowNum) -> new TicketCatalog(
+                rs.getLong("event_ticket_type_id"),
+                rs.getLong("event_id"),
+                rs.getString("event_title"),
+                rs.getString("ticket_name"),
+                Money.cents(rs.getBigDecimal("price"))
+            ), keys.toArray()));
+
+            Map<Long, TicketCatalog> result = new HashMap<>();
+            for (TicketCatalog row : rows) {
+                result.put(row.eventTicketTypeId(), row);
+            }
+            return result;
+        }
+    }
+}
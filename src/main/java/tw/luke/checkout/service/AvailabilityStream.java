@@ -0,0 +1,166 @@
+package tw.luke.checkout.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import tw.luke.checkout.repository.AvailabilityRepository;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+// 商品頁的即時庫存 (SSE)：GET /api/checkout/availability 推送每個限量票種的剩餘數量
+// - 每個 tick 查一次資料庫 (AvailabilityRepository.reload，商品頁與加入購物車的預檢也跟著用這份)，跟上一次的快照比對，只把有變的票種推出去
+//   這段時間內的多次結帳合併成一則事件；不管開了幾條連線，一個 tick 都只查一次、JSON 只序列化一次
+// - 剛連上的瀏覽器先收到記憶體裡的完整快照 (不查資料庫)
+// - 沒有人訂閱時不查資料庫；連線斷掉 (送不出去、逾時) 就移除，瀏覽器的 EventSource 會自己重連
+// - send 會卡在慢的連線上，所以不在共用的鎖裡送：快照是不可變的物件 (volatile)，每條連線各自一把鎖，
+//   依快照的版本號送，同一條連線不會先收到新的變動再收到舊的快照，第一則一定是完整快照
+// 事件：event: availability，data: {"票種 ID": 剩餘張數, ...}
+@Service
+public class AvailabilityStream {
+
+    static final String EVENT = "availability";
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final Set<ResponseBodyEmitter.DataWithMediaType> KEEP_ALIVE = SseEmitter.event().comment("keep-alive").build();
+
+    private final AvailabilityRepository availabilityRepository;
+    private final long emitterTimeoutMillis;
+    private final long heartbeatMillis;
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    // tick 只能一次跑一個 (查資料庫、跟上一次比對)；送事件不在這把鎖裡
+    private final ReentrantLock tickLock = new ReentrantLock();
+    // 最後一次查到的剩餘數量與它的完整事件 (新連線用)
+    private volatile Snapshot snapshot;
+    private long lastSentAt = System.currentTimeMillis();
+
+    public AvailabilityStream(AvailabilityRepository availabilityRepository,
+                              @Value("${app.availability.emitter-timeout:30m}") Duration emitterTimeout,
+                              @Value("${app.availability.heartbeat:15s}") Duration heartbeat) {
+        this.availabilityRepository = availabilityRepository;
+        this.emitterTimeoutMillis = emitterTimeout.toMillis();
+        this.heartbeatMillis = heartbeat.toMillis();
+    }
+
+    public SseEmitter subscribe() {
+        SseEmitter emitter = new SseEmitter(emitterTimeoutMillis);
+        Subscriber subscriber = new Subscriber(emitter);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(e -> subscribers.remove(subscriber));
+        // 先加進去再讀快照：tick 發佈新快照之後才開始送，漏掉的只會是這裡讀得到的那一版
+        subscribers.add(subscriber);
+        Snapshot current = snapshot;
+        if (current != null) {
+            subscriber.send(current.version, current.event, current.event);
+        }
+        return emitter;
+    }
+
+    public int subscriberCount() {
+        return subscribers.size();
+    }
+
+    @Scheduled(fixedDelayString = "${app.availability.tick:1s}")
+    public void tick() {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        Snapshot current;
+        Set<ResponseBodyEmitter.DataWithMediaType> update;
+        tickLock.lock();
+        try {
+            Map<Long, Integer> remaining = availabilityRepository.reload().remaining();
+            Snapshot previous = snapshot;
+
+            Map<Long, Integer> changed = new TreeMap<>();
+            remaining.forEach((ticketTypeId, count) -> {
+                if (previous == null || !Objects.equals(previous.remaining.get(ticketTypeId), count)) {
+                    changed.put(ticketTypeId, count);
+                }
+            });
+            if (previous != null) {
+                // 票種被刪掉或改成不限量：不會再賣完，用 -1 通知前端恢復
+                previous.remaining.keySet().stream()
+                    .filter(ticketTypeId -> !remaining.containsKey(ticketTypeId))
+                    .forEach(ticketTypeId -> changed.put(ticketTypeId, -1));
+            }
+
+            long now = System.currentTimeMillis();
+            if (previous == null || !changed.isEmpty()) {
+                current = new Snapshot(previous == null ? 1 : previous.version + 1, remaining, event(new TreeMap<>(remaining)));
+                update = event(changed);
+                lastSentAt = now;
+            } else if (now - lastSentAt >= heartbeatMillis) {
+                // 沒有變動也定期送一個註解，斷掉的連線才會被發現並移除 (版本號不變)
+                current = previous;
+                update = KEEP_ALIVE;
+                lastSentAt = now;
+            } else {
+                return;
+            }
+            snapshot = current;
+        } finally {
+            tickLock.unlock();
+        }
+
+        for (Subscriber subscriber : subscribers) {
+            subscriber.send(current.version, update, current.event);
+        }
+    }
+
+    private static Set<ResponseBodyEmitter.DataWithMediaType> event(Map<Long, Integer> remaining) {
+        try {
+            String json = JSON.writeValueAsString(remaining);
+            return SseEmitter.event().name(EVENT).data(json, MediaType.TEXT_PLAIN).build();
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("庫存快照序列化失敗", e);
+        }
+    }
+
+    // version 每次有變動加一；event 是完整快照的事件
+    private record Snapshot(long version, Map<Long, Integer> remaining, Set<ResponseBodyEmitter.DataWithMediaType> event) {}
+
+    // 一條 SSE 連線：sent = 已經送到哪個版本 (0 = 還沒收到完整快照)，送的時候只鎖這條連線
+    private final class Subscriber {
+
+        private final SseEmitter emitter;
+        private final ReentrantLock lock = new ReentrantLock();
+        private long sent;
+
+        Subscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        // update 是從上一版到 version 的變動 (或 KEEP_ALIVE)；還沒收到完整快照、中間漏了版本的改送 full，
+        // 已經送過的版本就略過 (tick 跟 subscribe 同時送的時候)
+        void send(long version, Set<ResponseBodyEmitter.DataWithMediaType> update, Set<ResponseBodyEmitter.DataWithMediaType> full) {
+            boolean keepAlive = update == KEEP_ALIVE;
+            lock.lock();
+            try {
+                if (version < sent || (version == sent && !keepAlive)) {
+                    return;
+                }
+                emitter.send(sent == 0 || version > sent + 1 || (keepAlive && version > sent) ? full : update);
+                sent = version;
+            } catch (IOException | IllegalStateException e) {
+                // 瀏覽器已經關掉 (或 emitter 已經結束)
+                subscribers.remove(this);
+                emitter.completeWithError(e);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package tw.luke.checkout.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import tw.luke.checkout.config.ReadYourWrites;
+import tw.luke.checkout.dto.TicketCatalog;
+import tw.luke.checkout.repository.CartRepository;
+import tw.luke.checkout.repository.TicketCatalogRepository;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+// 購物車放在記憶體 (每個使用者一台)，讀取不碰資料庫，變動用 write-behind 寫回 cart_items
+// - 第一次用到時從 cart_items 載入 (重啟後就是這樣恢復)，之後以記憶體為準
+// - 加入 / 修改只改記憶體並標記 dirty，flush-interval 到了把所有 dirty 的列合併成一個交易寫回
+//   同一台購物車在一個週期內點了十次，資料庫只寫一次最後的結果
+// - 結帳前 flushForCheckout 把還沒寫回的變動寫進結帳的交易，processOrder 讀到的一定是最新的購物車
+// - 正常關機時全部寫回；當機最多掉一個 flush-interval 內的變動
+// cart_items 只能經過這裡寫入 (多台機器時同一個使用者要固定打到同一台)
+@Service
+public class CartStore {
+
+    private static final Logger log = LoggerFactory.getLogger(CartStore.class);
+
+    private final CartRepository cartRepository;
+    private final TicketCatalogRepository ticketCatalogRepository;
+    private final ReadYourWrites readYourWrites;
+    private final int flushBatchSize;
+    private final long idleMillis;
+
+    private final Map<Long, Cart> carts = new ConcurrentHashMap<>();
+    // 有變動還沒寫回的使用者
+    private final Set<Long> dirtyUsers = ConcurrentHashMap.newKeySet();
+    // 購物車版本號 (所有購物車共用一個遞增序號，載入或內容有變就換一個新的，被移出記憶體再載入也不會跟舊的撞號)
+    private final AtomicLong versions = new AtomicLong();
+
+    public CartStore(CartRepository cartRepository,
+                     TicketCatalogRepository ticketCatalogRepository,
+                     ReadYourWrites readYourWrites,
+                     @Value("${app.cart-store.flush-batch-size:500}") int flushBatchSize,
+                     @Value("${app.cart-store.idle-ttl:30m}") Duration idleTtl) {
+        this.cartRepository = cartRepository;
+        this.ticketCatalogRepository = ticketCatalogRepository;
+        this.readYourWrites = readYourWrites;
+        this.flushBatchSize = flushBatchSize;
+        this.idleMillis = idleTtl.toMillis();
+    }
+
+    // 票種 ID -> 張數 (加入順序)
+    public Map<Long, Integer> items(long userId) {
+        return withCart(userId, cart -> new LinkedHashMap<>(cart.items));
+    }
+
+    // 內容有變就會變大 (ETag 用)
+    public long version(long userId) {
+        return withCart(userId, cart -> cart.version);
+    }
+
+    // 同一個時間點的版本號與內容
+    public View view(long userId) {
+        return withCart(userId, cart -> new View(cart.version, new LinkedHashMap<>(cart.items)));
+    }
+
+    public int quantity(long userId, long eventTicketTypeId) {
+        return withCart(userId, cart -> cart.items.getOrDefault(eventTicketTypeId, 0));
+    }
+
+    // 設定某個票種的張數，quantity <= 0 代表移除
+    public void setQuantity(long userId, long eventTicketTypeId, int quantity) {
+        update(userId, items -> Map.of(eventTicketTypeId, quantity));
+    }
+
+    // 在這台購物車的鎖裡，依目前內容 (唯讀) 算出要改的票種與新張數 (<= 0 代表移除)，一次全部套用
+    // change 丟出例外 (超過限購、庫存不足...) 就什麼都不改
+    public void update(long userId, Function<Map<Long, Integer>, Map<Long, Integer>> change) {
+        withCart(userId, cart -> {
+            boolean changed = false;
+            for (Map.Entry<Long, Integer> entry : change.apply(Collections.unmodifiableMap(cart.items)).entrySet()) {
+                changed |= cart.set(entry.getKey(), entry.getValue());
+            }
+            if (changed) {
+                cart.version = versions.incrementAndGet();
+                readYourWrites.written(ReadYourWrites.user(userId));
+            }
+            if (!cart.dirty.isEmpty()) {
+                dirtyUsers.add(userId);
+            }
+            return null;
+        });
+    }
+
+    // 購物車屬於哪個活動 (排隊時分流用)，購物車是空的回傳 null
+    public Long eventId(long userId) {
+        Map<Long, Integer> items = items(userId);
+        if (items.isEmpty()) {
+            return null;
+        }
+        TicketCatalog ticket = ticketCatalogRepository.find(items.keySet().iterator().next());
+        return ticket == null ? null : ticket.eventId();
+    }
+
+    // 結帳前呼叫 (必須在結帳的交易裡)：還沒寫回的變動跟著結帳的交易一起寫進 cart_items
+    // 交易 commit (購物車已經被 clearCart 清掉) 之後，記憶體扣掉這次結帳的內容；rollback 則恢復 dirty 等下次寫回
+    public void flushForCheckout(long userId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("flushForCheckout 必須在交易裡呼叫");
+        }
+        Capture capture = withCart(userId, cart -> {
+            // 定期寫回正在寫這台購物車的話等它寫完，不然它的舊內容可能比結帳晚 commit
+            cart.awaitNotWriting();
+            cart.checkouts++;
+            return new Capture(cart.takeDirty(), new LinkedHashMap<>(cart.items));
+        });
+        dirtyUsers.remove(userId);
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                checkoutCompleted(userId, capture, status == STATUS_COMMITTED);
+            }
+        });
+        cartRepository.write(capture.lines());
+    }
+
+    private void checkoutCompleted(long userId, Capture capture, boolean committed) {
+        withCart(userId, cart -> {
+            cart.checkouts--;
+            if (!committed) {
+                cart.markDirty(capture.lines());
+            } else {
+                // cart_items 已經清空：記憶體扣掉結帳買走的，結帳期間又加的留下來並重新寫回
+                capture.items().forEach((ticketTypeId, bought) ->
+                    cart.items.computeIfPresent(ticketTypeId, (id, quantity) -> quantity > bought ? quantity - bought : null));
+                cart.dirty.clear();
+                cart.dirty.addAll(cart.items.keySet());
+                cart.version = versions.incrementAndGet();
+                // 剛結帳完 (庫存、訂單都變了)，接下來這個使用者的讀取先走主庫
+                readYourWrites.written(ReadYourWrites.user(userId));
+            }
+            if (!cart.dirty.isEmpty()) {
+                dirtyUsers.add(userId);
+            }
+            return null;
+        });
+    }
+
+    // 定期寫回：所有 dirty 的購物車每 flush-batch-size 列一個交易
+    @Scheduled(fixedDelayString = "${app.cart-store.flush-interval:2s}")
+    public void flush() {
+        List<Long> users = new ArrayList<>(dirtyUsers);
+        for (int from = 0; from < users.size(); from += flushBatchSize) {
+            flush(users.subList(from, Math.min(from + flushBatchSize, users.size())));
+        }
+        evictIdle();
+    }
+
+    private void flush(List<Long> users) {
+        Map<Long, List<CartRepository.Line>> captured = new LinkedHashMap<>();
+        for (Long userId : users) {
+            dirtyUsers.remove(userId);
+            Cart cart = carts.get(userId);
+            if (cart == null) {
+                continue;
+            }
+            cart.lock.lock();
+            try {
+                // 結帳中的購物車由結帳的交易負責，結束後會再標記
+                if (cart.checkouts > 0 || cart.dirty.isEmpty()) {
+                    continue;
+                }
+                cart.writing = true;
+                captured.put(userId, cart.takeDirty());
+            } finally {
+                cart.lock.unlock();
+            }
+        }
+        if (captured.isEmpty()) {
+            return;
+        }
+
+        boolean written = false;
+        try {
+            cartRepository.write(captured.values().stream().flatMap(List::stream).toList());
+            written = true;
+        } catch (RuntimeException e) {
+            log.warn("購物車寫回失敗 {} 台，下次再試", captured.size(), e);
+        } finally {
+            for (Map.Entry<Long, List<CartRepository.Line>> entry : captured.entrySet()) {
+                Cart cart = carts.get(entry.getKey());
+                cart.lock.lock();
+                try {
+                    if (!written) {
+                        cart.markDirty(entry.getValue());
+                        dirtyUsers.add(entry.getKey());
+                    }
+                    cart.writing = false;
+                    cart.written.signalAll();
+                } finally {
+                    cart.lock.unlock();
+                }
+            }
+        }
+    }
+
+    // 太久沒用而且都寫回了的購物車移出記憶體，下次用到再載入
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        for (Cart cart : carts.values()) {
+            if (now - cart.lastAccess < idleMillis || !cart.lock.tryLock()) {
+                continue;
+            }
+            try {
+                if (cart.dirty.isEmpty() && cart.checkouts == 0 && !cart.writing && now - cart.lastAccess >= idleMillis) {
+                    cart.evicted = true;
+                    carts.remove(cart.userId, cart);
+                }
+            } finally {
+                cart.lock.unlock();
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    public int size() {
+        return carts.size();
+    }
+
+    // 拿到這個使用者的購物車並鎖住 (還沒載入就從資料庫載入)；拿到的剛好被移出記憶體就重拿
+    private <T> T withCart(long userId, Function<Cart, T> body) {
+        while (true) {
+            Cart cart = carts.computeIfAbsent(userId, Cart::new);
+            cart.lock.lock();
+            try {
+                if (cart.evicted) {
+                    continue;
+                }
+                if (!cart.loaded) {
+                    cart.items.putAll(cartRepository.load(userId));
+                    cart.loaded = true;
+                    cart.version = versions.incrementAndGet();
+                }
+                cart.lastAccess = System.currentTimeMillis();
+                return body.apply(cart);
+            } finally {
+                cart.lock.unlock();
+            }
+        }
+    }
+
+    public record View(long version, Map<Long, Integer> items) {}
+
+    private record Capture(List<CartRepository.Line> lines, Map<Long, Integer> items) {}
+
+    // 以下欄位都只能在 lock 裡讀寫 (lastAccess 例外：evictIdle 先不加鎖粗略看一下)
+    private static final class Cart {
+        final long userId;
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition written = lock.newCondition();
+        final LinkedHashMap<Long, Integer> items = new LinkedHashMap<>();
+        // 有變動還沒寫回的票種
+        final Set<Long> dirty = new HashSet<>();
+        boolean loaded;
+        long version;
+        boolean evicted;
+        boolean writing;
+        // 進行中的結帳數
+        int checkouts;
+        volatile long lastAccess;
+
+        Cart(long userId) {
+            this.userId = userId;
+        }
+
+        // 回傳內容有沒有變
+        boolean set(long ticketTypeId, int quantity) {
+            Integer previous = quantity > 0 ? items.put(ticketTypeId, quantity) : items.remove(ticketTypeId);
+            if (Objects.equals(previous, quantity > 0 ? quantity : null)) {
+                return false;
+            }
+            dirty.add(ticketTypeId);
+            return true;
+        }
+
+        // 取出 dirty 票種目前的張數 (0 = 已移除) 並清掉 dirty
+        List<CartRepository.Line> takeDirty() {
+            List<CartRepository.Line> lines = new ArrayList<>(dirty.size());
+            for (Long ticketTypeId : dirty) {
+                lines.add(new CartRepository.Line(userId, ticketTypeId, items.getOrDefault(ticketTypeId, 0)));
+            }
+            dirty.clear();
+            return lines;
+        }
+
+        // 寫回失敗：重新標記 dirty (寫的是當下記憶體的張數，中間又改過也沒關係)
+        void markDirty(List<CartRepository.Line> lines) {
+            for (CartRepository.Line line : lines) {
+                dirty.add(line.eventTicketTypeId());
+            }
+        }
+
+        void awaitNotWriting() {
+            while (writing) {
+                written.awaitUninterruptibly();
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package tw.luke.checkout.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import tw.luke.checkout.dto.CheckoutForm;
+import tw.luke.checkout.repository.CheckoutIdempotencyRepository;
+import tw.luke.checkout.repository.DuplicateSubmissionException;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+// 結帳防重送：同一個 idempotency key 只會真的跑一次 processOrder
+// 第一層是本機記憶體：同時進來的重複請求直接等第一個的結果 (不會再去搶 row lock)，跑完的結果留一段時間直接回
+// 第二層是資料庫 (CheckoutIdempotencyRepository)：別台機器或重啟前已經成立的訂單，回傳當時的結果
+// 結帳失敗 (庫存不足、表單錯誤...) 不會留下紀錄，同一個 key 之後可以重試
+// 訂單成立了但結果沒存下來 (存之前當機) 的 key，超過 stale-after 之後的重試會從訂單重建結果，不會卡到保留期限結束
+@Service
+public class CheckoutIdempotencyService {
+    
+    private static final Logger log = LoggerFactory.getLogger(CheckoutIdempotencyService.class);
+    
+    private static final int MAX_KEY_LENGTH = 64;
+    
+    private final CheckoutService checkoutService;
+    private final CheckoutIdempotencyRepository idempotencyRepository;
+    private final Duration retention;
+    private final Duration staleAfter;
+    private final Cache<String, CompletableFuture<Map<String, String>>> results;
+    
+    public CheckoutIdempotencyService(CheckoutService checkoutService,
+                                      CheckoutIdempotencyRepository idempotencyRepository,
+                                      @Value("${app.checkout-idempotency.cache-ttl:10m}") Duration cacheTtl,
+                                      @Value("${app.checkout-idempotency.retention:24h}") Duration retention,
+                                      @Value("${app.checkout-idempotency.stale-after:1m}") Duration staleAfter) {
+        this.checkoutService = checkoutService;
+        this.idempotencyRepository = idempotencyRepository;
+        this.retention = retention;
+        this.staleAfter = staleAfter;
+        this.results = Caffeine.newBuilder()
+                .expireAfterWrite(cacheTtl)
+                .maximumSize(100_000)
+                .build();
+    }
+    
+    public Map<String, String> processOrder(long currentUserId, CheckoutForm form) {
+        String key = form.idempotencyKey();
+        if (key == null || key.isBlank()) {
+            return checkoutService.processOrder(currentUserId, form);
+        }
+        if (key.length() > MAX_KEY_LENGTH) {
+            throw new RuntimeException("Idempotency-Key 長度不能超過 " + MAX_KEY_LENGTH);
+        }
+        
+        String cacheKey = currentUserId + ":" + key;
+        
+        CompletableFuture<Map<String, String>> mine = new CompletableFuture<>();
+        CompletableFuture<Map<String, String>> existing = results.asMap().putIfAbsent(cacheKey, mine);
+        if (existing != null) {
+            // 重複送出：等第一個執行完，拿同一份結果
+            return await(existing);
+        }
+        
+        try {
+            Map<String, String> result = idempotencyRepository.findResponse(currentUserId, key);
+            if (result == null) {
+                result = runOnce(form, currentUserId, key);
+            }
+            mine.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            // 失敗不保留，讓之後的重試可以重新結帳；正在等的請求會拿到同一個錯誤
+            results.asMap().remove(cacheKey, mine);
+            mine.completeExceptionally(e);
+            throw e;
+        }
+    }
+    
+    private Map<String, String> runOnce(CheckoutForm form, long userId, String key) {
+        try {
+            return checkoutService.processOrder(userId, form);
+        } catch (DuplicateSubmissionException e) {
+            // 別台機器剛好同時在處理同一個 key，它 commit 之後這裡才會收到重複，直接讀它的結果
+            Map<String, String> stored = idempotencyRepository.findResponse(userId, key);
+            if (stored != null) {
+                return stored;
+            }
+            // 沒有結果：還在處理中 (丟 DuplicateSubmissionException)，或是很久以前的結帳存結果之前就當機了
+            CheckoutIdempotencyRepository.Orphan orphan = idempotencyRepository.findOrphan(userId, key, staleAfter);
+            if (orphan == null) {
+                throw e;
+            }
+            Map<String, String> resumed = checkoutService.resume(userId, form, orphan);
+            if (resumed != null) {
+                log.warn("結帳 idempotency key 沒有存下結果，已從訂單 {} 重建", orphan.merchantTradeNo());
+                return resumed;
+            }
+            // 訂單已經取消 / 過期：跟沒結帳過一樣，放掉 key 重新結帳
+            log.warn("結帳 idempotency key 的訂單 {} 已經是 {}，放掉 key 重新結帳", orphan.merchantTradeNo(), orphan.orderStatus());
+            idempotencyRepository.release(userId, key);
+            return checkoutService.processOrder(userId, form);
+        }
+    }
+    
+    private static Map<String, String> await(CompletableFuture<Map<String, String>> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+    
+    @Scheduled(fixedDelay = 3_600_000)
+    public void purgeExpired() {
+        int purged = idempotencyRepository.purgeOlderThan(retention);
+        if (purged > 0) {
+            log.info("清除過期的結帳 idempotency 紀錄 {} 筆", purged);
+        }
+    }
+}
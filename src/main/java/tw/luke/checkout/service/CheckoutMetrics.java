@@ -0,0 +1,137 @@
+package tw.luke.checkout.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import tw.luke.checkout.config.SqlStatementCounter;
+import tw.luke.checkout.repository.DuplicateSubmissionException;
+import tw.luke.checkout.repository.StockShortageException;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// 結帳流程的指標 (/actuator/metrics/checkout.*)
+//   checkout.stage{stage}          每個步驟花多久 (stage=inventory_tx 是扣庫存交易從開始到 commit，也就是 row lock 最多拿多久；
+//                                  stage=stock 包含等別人 row lock 的時間)
+//   checkout.payment{method}       支付策略 (依 @Component 名稱：ATM / CARD / LINEPAY)
+//   checkout.duration{outcome}     整個 processOrder
+//   checkout.sql.statements        一次結帳送了幾個 SQL statement
+//   checkout.failures{reason}      失敗原因 (庫存不足、發票格式錯誤...)
+// p50 / p99 在 application.yml 的 management.metrics.distribution 設定
+@Component
+public class CheckoutMetrics {
+
+    private final MeterRegistry registry;
+    private final Timer success;
+    private final Timer failure;
+    private final DistributionSummary sqlStatements;
+    // Timer / Counter 查詢要 hash 一次 tag，先建好放著
+    private final Map<String, Timer> stages = new ConcurrentHashMap<>();
+    private final Map<String, Timer> payments = new ConcurrentHashMap<>();
+    private final Map<String, Counter> failures = new ConcurrentHashMap<>();
+
+    public CheckoutMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.success = durationTimer("success");
+        this.failure = durationTimer("failure");
+        this.sqlStatements = DistributionSummary.builder("checkout.sql.statements")
+            .description("一次結帳送出的 SQL statement 數 (batch 算一次)")
+            .register(registry);
+    }
+
+    // 開始一次結帳 (同時開始計算 SQL statement)
+    public Timer.Sample start() {
+        SqlStatementCounter.begin();
+        return Timer.start(registry);
+    }
+
+    public void success(Timer.Sample sample) {
+        sample.stop(success);
+        sqlStatements.record(SqlStatementCounter.end());
+    }
+
+    // stage = 失敗時正在執行的步驟，例外類型看不出原因時用它判斷
+    public void failure(Timer.Sample sample, String stage, RuntimeException e) {
+        sample.stop(failure);
+        sqlStatements.record(SqlStatementCounter.end());
+        failures.computeIfAbsent(reason(stage, e), reason -> Counter.builder("checkout.failures")
+            .tag("reason", reason)
+            .description("結帳失敗次數")
+            .register(registry)
+        ).increment();
+    }
+
+    public <T> T stage(String stage, Supplier<T> body) {
+        return stageTimer(stage).record(body);
+    }
+    
+    // 不是包在一個 lambda 裡的步驟 (例如交易從開始到 commit)
+    public void stage(String stage, long nanos) {
+        stageTimer(stage).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void stage(String stage, Runnable body) {
+        stage(stage, () -> {
+            body.run();
+            return null;
+        });
+    }
+
+    public <T> T payment(String method, Supplier<T> body) {
+        return paymentTimer(method).record(body);
+    }
+    
+    // 非同步的支付策略 (PaymentStrategy.payAsync)：從開始到完成
+    public <T> CompletableFuture<T> paymentAsync(String method, Supplier<CompletableFuture<T>> start) {
+        Timer timer = paymentTimer(method);
+        long started = System.nanoTime();
+        return start.get().whenComplete((result, e) -> timer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS));
+    }
+    
+    private Timer stageTimer(String stage) {
+        return stages.computeIfAbsent(stage, name -> Timer.builder("checkout.stage")
+            .tag("stage", name)
+            .description("結帳各步驟的耗時")
+            .register(registry)
+        );
+    }
+    
+    private Timer paymentTimer(String method) {
+        return payments.computeIfAbsent(method, name -> Timer.builder("checkout.payment")
+            .tag("method", name)
+            .description("支付策略的耗時")
+            .register(registry)
+        );
+    }
+
+    private Timer durationTimer(String outcome) {
+        return Timer.builder("checkout.duration")
+            .tag("outcome", outcome)
+            .description("整個結帳 (processOrder) 的耗時")
+            .register(registry);
+    }
+
+    private static String reason(String stage, RuntimeException e) {
+        if (e instanceof StockShortageException) {
+            return "out_of_stock";
+        }
+        if (e instanceof DuplicateSubmissionException) {
+            return "duplicate_submission";
+        }
+        if (e instanceof DataAccessException) {
+            return "database";
+        }
+        return switch (stage) {
+            case "validate" -> "invalid_invoice";
+            case "load_cart" -> "empty_cart";
+            case "payment" -> "payment_rejected";
+            default -> "other";
+        };
+    }
+}
@@ -0,0 +1,213 @@
+package tw.luke.checkout.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import tw.luke.checkout.dto.CheckoutForm;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 開賣搶票用的結帳排隊區 (waiting room)
+// submit 只負責排隊並立刻回傳序號，真正的 processOrder 由固定數量的 worker 執行
+// 這樣同時打到 MySQL 的結帳交易數量固定是 workers 個，不會因為湧入的人多就一起搶 row lock
+// 每個活動一條隊伍，worker 輪流服務有人排隊的活動，冷門活動不會被熱門活動整個卡住
+// app.checkout-queue.enabled=false 時不建立這個 bean，submit 退回同步執行 processOrder
+@Service
+@ConditionalOnProperty(prefix = "app.checkout-queue", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class CheckoutQueue {
+
+    public enum Status { QUEUED, PROCESSING, DONE, FAILED }
+
+    private final CheckoutService checkoutService;
+    private final CheckoutIdempotencyService checkoutIdempotencyService;
+    private final CartStore cartStore;
+    private final int capacity;
+    private final Duration resultTtl;
+
+    private final Map<Long, EventLane> lanes = new ConcurrentHashMap<>();
+    private final BlockingQueue<EventLane> readyLanes = new LinkedBlockingQueue<>();
+    private final Map<String, Ticket> tickets = new ConcurrentHashMap<>();
+    // 使用者:idempotency key -> 排隊序號，連點 / 重送直接回同一張號碼牌，不重複排隊
+    private final Map<String, String> ticketIdsByKey = new ConcurrentHashMap<>();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final ExecutorService workers;
+
+    public CheckoutQueue(CheckoutService checkoutService,
+                         CheckoutIdempotencyService checkoutIdempotencyService,
+                         CartStore cartStore,
+                         @Value("${app.checkout-queue.workers:8}") int workerCount,
+                         @Value("${app.checkout-queue.capacity:50000}") int capacity,
+                         @Value("${app.checkout-queue.result-ttl:10m}") Duration resultTtl) {
+        this.checkoutService = checkoutService;
+        this.checkoutIdempotencyService = checkoutIdempotencyService;
+        this.cartStore = cartStore;
+        this.capacity = capacity;
+        this.resultTtl = resultTtl;
+        this.workers = Executors.newFixedThreadPool(workerCount, Thread.ofPlatform().name("checkout-worker-", 0).factory());
+        for (int i = 0; i < workerCount; i++) {
+            workers.execute(this::drain);
+        }
+    }
+
+    // 排隊：先做不用碰資料庫鎖的檢查 (表單格式、購物車是不是空的)，通過就拿號碼牌
+    public Map<String, String> submit(long userId, CheckoutForm form) {
+        checkoutService.validateInvoice(form);
+
+        String ticketId = UUID.randomUUID().toString();
+        String key = form.idempotencyKey() == null || form.idempotencyKey().isBlank() ? null : userId + ":" + form.idempotencyKey();
+        if (key != null) {
+            String existing = ticketIdsByKey.putIfAbsent(key, ticketId);
+            if (existing != null) {
+                if (tickets.containsKey(existing)) {
+                    return status(existing, userId);
+                }
+                // 舊的號碼牌已經清掉了，重新排 (真的結帳過的話 worker 會直接拿到存下來的結果)
+                ticketIdsByKey.put(key, ticketId);
+            }
+        }
+
+        Long eventId = cartStore.eventId(userId);
+        if (eventId == null) {
+            if (key != null) {
+                ticketIdsByKey.remove(key, ticketId);
+            }
+            throw new RuntimeException("購物車是空的，無法結帳");
+        }
+
+        if (waiting.incrementAndGet() > capacity) {
+            waiting.decrementAndGet();
+            if (key != null) {
+                ticketIdsByKey.remove(key, ticketId);
+            }
+            throw new RuntimeException("目前排隊人數過多，請稍後再試");
+        }
+
+        EventLane lane = lanes.computeIfAbsent(eventId, id -> new EventLane());
+        Ticket ticket = new Ticket(ticketId, userId, form, lane, lane.enqueued.incrementAndGet());
+        tickets.put(ticket.id, ticket);
+        lane.queue.offer(ticket);
+        if (lane.scheduled.compareAndSet(false, true)) {
+            readyLanes.offer(lane);
+        }
+        return status(ticket.id, userId);
+    }
+
+    // 前端輪詢用：排隊中回傳目前位置，完成就回傳 processOrder 的結果
+    // 結果裡有訂單編號跟付款表單，只給排隊的本人看；別人的號碼牌跟不存在的一樣處理，不透露序號是否有效
+    public Map<String, String> status(String ticketId, long userId) {
+        Ticket ticket = tickets.get(ticketId);
+        if (ticket == null || ticket.userId != userId) {
+            throw new RuntimeException("查無此排隊序號，可能已經過期");
+        }
+        return switch (ticket.status) {
+            case QUEUED -> Map.of(
+                "status", "queued",
+                "ticketId", ticket.id,
+                "position", String.valueOf(Math.max(1, ticket.seq - ticket.lane.dequeued.get()))
+            );
+            case PROCESSING -> Map.of("status", "processing", "ticketId", ticket.id);
+            case DONE -> ticket.result;
+            case FAILED -> Map.of("status", "error", "ticketId", ticket.id, "message", ticket.error);
+        };
+    }
+
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    // worker：拿一個有人排隊的活動，處理一位，活動還有人就放回輪替的尾端
+    private void drain() {
+        while (!Thread.currentThread().isInterrupted()) {
+            EventLane lane;
+            try {
+                lane = readyLanes.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            Ticket ticket = lane.queue.poll();
+            if (lane.queue.isEmpty()) {
+                lane.scheduled.set(false);
+                // 剛好有人在 set(false) 之前排進來，要自己把活動放回去
+                if (!lane.queue.isEmpty() && lane.scheduled.compareAndSet(false, true)) {
+                    readyLanes.offer(lane);
+                }
+            } else {
+                readyLanes.offer(lane);
+            }
+
+            if (ticket != null) {
+                process(ticket);
+            }
+        }
+    }
+
+    private void process(Ticket ticket) {
+        waiting.decrementAndGet();
+        ticket.lane.dequeued.incrementAndGet();
+        ticket.status = Status.PROCESSING;
+        try {
+            ticket.result = checkoutIdempotencyService.processOrder(ticket.userId, ticket.form);
+            ticket.status = Status.DONE;
+        } catch (RuntimeException e) {
+            ticket.error = e.getMessage() == null ? "結帳失敗" : e.getMessage();
+            ticket.status = Status.FAILED;
+        } finally {
+            ticket.finishedAt = System.nanoTime();
+        }
+    }
+
+    // 已完成的結果保留一段時間讓前端來拿，過期就清掉
+    @Scheduled(fixedDelay = 60_000)
+    public void purgeFinished() {
+        long deadline = System.nanoTime() - resultTtl.toNanos();
+        tickets.values().removeIf(t -> t.finishedAt != 0 && t.finishedAt - deadline < 0);
+        ticketIdsByKey.values().removeIf(id -> !tickets.containsKey(id));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    private static class EventLane {
+        final Queue<Ticket> queue = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        final AtomicLong enqueued = new AtomicLong();
+        final AtomicLong dequeued = new AtomicLong();
+    }
+
+    private static class Ticket {
+        final String id;
+        final long userId;
+        final CheckoutForm form;
+        final EventLane lane;
+        final long seq;
+        volatile Status status = Status.QUEUED;
+        volatile Map<String, String> result;
+        volatile String error;
+        volatile long finishedAt;
+
+        Ticket(String id, long userId, CheckoutForm form, EventLane lane, long seq) {
+            this.id = id;
+            this.userId = userId;
+            this.form = form;
+            this.lane = lane;
+            this.seq = seq;
+        }
+    }
+}
@@ -1,75 +1,260 @@
 package tw.luke.checkout.service;
 
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import tw.luke.checkout.dto.CartSnapshot;
 import tw.luke.checkout.dto.CheckoutForm;
+import tw.luke.checkout.repository.CheckoutIdempotencyRepository;
 import tw.luke.checkout.repository.OrderRepository;
+import tw.luke.checkout.repository.ReservationRepository;
 import tw.luke.checkout.service.strategy.PaymentStrategy;
 
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @Service
 public class CheckoutService {
     
+    private static final Logger log = LoggerFactory.getLogger(CheckoutService.class);
+    
+    // 不用跳轉付款頁的結帳結果 (ATM)
+    private static final Map<String, String> SUCCESS = Map.of(
+        "status", "success",
+        "message", "訂單成功"
+    );
+    
     private final Map<String, PaymentStrategy> strategyMap;
     private final OrderRepository orderRepository;
+    private final CheckoutIdempotencyRepository idempotencyRepository;
+    private final ObjectProvider<ReservationExpiryService> reservationExpiry;
+    private final CheckoutMetrics metrics;
+    private final CartStore cartStore;
+    private final MerchantTradeNoGenerator merchantTradeNos;
+    private final ReservationRepository reservationRepository;
+    private final PlatformTransactionManager transactionManager;
+    // 付款準備 (payAsync) 用的 virtual thread，不佔結帳 worker
+    private final ExecutorService paymentExecutor =
+        Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("checkout-payment-", 0).factory());
     
     @Autowired
-    public CheckoutService(Map<String, PaymentStrategy> strategyMap, OrderRepository orderRepository) {
+    public CheckoutService(Map<String, PaymentStrategy> strategyMap, OrderRepository orderRepository,
+                           CheckoutIdempotencyRepository idempotencyRepository,
+                           ObjectProvider<ReservationExpiryService> reservationExpiry,
+                           CheckoutMetrics metrics,
+                           CartStore cartStore,
+                           MerchantTradeNoGenerator merchantTradeNos,
+                           ReservationRepository reservationRepository,
+                           PlatformTransactionManager transactionManager) {
         this.strategyMap = strategyMap;
         this.orderRepository = orderRepository;
+        this.idempotencyRepository = idempotencyRepository;
+        this.reservationExpiry = reservationExpiry;
+        this.metrics = metrics;
+        this.cartStore = cartStore;
+        this.merchantTradeNos = merchantTradeNos;
+        this.reservationRepository = reservationRepository;
+        this.transactionManager = transactionManager;
     }
     
-    @Transactional
-    public Map<String, String> processOrder(CheckoutForm form) {
-        
-        validateInvoice(form);
-        long currentUserId = 1L;
-        
-        // 1. 【創建預約鎖定】 (防止超賣，最優先執行) 關鍵在這
-        orderRepository.createReservations(currentUserId); 
-        
-        // 2. 【扣除庫存】 (鎖定成功後，再實際扣除庫存)
-        orderRepository.decreaseStock(currentUserId);
-        
-        // 3. 【計算總金額】
-        int totalAmount = orderRepository.calculateTotal(currentUserId);
-        
-        // 4. 【執行支付策略】 (會根據選擇的支付方式回傳 HTML 或狀態)
-        PaymentStrategy strategy = strategyMap.get(form.paymentMethod());
-        if (strategy == null) {
-            throw new RuntimeException("不支援的付款方式: " + form.paymentMethod());
+    // 結帳分兩段：
+    //   1. 短交易：佔 idempotency key、讀購物車、預約、建訂單、清購物車、扣庫存 → commit，row lock 到這裡就放掉
+    //   2. 交易外：等付款準備 (綠界表單...) 的結果，存下要回給前端的內容
+    // 付款準備 (PaymentStrategy.payAsync) 在讀完購物車、知道金額之後就開始，跟扣庫存同時進行，但交易不會等它
+    // 訂單 commit 之後付款準備才失敗：取消預約還庫存、訂單改 CANCELLED、購物車放回去、idempotency key 放掉讓使用者重試
+    public Map<String, String> processOrder(long currentUserId, CheckoutForm form) {
+        // 每個步驟的耗時、SQL 數、失敗原因都記在 CheckoutMetrics (stage 用來判斷失敗發生在哪一步)
+        Timer.Sample sample = metrics.start();
+        String stage = "validate";
+        try {
+            validateInvoice(form);
+            
+            // 付款方式與付款欄位 (ATM 後五碼...) 先檢查，格式錯的不用先扣庫存再還回去
+            stage = "payment";
+            PaymentStrategy strategy = strategyMap.get(form.paymentMethod());
+            if (strategy == null) {
+                throw new RuntimeException("不支援的付款方式: " + form.paymentMethod());
+            }
+            strategy.validate(form);
+            
+            String idempotencyKey = form.idempotencyKey();
+            boolean hasKey = idempotencyKey != null && !idempotencyKey.isBlank();
+            
+            // 訂單編號先決定好，佔用 idempotency key 時一起記下來
+            String merchantTradeNo = merchantTradeNos.next();
+            
+            long txStarted = System.nanoTime();
+            TransactionStatus tx = transactionManager.getTransaction(TransactionDefinition.withDefaults());
+            CartSnapshot cart;
+            long reservationId;
+            CompletableFuture<String> payment = null;
+            try {
+                // 有帶 idempotency key 就先佔用，已經結帳過會丟 DuplicateSubmissionException (什麼都還沒做，直接 rollback)
+                stage = "idempotency";
+                if (hasKey) {
+                    idempotencyRepository.claim(currentUserId, idempotencyKey, merchantTradeNo);
+                }
+                
+                // 0. 【讀取購物車快照】 (整個結帳流程只讀這一次，價格也在這裡算好)
+                //    購物車平常在記憶體 (CartStore)，先把還沒寫回的變動寫進這個交易再讀
+                stage = "load_cart";
+                CartSnapshot loaded = metrics.stage(stage, () -> {
+                    cartStore.flushForCheckout(currentUserId);
+                    return orderRepository.loadCartSnapshot(currentUserId);
+                });
+                cart = loaded;
+                if (cart.isEmpty()) {
+                    throw new RuntimeException("購物車是空的，無法結帳");
+                }
+                
+                // 1. 【計算總金額】 (快照裡已經有單價，不用再查資料庫)，接著就開始準備付款 (不在這個交易裡等)
+                stage = "total";
+                int totalAmount = metrics.stage(stage, cart::totalAmount);
+                payment = metrics.paymentAsync(form.paymentMethod(),
+                    () -> strategy.payAsync(form, totalAmount, merchantTradeNo, paymentExecutor));
+                
+                // 2. 【創建預約鎖定】 (防止超賣，最優先執行) 關鍵在這
+                stage = "reservation";
+                reservationId = metrics.stage(stage, () -> orderRepository.createReservations(loaded, strategy.hold()));
+                reservationExpiry.ifAvailable(expiry -> expiry.scheduleNew(reservationId, strategy.hold()));
+                
+                // 3. 【創建主訂單及明細】
+                stage = "order";
+                metrics.stage(stage, () -> orderRepository.createOrder(loaded, form, reservationId, merchantTradeNo));
+                
+                // 4. 【清空購物車】
+                stage = "cart_clear";
+                metrics.stage(stage, () -> orderRepository.clearCart(currentUserId));
+                
+                // 5. 【扣除庫存】 放在交易的最後：event_ticket_type 的 row lock 從這裡拿到 commit，別的結帳等的只有這一小段
+                //    不夠的話整個交易 rollback (預約、訂單、清購物車都不會留下)
+                stage = "stock";
+                metrics.stage(stage, () -> orderRepository.decreaseStock(loaded));
+                
+                stage = "commit";
+                transactionManager.commit(tx);
+            } catch (RuntimeException | Error e) {
+                if (payment != null) {
+                    payment.cancel(true);
+                }
+                if (!tx.isCompleted()) {
+                    transactionManager.rollback(tx);
+                }
+                throw e;
+            } finally {
+                metrics.stage("inventory_tx", System.nanoTime() - txStarted);
+            }
+            
+            // 6. 【等付款準備的結果】 (會根據選擇的支付方式回傳 HTML 或狀態)，row lock 已經放掉了
+            stage = "payment";
+            String result;
+            try {
+                result = join(payment);
+            } catch (RuntimeException e) {
+                compensate(cart, reservationId, hasKey ? idempotencyKey : null);
+                throw e;
+            }
+            
+            // 7. 【回傳結果】
+            Map<String, String> response = response(result);
+            
+            // 8. 【記下結果】 (訂單已經成立，重送時直接回這份)
+            //    commit 到這裡之間別台機器收到同一個 key 會拿到 DuplicateSubmissionException (還沒有結果可以回)
+            stage = "idempotency";
+            if (hasKey) {
+                idempotencyRepository.complete(currentUserId, idempotencyKey, response);
+            }
+            metrics.success(sample);
+            return response;
+        } catch (RuntimeException e) {
+            metrics.failure(sample, stage, e);
+            throw e;
         }
-        String result = strategy.pay(form);
-        
-        // 5. 【創建主訂單及明細】 (必須在支付策略執行後，因為需要總金額)
-        orderRepository.createOrder(currentUserId, form, totalAmount);
-        
-        // 6. 【清空購物車】 (交易完成)
-        orderRepository.clearCart(currentUserId);
-        
-        // 7. 【回傳結果】
+    }
+    
+    // 佔用了 key 的訂單已經 commit，但結果沒存下來 (存之前當機 / complete 失敗)：用同一個訂單編號重新準備付款
+    // 付款方式照訂單當初選的 (重試的表單可能換了付款方式，但訂單編號跟金額都是原本那筆)
+    // 已經付款的直接回成功；訂單已經不在 (取消、過期) 回傳 null，呼叫端放掉 key 重新結帳
+    public Map<String, String> resume(long currentUserId, CheckoutForm form, CheckoutIdempotencyRepository.Orphan orphan) {
+        String status = orphan.orderStatus();
+        Map<String, String> response;
+        if ("PAID".equals(status) || "PAID_LATE".equals(status)) {
+            response = SUCCESS;
+        } else if ("PENDING".equals(status)) {
+            String paymentMethod = orphan.paymentMethod() != null ? orphan.paymentMethod() : form.paymentMethod();
+            PaymentStrategy strategy = strategyMap.get(paymentMethod);
+            if (strategy == null) {
+                throw new RuntimeException("不支援的付款方式: " + paymentMethod);
+            }
+            response = response(strategy.pay(form, orphan.totalAmount(), orphan.merchantTradeNo()));
+        } else {
+            return null;
+        }
+        idempotencyRepository.complete(currentUserId, form.idempotencyKey(), response);
+        return response;
+    }
+    
+    private static Map<String, String> response(String result) {
         if (result.startsWith("<form")) {
             return Map.of(
                 "status", "ecpay",
                 "message", result // 回傳 HTML 給前端跳轉
             );
         }
-        
         // 一般成功 (ATM)
-        return Map.of(
-            "status", "success", 
-            "message", "訂單成功"
-        );
+        return SUCCESS;
     }
     
+    // 訂單已經 commit 但付款準備失敗：跟沒結帳過一樣 (預約取消、庫存還回去、購物車放回去、key 可以重用)
+    private void compensate(CartSnapshot cart, long reservationId, String idempotencyKey) {
+        try {
+            reservationRepository.cancelAndRelease(reservationId);
+            if (idempotencyKey != null) {
+                idempotencyRepository.release(cart.userId(), idempotencyKey);
+            }
+            cartStore.update(cart.userId(), items -> {
+                Map<Long, Integer> restored = new HashMap<>();
+                for (CartSnapshot.Line line : cart.lines()) {
+                    restored.merge(line.eventTicketTypeId(), line.quantity(), Integer::sum);
+                }
+                restored.replaceAll((ticketTypeId, quantity) -> quantity + items.getOrDefault(ticketTypeId, 0));
+                return restored;
+            });
+        } catch (RuntimeException e) {
+            // 還不回去的話預約到期時 (ReservationExpiryService) 還是會還庫存、讓訂單失效
+            log.error("付款準備失敗後取消預約 {} 失敗，等到期回收", reservationId, e);
+        }
+    }
     
+    private static String join(CompletableFuture<String> payment) {
+        try {
+            return payment.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
     
+    @PreDestroy
+    public void shutdown() {
+        paymentExecutor.shutdown();
+    }
     
-    
-    
-    private void validateInvoice(CheckoutForm form) {
+    // 表單檢查 (不碰資料庫)，排隊前也會先跑一次，格式錯的不用進隊伍
+    public void validateInvoice(CheckoutForm form) {
         if (form.paymentMethod() == null || form.paymentMethod().isEmpty()) {
             throw new RuntimeException("請選擇付款方式");
         }
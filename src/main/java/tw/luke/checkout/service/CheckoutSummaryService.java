@@ -0,0 +1,115 @@
+package tw.luke.checkout.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import tw.luke.checkout.config.ReadYourWrites;
+import tw.luke.checkout.dto.CheckoutStubResponse;
+import tw.luke.checkout.dto.CustomerDto;
+import tw.luke.checkout.dto.Money;
+import tw.luke.checkout.dto.OrderItemDto;
+import tw.luke.checkout.dto.TicketCatalog;
+import tw.luke.checkout.repository.TicketCatalogRepository;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// 結帳摘要 (/api/checkout/summary) 與它的 ETag
+// ETag = 啟動時間 + 購物車版本號 + 購物車裡票種目錄內容的 hash，購物車或價格沒變就一樣，瀏覽器帶 If-None-Match 直接回 304
+// 票種目錄不管是手動失效還是 TTL 到期重新載入，價格 / 名稱變了 hash 就跟著變
+// 組好的摘要依使用者留在記憶體，ETag 變了 (購物車或價格有變動) 才重新組
+@Service
+public class CheckoutSummaryService {
+
+    // 重啟後版本號從頭算，加上啟動時間避免跟重啟前發出去的 ETag 撞在一起
+    private static final String BOOT_EPOCH = Long.toString(System.currentTimeMillis(), 36);
+
+    private final CartStore cartStore;
+    private final TicketCatalogRepository ticketCatalogRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final ReadYourWrites readYourWrites;
+    private final Cache<Long, Summary> summaries = Caffeine.newBuilder()
+            .expireAfterAccess(Duration.ofMinutes(30))
+            .maximumSize(100_000)
+            .build();
+
+    public CheckoutSummaryService(CartStore cartStore, TicketCatalogRepository ticketCatalogRepository,
+                                  JdbcTemplate jdbcTemplate, ReadYourWrites readYourWrites) {
+        this.cartStore = cartStore;
+        this.ticketCatalogRepository = ticketCatalogRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.readYourWrites = readYourWrites;
+    }
+
+    // 只看版本號與票種目錄，不組摘要 (購物車與目錄都已經在記憶體的話不碰資料庫)
+    public String etag(long userId) {
+        return etag(cartStore.view(userId));
+    }
+
+    public String etag(CartStore.View cart) {
+        return etagOf(cart.version(), ticketCatalogRepository.findAll(cart.items().keySet()));
+    }
+
+    public Summary summary(long userId) {
+        CartStore.View cart = cartStore.view(userId);
+        Map<Long, TicketCatalog> catalog = ticketCatalogRepository.findAll(cart.items().keySet());
+        String etag = etagOf(cart.version(), catalog);
+        Summary cached = summaries.getIfPresent(userId);
+        if (cached != null && cached.etag().equals(etag)) {
+            return cached;
+        }
+        Summary summary = new Summary(etag, build(userId, cart.items(), catalog));
+        summaries.put(userId, summary);
+        return summary;
+    }
+
+    private static String etagOf(long cartVersion, Map<Long, TicketCatalog> catalog) {
+        // 跟順序無關的加總 (record 的 hashCode 涵蓋價格、活動名稱、票種名稱)
+        int catalogHash = 0;
+        for (TicketCatalog ticket : catalog.values()) {
+            catalogHash += ticket.hashCode();
+        }
+        return "\"" + BOOT_EPOCH + "-" + cartVersion + "-" + Integer.toHexString(catalogHash) + "\"";
+    }
+
+    // 商品名稱 / 票種 / 單價從票種目錄快取補上
+    private CheckoutStubResponse build(long userId, Map<Long, Integer> cartItems, Map<Long, TicketCatalog> catalog) {
+
+        List<OrderItemDto> order = new ArrayList<>();
+        for (Map.Entry<Long, Integer> item : cartItems.entrySet()) {
+            TicketCatalog ticket = catalog.get(item.getKey());
+            if (ticket == null) {
+                continue;
+            }
+            order.add(new OrderItemDto(
+                item.getKey(), // 一個票種一行，用票種 ID 當這一行的 ID
+                ticket.eventTitle(),
+                ticket.ticketName(),
+                ticket.priceCents(),
+                item.getValue()
+            ));
+        }
+
+        // 讀副本 (這個使用者剛改過購物車 / 剛結帳的話讀主庫)
+        CustomerDto customer = readYourWrites.read(ReadYourWrites.user(userId), () -> jdbcTemplate.queryForObject(
+            "SELECT email FROM otp.user WHERE id = ?",
+            (rs, rowNum) -> {
+                String email = rs.getString("email");
+                // 這裡使用假資料 ("Stub Name", "0912-345-678") 來滿足 CustomerDto 的結構
+                return new CustomerDto("Test User", "0912-345-678", email);
+            },
+            userId
+        ));
+
+        long totalCents = 0;
+        for (OrderItemDto item : order) {
+            totalCents += item.subtotalCents();
+        }
+        return new CheckoutStubResponse(customer, order, Money.dollars(totalCents));
+    }
+
+    public record Summary(String etag, CheckoutStubResponse response) {}
+}
@@ -0,0 +1,166 @@
+package tw.luke.checkout.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import tw.luke.checkout.dto.ECPayNotification;
+import tw.luke.checkout.repository.PaymentRepository;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// 綠界付款結果通知 (ReturnURL) 的處理
+// 1. 驗 CheckMacValue，不對直接拒絕
+// 2. 同一則通知 (綠界沒收到 1|OK 會一直重送) 在記憶體去重：處理中的等同一個結果，處理完的直接回 1|OK
+// 3. 通知丟進佇列，由一條寫入 thread 一次拿走目前累積的全部，在同一個交易裡入帳 (PaymentRepository)
+//    尖峰時一批就是一個交易，不是每則通知各開一個交易搶連線
+// 4. 等這批 commit 之後才回 1|OK；ack-timeout 內沒寫完就回失敗，讓綠界稍後重送 (不會掉單)
+// 金額不符 / 找不到訂單 / 訂單已取消的付款通知也回 1|OK，但會寫進 otp.payment_exceptions 並記 error log，要人工對帳
+@Service
+public class ECPayCallbackProcessor {
+
+    private static final Logger log = LoggerFactory.getLogger(ECPayCallbackProcessor.class);
+
+    public static final String ACK = "1|OK";
+
+    private final ECPayService ecPayService;
+    private final PaymentRepository paymentRepository;
+    private final int batchSize;
+    private final Duration ackTimeout;
+
+    private final BlockingQueue<Pending> queue;
+    private final Cache<String, CompletableFuture<String>> seen;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    public ECPayCallbackProcessor(ECPayService ecPayService,
+                                  PaymentRepository paymentRepository,
+                                  @Value("${app.ecpay-callback.batch-size:200}") int batchSize,
+                                  @Value("${app.ecpay-callback.queue-capacity:10000}") int queueCapacity,
+                                  @Value("${app.ecpay-callback.ack-timeout:5s}") Duration ackTimeout,
+                                  @Value("${app.ecpay-callback.dedupe-ttl:1h}") Duration dedupeTtl) {
+        this.ecPayService = ecPayService;
+        this.paymentRepository = paymentRepository;
+        this.batchSize = batchSize;
+        this.ackTimeout = ackTimeout;
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.seen = Caffeine.newBuilder()
+                .expireAfterWrite(dedupeTtl)
+                .maximumSize(100_000)
+                .build();
+        this.writer = Thread.ofPlatform().name("ecpay-callback-writer").daemon().start(this::drain);
+    }
+
+    // 回傳要給綠界的 body：成功 1|OK，失敗 0|原因 (綠界會再重送)
+    public String handle(Map<String, String> params) {
+        if (!ecPayService.verifyCheckMacValue(params)) {
+            log.warn("綠界通知檢查碼錯誤 MerchantTradeNo={}", params.get("MerchantTradeNo"));
+            return "0|CheckMacValue Error";
+        }
+
+        ECPayNotification notification;
+        try {
+            notification = new ECPayNotification(
+                params.get("MerchantTradeNo"),
+                params.get("TradeNo"),
+                Integer.parseInt(params.get("RtnCode")),
+                Integer.parseInt(params.get("TradeAmt"))
+            );
+        } catch (NumberFormatException e) {
+            return "0|Invalid RtnCode or TradeAmt";
+        }
+        if (notification.merchantTradeNo() == null) {
+            return "0|Missing MerchantTradeNo";
+        }
+
+        String key = notification.merchantTradeNo() + ":" + notification.rtnCode();
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> existing = seen.asMap().putIfAbsent(key, mine);
+        CompletableFuture<String> result = existing != null ? existing : mine;
+        if (existing == null && !queue.offer(new Pending(notification, mine))) {
+            seen.asMap().remove(key, mine);
+            return "0|Busy";
+        }
+
+        try {
+            result.get(ackTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            return ACK;
+        } catch (TimeoutException e) {
+            // 還在佇列裡，之後會寫進去；綠界重送時就會拿到已完成的結果
+            return "0|Timeout";
+        } catch (ExecutionException e) {
+            // 內部錯誤只記 log，不回給外部 (寫入 thread 那邊已經記過整批的錯誤)
+            seen.asMap().remove(key, result);
+            log.warn("綠界通知 {} 入帳失敗: {}", notification.merchantTradeNo(), e.getCause().toString());
+            return "0|Error";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "0|Interrupted";
+        }
+    }
+
+    private void drain() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            // 不額外等待：閒的時候一則一批，尖峰時自然累積成大批
+            queue.drainTo(batch, batchSize - 1);
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    private void write(List<Pending> batch) {
+        try {
+            Map<String, String> outcomes = paymentRepository.applyNotifications(
+                batch.stream().map(Pending::notification).toList()
+            );
+            for (Pending pending : batch) {
+                ECPayNotification notification = pending.notification();
+                String outcome = outcomes.get(notification.merchantTradeNo());
+                if (notification.isPaid() && (PaymentRepository.AMOUNT_MISMATCH.equals(outcome)
+                        || PaymentRepository.UNKNOWN_ORDER.equals(outcome)
+                        || PaymentRepository.ORDER_CLOSED.equals(outcome))) {
+                    // 已經收到錢但入不了帳 (otp.payment_exceptions 有一筆)
+                    log.error("綠界付款通知無法入帳 {}: MerchantTradeNo={} TradeNo={} TradeAmt={}",
+                        outcome, notification.merchantTradeNo(), notification.tradeNo(), notification.tradeAmt());
+                } else if (PaymentRepository.PAID_LATE.equals(outcome)) {
+                    log.warn("綠界付款通知 {} 逾期付款，需要補票或退款", notification.merchantTradeNo());
+                } else if (!PaymentRepository.PAID.equals(outcome) && !PaymentRepository.UNCHANGED.equals(outcome)) {
+                    log.info("綠界付款通知 {} → {}", notification.merchantTradeNo(), outcome);
+                }
+                pending.result().complete(outcome);
+            }
+        } catch (Throwable e) {
+            // 連 Error 也要接住：不然等這批的請求會一直卡到 ack-timeout，寫入 thread 也會死掉
+            log.error("綠界通知入帳失敗 {} 筆，等綠界重送", batch.size(), e);
+            for (Pending pending : batch) {
+                pending.result().completeExceptionally(e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        writer.interrupt();
+    }
+
+    private record Pending(ECPayNotification notification, CompletableFuture<String> result) {}
+}
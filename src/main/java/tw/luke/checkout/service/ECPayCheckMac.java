@@ -0,0 +1,216 @@
+package tw.luke.checkout.service;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// 綠界 CheckMacValue (SHA256)：跟原本 URLEncoder.encode → toLowerCase → 八次 replace → sha256Hex 的結果完全相同
+// 差別是只掃一次字串，編碼後的 byte 直接餵進 MessageDigest，不產生中間字串
+// 編碼規則 (.NET HttpUtility.UrlEncode 風格)：
+//   英數字與 . - * _ ! ( ) 保留 (英文字母轉小寫)，空白變 +，其他字元以 UTF-8 編碼成 %xx (小寫十六進位)
+//   單獨的 surrogate (不成對) 跟 URLEncoder 一樣當成 '?' 編碼
+final class ECPayCheckMac {
+
+    private static final byte[] HEX_LOWER = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final char[] HEX_UPPER = "0123456789ABCDEF".toCharArray();
+
+    // 0 = 要編碼成 %xx，其他 = 直接輸出的 byte
+    private static final byte[] ASCII = new byte[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) ASCII[c] = (byte) c;
+        for (char c = 'A'; c <= 'Z'; c++) ASCII[c] = (byte) (c + ('a' - 'A'));
+        for (char c = '0'; c <= '9'; c++) ASCII[c] = (byte) c;
+        for (char c : ".-*_!()".toCharArray()) ASCII[c] = (byte) c;
+        ASCII[' '] = '+';
+    }
+
+    private final byte[] prefix;
+    private final byte[] suffix;
+    private final byte[] separator;
+    private final byte[] equals;
+
+    // 用完放回來重複使用 (請求跑在 virtual thread 上，ThreadLocal 每個請求都是新的，等於沒有重用)
+    private final AtomicReferenceArray<Signer> pool;
+    private final int poolMask;
+
+    ECPayCheckMac(String hashKey, String hashIv) {
+        this.prefix = encode("HashKey=" + hashKey + "&");
+        this.suffix = encode("&HashIV=" + hashIv);
+        this.separator = encode("&");
+        this.equals = encode("=");
+        int size = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1) << 1;
+        this.pool = new AtomicReferenceArray<>(size);
+        this.poolMask = size - 1;
+    }
+
+    // 參數要已經依 key 排序 (TreeMap)
+    String sign(Map<String, String> sortedParams) {
+        Signer signer = borrow();
+        try {
+            signer.begin(prefix);
+            boolean first = true;
+            for (Map.Entry<String, String> entry : sortedParams.entrySet()) {
+                if (!first) {
+                    signer.write(separator);
+                }
+                first = false;
+                signer.encode(entry.getKey());
+                signer.write(equals);
+                signer.encode(entry.getValue());
+            }
+            return signer.finish(suffix);
+        } finally {
+            release(signer);
+        }
+    }
+
+    // keys 已經依序排好、values 對應位置；value 為 null 的欄位略過
+    String sign(String[] keys, String[] values) {
+        Signer signer = borrow();
+        try {
+            signer.begin(prefix);
+            boolean first = true;
+            for (int i = 0; i < keys.length; i++) {
+                if (values[i] == null) {
+                    continue;
+                }
+                if (!first) {
+                    signer.write(separator);
+                }
+                first = false;
+                signer.encode(keys[i]);
+                signer.write(equals);
+                signer.encode(values[i]);
+            }
+            return signer.finish(suffix);
+        } finally {
+            release(signer);
+        }
+    }
+
+    private Signer borrow() {
+        int slot = (int) (Thread.currentThread().threadId() & poolMask);
+        Signer signer = pool.getAndSet(slot, null);
+        return signer != null ? signer : new Signer();
+    }
+
+    private void release(Signer signer) {
+        int slot = (int) (Thread.currentThread().threadId() & poolMask);
+        pool.compareAndSet(slot, null, signer);
+    }
+
+    // 固定字串 (HashKey / HashIV / 分隔符號) 只在建構時編碼一次，直接用原本的寫法
+    private static byte[] encode(String s) {
+        String encoded = URLEncoder.encode(s, StandardCharsets.UTF_8).toLowerCase(Locale.ROOT)
+            .replace("%21", "!")
+            .replace("%28", "(")
+            .replace("%29", ")");
+        return encoded.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static final class Signer {
+        private final MessageDigest digest;
+        private final byte[] buf = new byte[512];
+        private final byte[] hash = new byte[32];
+        private int pos;
+
+        Signer() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void begin(byte[] prefix) {
+            digest.reset();
+            pos = 0;
+            write(prefix);
+        }
+
+        String finish(byte[] suffix) {
+            write(suffix);
+            flush();
+            try {
+                digest.digest(hash, 0, hash.length);
+            } catch (DigestException e) {
+                throw new IllegalStateException(e);
+            }
+            char[] hex = new char[hash.length * 2];
+            for (int i = 0; i < hash.length; i++) {
+                hex[i * 2] = HEX_UPPER[(hash[i] >> 4) & 0xF];
+                hex[i * 2 + 1] = HEX_UPPER[hash[i] & 0xF];
+            }
+            return new String(hex);
+        }
+
+        void write(byte[] bytes) {
+            if (pos + bytes.length > buf.length) {
+                flush();
+            }
+            if (bytes.length > buf.length) {
+                digest.update(bytes);
+                return;
+            }
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        void encode(String s) {
+            int length = s.length();
+            for (int i = 0; i < length; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    byte plain = ASCII[c];
+                    if (plain != 0) {
+                        put(plain);
+                    } else {
+                        percent(c);
+                    }
+                } else if (c < 0x800) {
+                    percent(0xC0 | (c >> 6));
+                    percent(0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    percent(0xF0 | (cp >> 18));
+                    percent(0x80 | ((cp >> 12) & 0x3F));
+                    percent(0x80 | ((cp >> 6) & 0x3F));
+                    percent(0x80 | (cp & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    percent('?');
+                } else {
+                    percent(0xE0 | (c >> 12));
+                    percent(0x80 | ((c >> 6) & 0x3F));
+                    percent(0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        private void percent(int b) {
+            if (pos + 3 > buf.length) {
+                flush();
+            }
+            buf[pos++] = '%';
+            buf[pos++] = HEX_LOWER[(b >> 4) & 0xF];
+            buf[pos++] = HEX_LOWER[b & 0xF];
+        }
+
+        private void put(byte b) {
+            if (pos == buf.length) {
+                flush();
+            }
+            buf[pos++] = b;
+        }
+
+        private void flush() {
+            digest.update(buf, 0, pos);
+            pos = 0;
+        }
+    }
+}
@@ -1,16 +1,16 @@
 package tw.luke.checkout.service;
 
-import org.apache.commons.codec.digest.DigestUtils;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.stream.Collectors;
 
 @Service
 public class ECPayService {
@@ -34,77 +34,119 @@ public class ECPayService {
     @Value("${app.domain}")
     private String domain;
 
+    // 送給綠界的欄位，已經依 key 排好 (跟原本 TreeMap 的順序相同)，簽章與表單都照這個順序
+    private static final String[] SIGNED_FIELDS = {
+        "ChoosePayment", "ClientBackURL", "EncryptType", "ItemName", "MerchantID",
+        "MerchantTradeDate", "MerchantTradeNo", "PaymentType", "ReturnURL", "TotalAmount", "TradeDesc"
+    };
+    private static final int CHOOSE_PAYMENT = 0, CLIENT_BACK_URL = 1, ENCRYPT_TYPE = 2, ITEM_NAME = 3, MERCHANT_ID = 4,
+        MERCHANT_TRADE_DATE = 5, MERCHANT_TRADE_NO = 6, PAYMENT_TYPE = 7, RETURN_URL = 8, TOTAL_AMOUNT = 9, TRADE_DESC = 10;
+
+    private static final DateTimeFormatter TRADE_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss");
+
+    // 表單的固定片段在啟動時組好，每次只要把值接上去
+    private static final String[] INPUT_PREFIXES = new String[SIGNED_FIELDS.length];
+    private static final String CHECK_MAC_INPUT_PREFIX = "<input type='hidden' name='CheckMacValue' value='";
+    private static final String INPUT_SUFFIX = "'>";
+    private static final String FORM_SUFFIX = "</form><script>document.getElementById('ecpay-form').submit();</script>";
+
+    static {
+        for (int i = 0; i < SIGNED_FIELDS.length; i++) {
+            INPUT_PREFIXES[i] = "<input type='hidden' name='" + SIGNED_FIELDS[i] + "' value='";
+        }
+    }
+
+    private ECPayCheckMac checkMac;
+    private String formPrefix;
+    private String returnUrl;
+
+    @PostConstruct
+    void init() {
+        checkMac = new ECPayCheckMac(hashKey, hashIv);
+        formPrefix = "<form id='ecpay-form' action='" + apiUrl + "' method='POST'>";
+        returnUrl = domain + "/api/checkout/ecpay-return";
+    }
+
     /**
      * 產生綠界需要的 HTML 表單
      * @param totalAmount 訂單總金額
      * @param itemName 商品名稱
      * @param tradeDesc 交易描述
      * @param choosePayment 綠界支付方式代碼 (Credit, LINEPAY, ATM, etc.)
+     * @param tradeNo 訂單編號 (MerchantTradeNo)，由 CheckoutService 產生並存在訂單上，付款通知靠它對回訂單
      * @return 綠界支付 HTML 表單字串
      */
-    public String genAioCheckOutALL(int totalAmount, String itemName, String tradeDesc, String choosePayment) {
+    public String genAioCheckOutALL(int totalAmount, String itemName, String tradeDesc, String choosePayment, String tradeNo) {
         
-        // 1. 產生不重複的訂單編號
-        String tradeNo = "Tkt" + System.currentTimeMillis(); 
-        String tradeDate = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss"));
-
-        // 2. 準備參數 (使用 TreeMap 自動依 Key 排序)
-        Map<String, String> params = new TreeMap<>();
-        params.put("MerchantID", merchantId);
-        params.put("MerchantTradeNo", tradeNo);
-        params.put("MerchantTradeDate", tradeDate);
-        params.put("PaymentType", "aio");
-        params.put("TotalAmount", String.valueOf(totalAmount));
-        params.put("TradeDesc", tradeDesc);
-        params.put("ReturnURL", domain + "/api/checkout/ecpay-return");
-        params.put("ClientBackURL", clientBackUrl);
-        params.put("ItemName", itemName);
+        // 1. 交易時間
+        String tradeDate = LocalDateTime.now().format(TRADE_DATE_FORMAT);
+
+        return buildForm(totalAmount, itemName, tradeDesc, choosePayment, tradeNo, tradeDate);
+    }
+
+    String buildForm(int totalAmount, String itemName, String tradeDesc, String choosePayment, String tradeNo, String tradeDate) {
+
+        // 2. 準備參數 (位置對應 SIGNED_FIELDS，null = 不送)
+        String[] values = new String[SIGNED_FIELDS.length];
+        values[MERCHANT_ID] = merchantId;
+        values[MERCHANT_TRADE_NO] = tradeNo;
+        values[MERCHANT_TRADE_DATE] = tradeDate;
+        values[PAYMENT_TYPE] = "aio";
+        values[TOTAL_AMOUNT] = String.valueOf(totalAmount);
+        values[TRADE_DESC] = tradeDesc;
+        values[RETURN_URL] = returnUrl;
+        values[CLIENT_BACK_URL] = clientBackUrl;
+        values[ITEM_NAME] = itemName;
         
-        // 只有當 choosePayment 非空時才將其加入 params
+        // 只有當 choosePayment 非空時才送
         if (choosePayment != null && !choosePayment.isEmpty()) {
-            params.put("ChoosePayment", choosePayment); 
+            values[CHOOSE_PAYMENT] = choosePayment; 
         }
         
-        params.put("EncryptType", "1"); // SHA256
+        values[ENCRYPT_TYPE] = "1"; // SHA256
 
         // 3. 產生檢查碼
-        String checkMacValue = generateCheckMacValue(params);
-        params.put("CheckMacValue", checkMacValue);
-
-        // 4. 產生 HTML Form
-        StringBuilder html = new StringBuilder();
-        html.append("<form id='ecpay-form' action='").append(apiUrl).append("' method='POST'>");
-        
-        for (Map.Entry<String, String> entry : params.entrySet()) {
-            html.append("<input type='hidden' name='").append(entry.getKey())
-                .append("' value='").append(entry.getValue()).append("'>");
+        String checkMacValue = checkMac.sign(SIGNED_FIELDS, values);
+
+        // 4. 產生 HTML Form (CheckMacValue 排在所有欄位前面，跟原本 TreeMap 的順序一樣)
+        int capacity = formPrefix.length() + FORM_SUFFIX.length() + CHECK_MAC_INPUT_PREFIX.length() + 64 + INPUT_SUFFIX.length();
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                capacity += INPUT_PREFIXES[i].length() + values[i].length() + INPUT_SUFFIX.length();
+            }
         }
-        
-        html.append("</form>");
-        html.append("<script>document.getElementById('ecpay-form').submit();</script>");
+        StringBuilder html = new StringBuilder(capacity);
+        html.append(formPrefix);
+        html.append(CHECK_MAC_INPUT_PREFIX).append(checkMacValue).append(INPUT_SUFFIX);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                html.append(INPUT_PREFIXES[i]).append(values[i]).append(INPUT_SUFFIX);
+            }
+        }
+        html.append(FORM_SUFFIX);
 
         return html.toString();
     }
 
-    // 綠界檢查碼演算法 (保持不變)
-    private String generateCheckMacValue(Map<String, String> params) {
-        String raw = params.entrySet().stream()
-                .map(e -> e.getKey() + "=" + e.getValue())
-                .collect(Collectors.joining("&"));
-
-        raw = "HashKey=" + hashKey + "&" + raw + "&HashIV=" + hashIv;
-
-        String urlEncoded = URLEncoder.encode(raw, StandardCharsets.UTF_8).toLowerCase();
-
-        urlEncoded = urlEncoded.replace("%2d", "-")
-                               .replace("%5f", "_")
-                               .replace("%2e", ".")
-                               .replace("%21", "!")
-                               .replace("%2a", "*")
-                               .replace("%28", "(")
-                               .replace("%29", ")")
-                               .replace("%20", "+");
+    // 綠界付款通知 (ReturnURL) 的檢查碼驗證：CheckMacValue 以外的欄位依名稱排序 (不分大小寫) 重算一次再比對
+    public boolean verifyCheckMacValue(Map<String, String> params) {
+        String received = params.get("CheckMacValue");
+        if (received == null) {
+            return false;
+        }
+        Map<String, String> sorted = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        sorted.putAll(params);
+        sorted.remove("CheckMacValue");
+        String expected = checkMac.sign(sorted);
+        // 固定時間比較，不讓回應時間透露檢查碼對了幾個字
+        return MessageDigest.isEqual(
+            expected.getBytes(StandardCharsets.US_ASCII),
+            received.toUpperCase(Locale.ROOT).getBytes(StandardCharsets.US_ASCII)
+        );
+    }
 
-        return DigestUtils.sha256Hex(urlEncoded).toUpperCase();
+    // 綠界檢查碼演算法 (規則不變，見 ECPayCheckMac)，params 要依 key 排序；package-private 讓 ECPayServiceBenchmark 可以單獨量
+    String generateCheckMacValue(Map<String, String> params) {
+        return checkMac.sign(params);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,89 @@
+package tw.luke.checkout.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// 到期排程用的 hashed timing wheel (只放 ID 與到期時間，不碰資料庫)
+// 每一格代表 tickMillis，一圈 slots 格；超過一圈的項目用 rounds 記要再轉幾圈
+// schedule() 可以從任何 thread 呼叫 (先丟進 pending)，advance() 只能由單一 thread 呼叫
+final class ExpiryTimingWheel {
+
+    private final long tickMillis;
+    private final long origin;
+    private final int mask;
+    private final ArrayDeque<Entry>[] slots;
+    private final Queue<Entry> pending = new ConcurrentLinkedQueue<>();
+
+    // 下一個要處理的格子 (只有 advance 的 thread 會改)
+    private long currentTick;
+
+    @SuppressWarnings("unchecked")
+    ExpiryTimingWheel(long tickMillis, int slotCount, long originMillis) {
+        if (Integer.bitCount(slotCount) != 1) {
+            throw new IllegalArgumentException("slotCount 必須是 2 的次方: " + slotCount);
+        }
+        this.tickMillis = tickMillis;
+        this.origin = originMillis;
+        this.mask = slotCount - 1;
+        this.slots = new ArrayDeque[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = new ArrayDeque<>();
+        }
+    }
+
+    void schedule(long id, long deadlineMillis) {
+        pending.offer(new Entry(id, deadlineMillis));
+    }
+
+    // 推進到 nowMillis，回傳所有已經到期的 ID
+    List<Long> advance(long nowMillis) {
+        List<Long> due = new ArrayList<>();
+        transferPending(nowMillis, due);
+
+        long nowTick = (nowMillis - origin) / tickMillis;
+        while (currentTick <= nowTick) {
+            Iterator<Entry> it = slots[(int) (currentTick & mask)].iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                if (entry.rounds <= 0) {
+                    it.remove();
+                    due.add(entry.id);
+                } else {
+                    entry.rounds--;
+                }
+            }
+            currentTick++;
+        }
+        return due;
+    }
+
+    private void transferPending(long nowMillis, List<Long> due) {
+        Entry entry;
+        while ((entry = pending.poll()) != null) {
+            // 排進來時就已經過期 (例如啟動時 seed 的舊資料)，不用等下一格
+            if (entry.deadline <= nowMillis) {
+                due.add(entry.id);
+                continue;
+            }
+            // 無條件進位：格子被處理時 now 一定已經 >= deadline，不會提早觸發
+            long targetTick = Math.max(Math.ceilDiv(entry.deadline - origin, tickMillis), currentTick);
+            entry.rounds = (targetTick - currentTick) / slots.length;
+            slots[(int) (targetTick & mask)].add(entry);
+        }
+    }
+
+    private static final class Entry {
+        final long id;
+        final long deadline;
+        long rounds;
+
+        Entry(long id, long deadline) {
+            this.id = id;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package tw.luke.checkout.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import tw.luke.checkout.config.ReadWriteRoutingDataSource;
+import tw.luke.checkout.repository.ReconciliationRepository;
+import tw.luke.checkout.repository.ReconciliationRepository.Counts;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+// 庫存對帳：限量票種的 總配額 (capacity) 應該 = 剩餘數量 (custom_limit + 分片) + LOCKED 預約 + CONFIRMED 預約，
+// 已付款的訂單明細 (PAID) 應該 = CONFIRMED 預約；部分失敗造成的落差平常沒人發現，等到超賣才知道
+// 1. 掃描：預約明細 / 訂單明細依主鍵切成 chunk-size 的區間，ForkJoinPool (parallelism 條 thread) 平行加總，讀副本
+//    每個區間是一個短查詢，不開長交易也不鎖列；掃描途中有人結帳會讓數字暫時對不上，所以這一步只挑出可疑的票種
+// 2. 確認：可疑的票種在主庫用 REPEATABLE READ 的唯讀交易重新算一次 (同一個快照)，還是對不上才算落差
+// 3. 修正 (fix)：只把憑空少掉的庫存用差值 UPDATE (custom_limit + ?) 補回來，扣庫存 / 回收 / 付款都維持等式，不用鎖著票種等修正完
+//    多出來的庫存不自動扣 (可能是後台補貨沒連總配額一起加，扣錯就少賣)；沒有總配額的票種 (V9 之後新增、後台還沒填的) 不拿現在的數字
+//    當基準 (落差會被當成正確的)，只回報、不用到主庫確認，要用 POST /actuator/reconciliation/{id} 填上；
+//    PAID 跟 CONFIRMED 對不上、有 PAID_LATE 的也一樣只回報，要人工處理
+// 同一時間只跑一個：定期的跟 actuator 觸發的撞在一起時，後來的直接拒絕；最後一次的結果留著給 GET 看 (不用為了看結果再掃一次)
+// 指標：checkout.reconciliation.discrepancies 最後一次對帳的落差票種數 (只缺總配額的不算)
+@Service
+public class InventoryReconciler {
+
+    // 落差的種類
+    public static final String NO_CAPACITY = "NO_CAPACITY";       // 還沒有總配額，沒辦法對
+    public static final String STOCK_DRIFT = "STOCK_DRIFT";       // 剩餘數量跟預約對不上
+    public static final String PAID_MISMATCH = "PAID_MISMATCH";   // 已付款訂單跟 CONFIRMED 預約對不上
+    public static final String PAID_LATE = "PAID_LATE";           // 付款時庫存已經還回去了 (要補票或退款)
+
+    private static final Logger log = LoggerFactory.getLogger(InventoryReconciler.class);
+
+    private static final Counts NONE = new Counts();
+
+    private final ReconciliationRepository reconciliationRepository;
+    private final int chunkSize;
+    private final int parallelism;
+    private final boolean scheduledFix;
+    private final AtomicInteger lastDiscrepancies = new AtomicInteger();
+    private final ReentrantLock running = new ReentrantLock();
+    private volatile Report lastReport;
+
+    public InventoryReconciler(ReconciliationRepository reconciliationRepository,
+                               MeterRegistry meterRegistry,
+                               @Value("${app.reconciliation.chunk-size:50000}") int chunkSize,
+                               @Value("${app.reconciliation.parallelism:4}") int parallelism,
+                               @Value("${app.reconciliation.fix:false}") boolean scheduledFix) {
+        if (chunkSize < 1 || parallelism < 1) {
+            throw new IllegalArgumentException("chunk-size 與 parallelism 至少 1: " + chunkSize + " / " + parallelism);
+        }
+        this.reconciliationRepository = reconciliationRepository;
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+        this.scheduledFix = scheduledFix;
+        Gauge.builder("checkout.reconciliation.discrepancies", lastDiscrepancies, AtomicInteger::get)
+            .description("最後一次庫存對帳確認有落差的票種數")
+            .register(meterRegistry);
+    }
+
+    // stockDrift = 剩餘數量 - (總配額 - LOCKED - CONFIRMED)：正的代表多出來的庫存 (會超賣)，負的代表庫存憑空少了 (fix 只補這種)
+    public record Discrepancy(long eventId, long ticketTypeId, Integer capacity, int remaining,
+                              long held, long sold, long paid, long paidLate, long stockDrift,
+                              List<String> issues, boolean corrected) {}
+
+    public record Report(boolean fix, int ticketTypes, int chunks, int suspects, long elapsedMillis,
+                         List<Discrepancy> discrepancies) {}
+
+    @Scheduled(cron = "${app.reconciliation.cron:-}")
+    public void scheduledRun() {
+        if (!running.tryLock()) {
+            log.warn("庫存對帳還在跑 (actuator 觸發的)，這次定期對帳略過");
+            return;
+        }
+        try {
+            Report report = run(scheduledFix);
+            log.info("庫存對帳 {} 個票種、{} 個區間，{} ms，落差 {}",
+                report.ticketTypes(), report.chunks(), report.elapsedMillis(), report.discrepancies());
+        } finally {
+            running.unlock();
+        }
+    }
+
+    // 最後一次對帳的結果 (還沒跑過是 null)
+    public Report lastReport() {
+        return lastReport;
+    }
+
+    // 已經有一個在跑就直接拒絕 (不排隊等：對帳要掃整張明細表，等完再跑一次也只是重複的結果)
+    public Report reconcile(boolean fix) {
+        if (!running.tryLock()) {
+            throw new IllegalStateException("庫存對帳正在進行中，請稍後再試");
+        }
+        try {
+            return run(fix);
+        } finally {
+            running.unlock();
+        }
+    }
+
+    private Report run(boolean fix) {
+        long start = System.nanoTime();
+
+        // 1. 掃描 (副本)：兩張明細表同時切區間加總
+        AtomicInteger chunks = new AtomicInteger();
+        Map<Long, Counts> tally;
+        try (ForkJoinPool pool = new ForkJoinPool(parallelism)) {
+            long maxReservationItemId = ReadWriteRoutingDataSource.onReplica(reconciliationRepository::maxReservationItemId);
+            long maxCheckoutOrderId = ReadWriteRoutingDataSource.onReplica(reconciliationRepository::maxCheckoutOrderId);
+            ForkJoinTask<Map<Long, Counts>> reservations =
+                pool.submit(new Tally(reconciliationRepository::tallyReservationItems, 0, maxReservationItemId, chunks));
+            ForkJoinTask<Map<Long, Counts>> orders =
+                pool.submit(new Tally(reconciliationRepository::tallyCheckoutOrders, 0, maxCheckoutOrderId, chunks));
+            tally = merge(reservations.join(), orders.join());
+        }
+        List<ReconciliationRepository.Stock> stocks = ReadWriteRoutingDataSource.onReplica(reconciliationRepository::findLimited);
+
+        // 2. 確認 (主庫、同一個快照)：掃描時對不上的票種重新算一次
+        List<Discrepancy> discrepancies = new ArrayList<>();
+        int suspects = 0;
+        for (ReconciliationRepository.Stock stock : stocks) {
+            Counts counts = tally.getOrDefault(stock.id(), NONE);
+            List<String> scanned = issues(stock, counts);
+            if (scanned.isEmpty()) {
+                continue;
+            }
+            if (scanned.equals(List.of(NO_CAPACITY))) {
+                // 沒有總配額就沒有東西要確認 (也修不了)，不用到主庫重算
+                discrepancies.add(discrepancy(new ReconciliationRepository.Snapshot(stock, counts), scanned, false));
+                continue;
+            }
+            suspects++;
+            ReconciliationRepository.Snapshot snapshot =
+                ReadWriteRoutingDataSource.onPrimary(() -> reconciliationRepository.snapshot(stock.id()));
+            if (snapshot == null) {
+                continue;
+            }
+            List<String> issues = issues(snapshot.stock(), snapshot.counts());
+            if (!issues.isEmpty()) {
+                discrepancies.add(discrepancy(snapshot, issues, fix && correct(snapshot, issues)));
+            }
+        }
+        discrepancies.sort(Comparator.comparingLong(Discrepancy::eventId).thenComparingLong(Discrepancy::ticketTypeId));
+        lastDiscrepancies.set((int) discrepancies.stream()
+            .filter(d -> d.issues().stream().anyMatch(issue -> !issue.equals(NO_CAPACITY)))
+            .count());
+
+        Report report = new Report(fix, stocks.size(), chunks.get(), suspects,
+            (System.nanoTime() - start) / 1_000_000, discrepancies);
+        lastReport = report;
+        return report;
+    }
+
+    private static List<String> issues(ReconciliationRepository.Stock stock, Counts counts) {
+        List<String> issues = new ArrayList<>();
+        if (stock.capacity() == null) {
+            issues.add(NO_CAPACITY);
+        } else if (drift(stock, counts) != 0) {
+            issues.add(STOCK_DRIFT);
+        }
+        if (counts.paid != counts.sold) {
+            issues.add(PAID_MISMATCH);
+        }
+        if (counts.paidLate > 0) {
+            issues.add(PAID_LATE);
+        }
+        return issues;
+    }
+
+    private static long drift(ReconciliationRepository.Stock stock, Counts counts) {
+        return stock.capacity() == null ? 0 : stock.remaining() - (stock.capacity() - counts.held - counts.sold);
+    }
+
+    // 只修得了憑空少掉的庫存，其他的要人工處理；全部都修好才回傳 true
+    private boolean correct(ReconciliationRepository.Snapshot snapshot, List<String> issues) {
+        ReconciliationRepository.Stock stock = snapshot.stock();
+        long drift = drift(stock, snapshot.counts());
+        boolean corrected = true;
+        for (String issue : issues) {
+            if (issue.equals(STOCK_DRIFT) && drift < 0) {
+                corrected &= reconciliationRepository.addStock(stock.id(), Math.toIntExact(-drift));
+            } else {
+                corrected = false;
+            }
+        }
+        if (corrected) {
+            log.info("庫存對帳 票種 {} 補回 {} 張", stock.id(), -drift);
+        } else {
+            log.warn("庫存對帳 票種 {} {} 需要人工處理 (stockDrift {})", stock.id(), issues, drift);
+        }
+        return corrected;
+    }
+
+    private static Discrepancy discrepancy(ReconciliationRepository.Snapshot snapshot, List<String> issues, boolean corrected) {
+        ReconciliationRepository.Stock stock = snapshot.stock();
+        Counts counts = snapshot.counts();
+        return new Discrepancy(stock.eventId(), stock.id(), stock.capacity(), stock.remaining(),
+            counts.held, counts.sold, counts.paid, counts.paidLate, drift(stock, counts), issues, corrected);
+    }
+
+    private static Map<Long, Counts> merge(Map<Long, Counts> into, Map<Long, Counts> other) {
+        if (into.size() < other.size()) {
+            return merge(other, into);
+        }
+        other.forEach((ticketTypeId, counts) -> into.merge(ticketTypeId, counts, (a, b) -> {
+            a.add(b);
+            return a;
+        }));
+        return into;
+    }
+
+    // 一張明細表主鍵在 (afterId, toId] 之間的加總
+    private interface TallyQuery {
+        void tally(long afterId, long toId, Map<Long, Counts> into);
+    }
+
+    // 區間比 chunk-size 大就對半切，兩半各自加總再合併；每個區間的查詢各自拿連線、走副本
+    private final class Tally extends RecursiveTask<Map<Long, Counts>> {
+
+        private final TallyQuery query;
+        private final long afterId;
+        private final long toId;
+        private final AtomicInteger chunks;
+
+        Tally(TallyQuery query, long afterId, long toId, AtomicInteger chunks) {
+            this.query = query;
+            this.afterId = afterId;
+            this.toId = toId;
+            this.chunks = chunks;
+        }
+
+        @Override
+        protected Map<Long, Counts> compute() {
+            if (toId - afterId <= chunkSize) {
+                Map<Long, Counts> counts = new HashMap<>();
+                if (toId > afterId) {
+                    ReadWriteRoutingDataSource.onReplica(() -> {
+                        query.tally(afterId, toId, counts);
+                        return null;
+                    });
+                    chunks.incrementAndGet();
+                }
+                return counts;
+            }
+            long mid = afterId + (toId - afterId) / 2;
+            Tally left = new Tally(query, afterId, mid, chunks);
+            left.fork();
+            Map<Long, Counts> right = new Tally(query, mid, toId, chunks).compute();
+            return merge(left.join(), right);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package tw.luke.checkout.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+// 送給金流的訂單編號 (綠界 MerchantTradeNo：英數字、最多 20 碼、同一個特店不能重複)
+// Snowflake 排法的 63 bits：毫秒時間 (從 2025-01-01 起 41 bits，約 69 年) | 節點 10 bits | 同一毫秒內的序號 12 bits
+// 轉成固定 13 碼的 36 進位再加 "Tkt" 前綴 = 16 碼；字串排序 = 產生的先後順序
+// 時間與序號放在同一個 AtomicLong 用 CAS 前進，不用鎖；同一毫秒的 4096 個用完就借下一毫秒 (不空轉等時鐘)，
+// 時鐘往回跳 (NTP 校時) 也是沿用上一次的時間繼續編，不會重複
+@Component
+public class MerchantTradeNoGenerator {
+
+    private static final Logger log = LoggerFactory.getLogger(MerchantTradeNoGenerator.class);
+
+    static final String PREFIX = "Tkt";
+    static final long EPOCH = Instant.parse("2025-01-01T00:00:00Z").toEpochMilli();
+    static final int NODE_BITS = 10;
+    static final int SEQUENCE_BITS = 12;
+    static final int MAX_NODE = (1 << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    // 63 bits 的 36 進位最多 13 碼
+    private static final int DIGITS = 13;
+
+    private final long node;
+    private final LongSupplier clock;
+    // (距離 EPOCH 的毫秒 << SEQUENCE_BITS) | 序號：最後發出去的那一個
+    private final AtomicLong last = new AtomicLong();
+
+    // 多台機器要各自設定不同的 node-id (0 ~ 1023)；沒設定就用主機名稱推算 (機器多的時候可能撞，正式環境請明確設定)
+    @Autowired
+    public MerchantTradeNoGenerator(@Value("${app.merchant-trade-no.node-id:-1}") int nodeId) {
+        this(nodeId < 0 ? nodeFromHostname() : nodeId, System::currentTimeMillis);
+    }
+
+    MerchantTradeNoGenerator(int nodeId, LongSupplier clock) {
+        if (nodeId < 0 || nodeId > MAX_NODE) {
+            throw new IllegalArgumentException("node-id 必須在 0 ~ " + MAX_NODE + ": " + nodeId);
+        }
+        this.node = nodeId;
+        this.clock = clock;
+    }
+
+    public String next() {
+        return format(nextId());
+    }
+
+    long nextId() {
+        while (true) {
+            long previous = last.get();
+            long previousMillis = previous >>> SEQUENCE_BITS;
+            long now = clock.getAsLong() - EPOCH;
+            long next;
+            if (now > previousMillis) {
+                next = now << SEQUENCE_BITS;
+            } else if ((previous & SEQUENCE_MASK) < SEQUENCE_MASK) {
+                // 同一毫秒 (或時鐘往回跳)：序號加一
+                next = previous + 1;
+            } else {
+                // 這一毫秒的序號用完了，借下一毫秒
+                next = (previousMillis + 1) << SEQUENCE_BITS;
+            }
+            if (last.compareAndSet(previous, next)) {
+                long millis = next >>> SEQUENCE_BITS;
+                return (millis << (NODE_BITS + SEQUENCE_BITS)) | (node << SEQUENCE_BITS) | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    static String format(long id) {
+        String digits = Long.toString(id, 36);
+        return PREFIX + "0".repeat(DIGITS - digits.length()) + digits;
+    }
+
+    private static int nodeFromHostname() {
+        try {
+            int node = InetAddress.getLocalHost().getHostName().hashCode() & MAX_NODE;
+            // 多台機器的主機名稱 hash 撞在一起會產生重複的編號，正式環境要明確設定
+            log.warn("沒有設定 app.merchant-trade-no.node-id，依主機名稱使用 {}", node);
+            return node;
+        } catch (UnknownHostException e) {
+            throw new RuntimeException("無法取得主機名稱，請設定 app.merchant-trade-no.node-id", e);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package tw.luke.checkout.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import tw.luke.checkout.repository.ReservationRepository;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// 預約鎖定到期回收：沒付款的結帳 15 分鐘後 (ATM 轉帳是繳費期限過後) 把鎖住的庫存還回去
+// 到期時間放在記憶體的 timing wheel，每個 tick 只處理真的到期的那幾筆，不用一直輪詢資料庫
+// - 本機建立的預約在結帳時直接排進來
+// - 其他機器建立的、或重啟前留下來的，靠定期的範圍查詢 (status, expires_at) 補進來，啟動時的第一次查詢就是 seed
+// 真正的認領與還庫存在 ReservationRepository，多台機器同時跑只會有一台還成功
+@Service
+@ConditionalOnProperty(prefix = "app.reservation-expiry", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class ReservationExpiryService {
+
+    private static final Logger log = LoggerFactory.getLogger(ReservationExpiryService.class);
+
+    private static final int WHEEL_SLOTS = 512;
+    // 保留比這個久的 (ATM 轉帳，好幾天) 不放進 wheel，到期前 lookahead 內由 scan 補進來，不用在記憶體放好幾天
+    private static final Duration WHEEL_MAX_HOLD = Duration.ofHours(1);
+
+    private final ReservationRepository reservationRepository;
+    private final Duration lookahead;
+    private final int batchSize;
+    private final int scanLimit;
+
+    private final ExpiryTimingWheel wheel;
+    // 已經排進 wheel 的 ID，定期查詢時不要重複排
+    private final Set<Long> scheduled = ConcurrentHashMap.newKeySet();
+
+    public ReservationExpiryService(ReservationRepository reservationRepository,
+                                    @Value("${app.reservation-expiry.tick:1s}") Duration tick,
+                                    @Value("${app.reservation-expiry.lookahead:2m}") Duration lookahead,
+                                    @Value("${app.reservation-expiry.batch-size:200}") int batchSize,
+                                    @Value("${app.reservation-expiry.scan-limit:5000}") int scanLimit) {
+        this.reservationRepository = reservationRepository;
+        this.lookahead = lookahead;
+        this.batchSize = batchSize;
+        this.scanLimit = scanLimit;
+        this.wheel = new ExpiryTimingWheel(tick.toMillis(), WHEEL_SLOTS, System.currentTimeMillis());
+    }
+
+    // 結帳剛建立的預約 (交易還沒 commit 也沒關係，rollback 掉的到時候認領不到就略過)
+    public void scheduleNew(long reservationId, Duration hold) {
+        if (hold.compareTo(WHEEL_MAX_HOLD) <= 0) {
+            schedule(reservationId, System.currentTimeMillis() + hold.toMillis());
+        }
+    }
+
+    private void schedule(long reservationId, long deadlineMillis) {
+        if (scheduled.add(reservationId)) {
+            wheel.schedule(reservationId, deadlineMillis);
+        }
+    }
+
+    // 從資料庫補進 lookahead 內會到期的預約 (啟動時立刻跑一次)
+    @Scheduled(fixedDelayString = "${app.reservation-expiry.scan-interval:30s}")
+    public void scan() {
+        long now = System.currentTimeMillis();
+        for (ReservationRepository.Due due : reservationRepository.findLockedDueWithin(lookahead, scanLimit)) {
+            // TIMESTAMPDIFF 會無條件捨去，多等一秒確保到的時候資料庫那邊也已經過期
+            schedule(due.reservationId(), now + (Math.max(0, due.secondsLeft()) + 1) * 1000);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.reservation-expiry.tick:1s}")
+    public void tick() {
+        List<Long> due = wheel.advance(System.currentTimeMillis());
+        if (due.isEmpty()) {
+            return;
+        }
+        // 不管認領成功與否都從 scheduled 移除：還是 LOCKED 的 (例如時鐘差一點點) 下次 scan 會再排進來
+        scheduled.removeAll(due);
+
+        int released = 0;
+        for (int from = 0; from < due.size(); from += batchSize) {
+            List<Long> batch = new ArrayList<>(due.subList(from, Math.min(from + batchSize, due.size())));
+            try {
+                released += reservationRepository.expireAndRelease(batch).size();
+            } catch (RuntimeException e) {
+                // 這一批 rollback，預約還是 LOCKED，下次 scan 會再撿回來
+                log.warn("預約到期回收失敗 {} 筆", batch.size(), e);
+            }
+        }
+        if (released > 0) {
+            log.info("預約到期回收 {} 筆，庫存已還回", released);
+        }
+    }
+
+    public int getScheduled() {
+        return scheduled.size();
+    }
+}
@@ -0,0 +1,70 @@
+package tw.luke.checkout.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import tw.luke.checkout.repository.StockShardRepository;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// 分片庫存的定期整理 (StockShardRepository.rebalance)
+// 結帳隨機扣分片，賣到後面會有分片先見底，扣到它的結帳就要走比較慢的湊數路線
+// 分片之間差太多，或剩下的量已經不夠每個分片 min-per-shard 張時，重新平均分配 (順便減少分片數)
+@Service
+public class StockShardRebalancer {
+
+    private static final Logger log = LoggerFactory.getLogger(StockShardRebalancer.class);
+
+    private final StockShardRepository stockShardRepository;
+    private final int minPerShard;
+
+    public StockShardRebalancer(StockShardRepository stockShardRepository,
+                                @Value("${app.stock-shards.min-per-shard:20}") int minPerShard) {
+        this.stockShardRepository = stockShardRepository;
+        this.minPerShard = minPerShard;
+    }
+
+    // 回傳有整理的票種 ID -> 新的分片數
+    @Scheduled(fixedDelayString = "${app.stock-shards.rebalance-interval:5s}")
+    public Map<Long, Integer> rebalanceAll() {
+        Map<Long, Integer> rebalanced = new LinkedHashMap<>();
+        for (Long ticketTypeId : stockShardRepository.findSharded()) {
+            try {
+                if (needsRebalance(stockShardRepository.shards(ticketTypeId))) {
+                    rebalanced.put(ticketTypeId, stockShardRepository.rebalance(ticketTypeId, minPerShard));
+                }
+            } catch (RuntimeException e) {
+                // 跟結帳搶鎖失敗 (deadlock / lock timeout) 就等下一輪
+                log.warn("庫存分片整理失敗 票種 {}: {}", ticketTypeId, e.getMessage());
+            }
+        }
+        if (!rebalanced.isEmpty()) {
+            log.info("庫存分片重新分配 {}", rebalanced);
+        }
+        return rebalanced;
+    }
+
+    boolean needsRebalance(List<StockShardRepository.Shard> shards) {
+        if (shards.size() <= 1) {
+            return false;
+        }
+        int total = 0;
+        int max = Integer.MIN_VALUE;
+        int min = Integer.MAX_VALUE;
+        for (StockShardRepository.Shard shard : shards) {
+            total += shard.remaining();
+            max = Math.max(max, shard.remaining());
+            min = Math.min(min, shard.remaining());
+        }
+        // 剩下的量撐不起這麼多分片
+        if (total / Math.max(1, minPerShard) < shards.size()) {
+            return true;
+        }
+        // 最多與最少的分片差超過平均的一半
+        return max - min > Math.max(1, total / shards.size() / 2);
+    }
+}
@@ -1,22 +1,44 @@
 package tw.luke.checkout.service.strategy;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import tw.luke.checkout.dto.CheckoutForm;
 
+import java.time.Duration;
+
 @Component("ATM") // 對應前端 value="ATM"
 public class AtmPaymentStrategy implements PaymentStrategy {
 
+    private static final Logger log = LoggerFactory.getLogger(AtmPaymentStrategy.class);
+
+    // 轉帳要等使用者去 ATM，預約保留到繳費期限 (入帳通知回來時用 MerchantTradeNo 確認預約、訂單改 PAID)
+    @Value("${app.reservation-expiry.atm-hold:72h}")
+    private Duration hold;
+
     @Override
-    public String pay(CheckoutForm form) {
-        // 1. 驗證後五碼
+    public void validate(CheckoutForm form) {
+        // 驗證後五碼
         String last5 = form.atmLast5();
         if (last5 == null || !last5.matches("\\d{5}")) {
             throw new RuntimeException("ATM 帳號後五碼錯誤");
         }
+    }
+
+    @Override
+    public String pay(CheckoutForm form, int totalAmount, String merchantTradeNo) {
+        // 1. 驗證後五碼
+        validate(form);
         
-        System.out.println("執行 ATM 邏輯：檢查通過，等待轉帳...");
+        log.debug("執行 ATM 邏輯：檢查通過，等待轉帳 MerchantTradeNo={}", merchantTradeNo);
         
         // 2. 回傳給 Service 的結果
         return "ATM_ORDER_CREATED";
     }
-}
\ No newline at end of file
+
+    @Override
+    public Duration hold() {
+        return hold;
+    }
+}
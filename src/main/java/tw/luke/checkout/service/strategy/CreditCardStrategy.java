@@ -1,32 +1,31 @@
 package tw.luke.checkout.service.strategy;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import tw.luke.checkout.dto.CheckoutForm;
-import tw.luke.checkout.repository.OrderRepository;
 import tw.luke.checkout.service.ECPayService;
 
 @Component("CARD")
 public class CreditCardStrategy implements PaymentStrategy {
 
-    @Autowired
-    private ECPayService ecPayService;
+    private static final Logger log = LoggerFactory.getLogger(CreditCardStrategy.class);
 
     @Autowired
-    private OrderRepository orderRepository;
+    private ECPayService ecPayService;
 
     @Override
-    public String pay(CheckoutForm form) {
-        System.out.println("執行 信用卡/綠界 邏輯：準備產生 HTML 表單...");
-
-        int totalAmount = orderRepository.calculateTotal(1L);
+    public String pay(CheckoutForm form, int totalAmount, String merchantTradeNo) {
+        log.debug("執行 信用卡/綠界 邏輯：準備產生 HTML 表單 MerchantTradeNo={}", merchantTradeNo);
 
         //
         String htmlForm = ecPayService.genAioCheckOutALL(
             totalAmount, 
             "OpenTicket 票券訂單", 
             "票券交易",
-            "Credit" 
+            "Credit",
+            merchantTradeNo
         );
 
         return htmlForm;
@@ -2,8 +2,33 @@ package tw.luke.checkout.service.strategy;
 
 import tw.luke.checkout.dto.CheckoutForm;
 
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
 public interface PaymentStrategy {
+
+    // 預約鎖定預設保留多久 (過期由 ReservationExpiryService 回收庫存)；ATM 轉帳的保留比較久 (AtmPaymentStrategy.hold)
+    Duration DEFAULT_HOLD = Duration.ofMinutes(15);
+
     // 定義共同行為：每個策略都要能「付錢」
     // 回傳 String 是為了之後可能要回傳綠界的 HTML form
-    String pay(CheckoutForm form);
-}
\ No newline at end of file
+    // totalAmount 由 CheckoutService 從購物車快照算好傳進來，策略不用再自己查資料庫
+    // merchantTradeNo 是這筆訂單送給金流的編號 (也存在 otp.orders)，付款通知回來時靠它找到訂單
+    String pay(CheckoutForm form, int totalAmount, String merchantTradeNo);
+
+    // 非同步版本：CheckoutService 在扣庫存的交易進行中就開始準備付款 (產生綠界表單...)，交易 commit 之後才等結果
+    // 付款準備再慢也不會拉長 row lock 的時間；預設丟到 executor 執行 pay，真的要呼叫外部 API 的策略可以自己覆寫
+    default CompletableFuture<String> payAsync(CheckoutForm form, int totalAmount, String merchantTradeNo, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> pay(form, totalAmount, merchantTradeNo), executor);
+    }
+
+    // 只看表單的檢查 (不碰資料庫)，在扣庫存之前執行；格式錯的不用先扣庫存再還回去
+    default void validate(CheckoutForm form) {
+    }
+
+    // 預約鎖定要保留多久 (付款確認前不能回收庫存)；線上付款 15 分鐘，要等使用者去轉帳的付款方式自己覆寫
+    default Duration hold() {
+        return DEFAULT_HOLD;
+    }
+}
@@ -0,0 +1,3 @@
+-- 結帳防重送：佔用 key 時一併記下這次結帳的訂單編號 (送給金流的 MerchantTradeNo)
+-- 訂單 commit 之後、結果存下來之前當機的話，重試時靠它找回訂單重建結果，key 不會卡到保留期限結束
+ALTER TABLE otp.checkout_idempotency ADD COLUMN merchant_trade_no VARCHAR(20) NULL;
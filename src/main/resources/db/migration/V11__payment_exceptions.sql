@@ -0,0 +1,14 @@
+-- 對不上的付款通知 (ECPayCallbackProcessor)：金額不符 (AMOUNT_MISMATCH)、找不到訂單 (UNKNOWN_ORDER)
+-- 這些通知一樣回 1|OK (重送也不會變)，綠界不會再送，錢卻已經收了；留一筆紀錄給人工對帳 / 退款
+CREATE TABLE otp.payment_exceptions (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    merchant_trade_no VARCHAR(64) NOT NULL,
+    gateway_trade_no VARCHAR(20),
+    reason VARCHAR(20) NOT NULL,
+    trade_amt INT NOT NULL,
+    order_id BIGINT NULL,
+    order_amount INT NULL,
+    received_at DATETIME NOT NULL
+);
+
+CREATE INDEX idx_payment_exceptions_received ON otp.payment_exceptions (received_at);
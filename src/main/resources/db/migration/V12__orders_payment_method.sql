@@ -0,0 +1,4 @@
+-- 訂單記下結帳時選的付款方式 (PaymentStrategy 的名稱：ATM / CARD / LINEPAY)
+-- 結果沒存下來的 idempotency key 重建結果時照訂單的付款方式重新準備付款，不看重試表單帶的
+-- 之前的訂單是 NULL (重建時才退回用表單的付款方式)
+ALTER TABLE otp.orders ADD COLUMN payment_method VARCHAR(20) NULL;
@@ -0,0 +1,82 @@
+-- otp schema 中本服務會碰到的表 (只有本服務用到的欄位)，等於導入 Flyway 之前正式庫的 schema
+-- 正式庫這些表已經存在：spring.flyway.baseline-version = 1，第一次啟動只記錄 baseline，不會執行這個檔案，從 V2 開始套用
+-- 新的空資料庫 (本機開發、H2 測試) 從這裡開始建
+-- 語法要 MySQL 與 H2 (MySQL 相容模式) 都能執行：索引一律用獨立的 CREATE INDEX
+
+CREATE TABLE otp.user (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    account VARCHAR(255),
+    email VARCHAR(255)
+);
+
+CREATE TABLE otp.event (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    title VARCHAR(255) NOT NULL
+);
+
+CREATE TABLE otp.ticket_type (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    name VARCHAR(100) NOT NULL,
+    price DECIMAL(10, 2) NOT NULL
+);
+
+CREATE TABLE otp.event_ticket_type (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    event_id BIGINT NOT NULL,
+    ticket_template_id BIGINT NOT NULL,
+    custom_price DECIMAL(10, 2),
+    is_limited TINYINT NOT NULL DEFAULT 0,
+    custom_limit INT
+);
+
+CREATE TABLE otp.cart_items (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    user_id BIGINT NOT NULL,
+    event_ticket_type_id BIGINT NOT NULL,
+    quantity INT NOT NULL
+);
+
+CREATE TABLE otp.reservations (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    user_id BIGINT NOT NULL,
+    event_id BIGINT NOT NULL,
+    quantity INT NOT NULL,
+    ticket_type_id BIGINT NOT NULL,
+    totalAmount INT NOT NULL,
+    scheduleId INT NOT NULL,
+    userId INT NOT NULL,
+    created_at DATETIME NOT NULL,
+    expires_at DATETIME NOT NULL,
+    status VARCHAR(20) NOT NULL
+);
+
+CREATE TABLE otp.reservation_items (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    reservationId BIGINT NOT NULL,
+    ticketTypeId BIGINT NOT NULL,
+    quantity INT NOT NULL,
+    unitPrice INT NOT NULL
+);
+
+CREATE TABLE otp.orders (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    user_id BIGINT NOT NULL,
+    event_id BIGINT,
+    total_amount INT NOT NULL,
+    status VARCHAR(20) NOT NULL,
+    invoice_type VARCHAR(20),
+    invoice_carrier_type VARCHAR(20),
+    invoice_carrier_code VARCHAR(64),
+    invoice_tax_id VARCHAR(8),
+    invoice_donation_code VARCHAR(20),
+    invoice_value VARCHAR(255)
+);
+
+CREATE TABLE otp.checkout_orders (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    order_id BIGINT NOT NULL,
+    event_ticket_type_id BIGINT NOT NULL,
+    price_at_purchase DECIMAL(10, 2) NOT NULL,
+    quantity INT NOT NULL,
+    event_id BIGINT
+);
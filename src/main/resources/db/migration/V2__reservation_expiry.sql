@@ -0,0 +1,11 @@
+-- 預約到期回收 (ReservationExpiryService) 需要的欄位與索引
+
+-- 找到期的 LOCKED 預約：範圍掃描 (status, expires_at)，不整張表掃
+CREATE INDEX idx_reservations_status_expires ON otp.reservations (status, expires_at);
+
+-- 回收時依預約 ID 彙總明細數量
+CREATE INDEX idx_reservation_items_reservation ON otp.reservation_items (reservationId);
+
+-- 訂單記錄是哪一筆預約，預約過期時一併把還沒付款的訂單失效
+ALTER TABLE otp.orders ADD COLUMN reservation_id BIGINT NULL;
+CREATE INDEX idx_orders_reservation ON otp.orders (reservation_id);
@@ -0,0 +1,10 @@
+-- 結帳防重送 (CheckoutIdempotencyService)：每個使用者的 idempotency key 只能成立一筆訂單
+CREATE TABLE otp.checkout_idempotency (
+    user_id BIGINT NOT NULL,
+    idempotency_key VARCHAR(64) NOT NULL,
+    response MEDIUMTEXT NULL,
+    created_at DATETIME NOT NULL,
+    PRIMARY KEY (user_id, idempotency_key)
+);
+
+CREATE INDEX idx_checkout_idempotency_created ON otp.checkout_idempotency (created_at);
@@ -0,0 +1,7 @@
+-- 綠界付款通知入帳 (ECPayCallbackProcessor)：訂單記錄送給金流的編號、綠界交易編號與付款時間
+ALTER TABLE otp.orders ADD COLUMN merchant_trade_no VARCHAR(20) NULL;
+ALTER TABLE otp.orders ADD COLUMN gateway_trade_no VARCHAR(20) NULL;
+ALTER TABLE otp.orders ADD COLUMN paid_at DATETIME NULL;
+
+-- 付款通知靠送給金流的編號找回訂單
+CREATE UNIQUE INDEX uk_orders_merchant_trade_no ON otp.orders (merchant_trade_no);
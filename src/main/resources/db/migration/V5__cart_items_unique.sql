@@ -0,0 +1,37 @@
+-- 購物車寫回改用 INSERT ... ON DUPLICATE KEY UPDATE (CartRepository)：每個使用者每個票種只能有一列
+-- 舊資料同一票種可能有多列，先合併到 id 最小的那列再加唯一索引
+-- MySQL 不能在 UPDATE / DELETE 的子查詢直接讀同一張表，所以包一層有 GROUP BY 的 derived table (會先實體化)
+
+UPDATE otp.cart_items ci
+SET quantity = (
+    SELECT dup.total
+    FROM (
+        SELECT user_id, event_ticket_type_id, SUM(quantity) AS total
+        FROM otp.cart_items
+        GROUP BY user_id, event_ticket_type_id
+        HAVING COUNT(*) > 1
+    ) dup
+    WHERE dup.user_id = ci.user_id AND dup.event_ticket_type_id = ci.event_ticket_type_id
+)
+WHERE ci.id IN (
+    SELECT keep.keep_id
+    FROM (
+        SELECT MIN(id) AS keep_id
+        FROM otp.cart_items
+        GROUP BY user_id, event_ticket_type_id
+        HAVING COUNT(*) > 1
+    ) keep
+);
+
+DELETE FROM otp.cart_items
+WHERE id NOT IN (
+    SELECT keep.keep_id
+    FROM (
+        SELECT MIN(id) AS keep_id
+        FROM otp.cart_items
+        GROUP BY user_id, event_ticket_type_id
+    ) keep
+);
+
+-- 讀購物車 / 清空購物車依 user_id 走這個索引的前綴
+CREATE UNIQUE INDEX uk_cart_items_user_ticket ON otp.cart_items (user_id, event_ticket_type_id);
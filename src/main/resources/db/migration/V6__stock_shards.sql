@@ -0,0 +1,10 @@
+-- 熱門票種的分片庫存 (StockShardRepository)：custom_limit 拆到多列計數，結帳隨機扣其中一列，不再全部排隊等同一個 row lock
+-- stock_shards = 0 是原本的模式 (只用 custom_limit)；> 0 時剩餘數量 = custom_limit + 所有分片的 remaining
+ALTER TABLE otp.event_ticket_type ADD COLUMN stock_shards INT NOT NULL DEFAULT 0;
+
+CREATE TABLE otp.ticket_stock_shards (
+    event_ticket_type_id BIGINT NOT NULL,
+    shard_no INT NOT NULL,
+    remaining INT NOT NULL,
+    PRIMARY KEY (event_ticket_type_id, shard_no)
+);
@@ -0,0 +1,5 @@
+-- 訂單明細 (checkout_orders) 依訂單 ID 查 / 與 orders JOIN：沒有這個索引每次都整張表掃
+-- 熱門路徑的另外兩個複合索引在之前的版本已經有了：
+--   cart_items (user_id, event_ticket_type_id)  → uk_cart_items_user_ticket (V5)
+--   reservations (status, expires_at)            → idx_reservations_status_expires (V2)
+CREATE INDEX idx_checkout_orders_order ON otp.checkout_orders (order_id);
@@ -0,0 +1,2 @@
+-- 活動的票種與剩餘數量 (AvailabilityRepository 的快照) 依 event_id 查：沒有這個索引每次刷新都整張表掃
+CREATE INDEX idx_event_ticket_type_event ON otp.event_ticket_type (event_id);
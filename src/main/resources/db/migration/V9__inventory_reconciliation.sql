@@ -0,0 +1,22 @@
+-- 庫存對帳 (InventoryReconciler)：限量票種的總配額
+-- 正常情況下 總配額 = 剩餘數量 (custom_limit + 分片) + LOCKED 預約的張數 + CONFIRMED 預約的張數，扣庫存 / 回收 / 付款都維持這個等式
+ALTER TABLE otp.event_ticket_type ADD COLUMN capacity INT NULL;
+
+-- 既有的限量票種以套用這個版本當下的數字當基準 (在這之前已經有的落差會算進基準裡，對帳從這裡開始抓)
+-- 之後新增的票種由後台填上，補貨 / 調整總配額走 POST /actuator/reconciliation/{id} (剩餘數量與總配額一起加)
+UPDATE otp.event_ticket_type ett
+SET capacity = ett.custom_limit
+    + COALESCE((
+        SELECT SUM(s.remaining) FROM otp.ticket_stock_shards s WHERE s.event_ticket_type_id = ett.id
+    ), 0)
+    + COALESCE((
+        SELECT SUM(ri.quantity)
+        FROM otp.reservation_items ri
+        JOIN otp.reservations r ON r.id = ri.reservationId
+        WHERE ri.ticketTypeId = ett.id AND r.status IN ('LOCKED', 'CONFIRMED')
+    ), 0)
+WHERE ett.is_limited = 1;
+
+-- 對帳時重新確認單一票種 (依票種加總預約明細 / 訂單明細)
+CREATE INDEX idx_reservation_items_ticket_type ON otp.reservation_items (ticketTypeId);
+CREATE INDEX idx_checkout_orders_ticket_type ON otp.checkout_orders (event_ticket_type_id);
@@ -43,7 +43,7 @@ function renderCheckout(checkoutData) {
 }
 
 // 初始化
-fetch("/api/checkout/summary?t=" + new Date().getTime())
+fetch("/api/checkout/summary")
 .then(res => {
   if (!res.ok) throw new Error("HTTP " + res.status);
   return res.json();
@@ -114,7 +114,8 @@ document.getElementById("payBtn").onclick = () => {
     invoiceType: invoiceEl ? invoiceEl.value : "",
     invoiceValue: invVal,
     customerEmail: document.getElementById('cust-email').textContent.replace("Email: ", "").trim(),
-    invOption: invOptionValue
+    invOption: invOptionValue,
+    idempotencyKey: checkoutIdempotencyKey
   };
   
   // 3. 送出請求
@@ -130,6 +131,7 @@ document.getElementById("payBtn").onclick = () => {
     }
     return res.json();
   })
+  .then(data => waitForQueue(data, btn))
   .then(data => {
     console.log("Success:", data);
 
@@ -173,6 +175,29 @@ document.getElementById("payBtn").onclick = () => {
   });
 };
 
+// 進結帳頁產生一次，連點 / 網路重試都帶同一個，後端只會結帳一次
+const checkoutIdempotencyKey = (window.crypto && crypto.randomUUID)
+  ? crypto.randomUUID()
+  : Date.now().toString(36) + "-" + Math.random().toString(36).slice(2);
+
+// 結帳排隊：submit 回傳 queued 時，每秒問一次結果，直到輪到自己並處理完成
+async function waitForQueue(data, btn) {
+  while (data.status === "queued" || data.status === "processing") {
+    btn.textContent = data.status === "queued"
+      ? `排隊中，前面還有 ${data.position - 1} 人...`
+      : "Processing...";
+    await new Promise(resolve => setTimeout(resolve, 1000));
+    
+    const res = await fetch("/api/checkout/submit/" + data.ticketId);
+    if (!res.ok) throw new Error("HTTP " + res.status);
+    data = await res.json();
+  }
+  if (data.status === "error") {
+    throw new Error(data.message || "結帳失敗");
+  }
+  return data;
+}
+
 // 驗證邏輯
 const payBtn = document.getElementById("payBtn");
 const agree = document.getElementById("agree");
@@ -55,6 +55,9 @@ document.addEventListener("DOMContentLoaded", function() {
     // 2. 全域設定：輸入框限制
     setupInputConstraints();
     
+    // 3. 即時庫存：賣完的票種變灰
+    subscribeAvailability();
+    
     // 注意：不在這裡呼叫 fetchAndRestoreCart() 了
     // 改由下面的 pageshow 統一處理，避免重複執行
     const checkoutBtn = document.getElementById('cart-btn');
@@ -105,8 +108,8 @@ function fetchAndRestoreCart() {
     });
     
     // 第二步：呼叫後端 API
-    // 加上時間戳記 ?t=... 防止瀏覽器快取 API 結果
-    fetch("/api/checkout/my-cart-simple?t=" + new Date().getTime())
+    // 瀏覽器會帶 If-None-Match 回去問，購物車沒變時後端回 304 直接用快取
+    fetch("/api/checkout/my-cart-simple")
     .then(res => res.json())
     .then(cartItems => {
         // cartItems 長這樣: [{ ticket_type_id: 1, quantity: 2 }, ...]
@@ -141,6 +144,8 @@ function setupAddCartButtons() {
             syncCartLogic(this).then(() => {
                 this.textContent = "Updated!";
                 setTimeout(() => {
+                    // 這段時間內整張卡片賣完了就維持 Sold Out
+                    if (this.classList.contains('sold-out')) return;
                     this.textContent = originalText;
                     this.disabled = false;
                 }, 1000);
@@ -149,6 +154,54 @@ function setupAddCartButtons() {
     });
 }
 
+// 即時庫存 (SSE)：後端一連上先送全部限量票種的剩餘數量，之後只送有變的
+// 資料長這樣: { "1": 120, "2": 0 }，-1 代表不再限量
+// 斷線時 EventSource 會自己重連，重連後又會收到完整的一份
+function subscribeAvailability() {
+    loadEventAvailability();
+    if (!window.EventSource) return;
+    const source = new EventSource("/api/checkout/availability");
+    source.addEventListener('availability', function(e) {
+        const remaining = JSON.parse(e.data);
+        Object.entries(remaining).forEach(([id, qty]) => updateAvailability(parseInt(id), qty));
+    });
+}
+
+// 頁面載入時先拿每個活動的剩餘數量 (後端的快照，不會每次都查資料庫)
+// 回傳長這樣: [{ id: 1, limited: true, remaining: 0 }, ...]
+function loadEventAvailability() {
+    document.querySelectorAll('.product-card[data-event-id]').forEach(card => {
+        fetch(`/api/checkout/events/${card.dataset.eventId}/availability`)
+        .then(res => res.ok ? res.json() : [])
+        .then(tickets => tickets.forEach(t => updateAvailability(t.id, t.limited ? t.remaining : -1)))
+        .catch(err => console.error("無法取得剩餘數量:", err));
+    });
+}
+
+// 賣完的票種：輸入框鎖住、整列變灰；整張卡片都賣完時按鈕也變灰
+function updateAvailability(ticketTypeId, remaining) {
+    const input = document.querySelector(`.qty-input[data-id="${ticketTypeId}"]`);
+    if (!input) return;
+    
+    const soldOut = remaining === 0;
+    input.disabled = soldOut;
+    input.closest('.ticket-row').classList.toggle('sold-out', soldOut);
+    
+    const card = input.closest('.product-card');
+    const btn = card.querySelector('.btn-add-cart');
+    const allSoldOut = Array.from(card.querySelectorAll('.qty-input')).every(el => el.disabled);
+    if (allSoldOut && !btn.classList.contains('sold-out')) {
+        btn.dataset.originalText = btn.textContent;
+        btn.textContent = "Sold Out";
+        btn.disabled = true;
+        btn.classList.add('sold-out');
+    } else if (!allSoldOut && btn.classList.contains('sold-out')) {
+        btn.textContent = btn.dataset.originalText;
+        btn.disabled = false;
+        btn.classList.remove('sold-out');
+    }
+}
+
 // 同步購物車 (Sync) 
 async function syncCartLogic(btn) {
     const card = btn.closest('.product-card');
@@ -165,15 +218,15 @@ async function syncCartLogic(btn) {
     });
     
     try {
-        const promises = itemsToSync.map(item => {
-            return fetch("/api/checkout/add", {
-                method: "POST",
-                headers: { "Content-Type": "application/json" },
-                body: JSON.stringify(item)
-            });
+        // 整張卡片的票種一次送出 (後端一起檢查限購與庫存)
+        const res = await fetch("/api/checkout/add-bulk", {
+            method: "POST",
+            headers: { "Content-Type": "application/json" },
+            body: JSON.stringify(itemsToSync)
         });
-        
-        await Promise.all(promises);
+        if (!res.ok) {
+            showToast("無法更新購物車 (限購或庫存不足)", "error");
+        }
         updateCartButton(); // 更新右上角
         
     } catch (error) {
@@ -184,8 +237,8 @@ async function syncCartLogic(btn) {
 
 // 更新右上角按鈕
 function updateCartButton() {
-    // 同樣加上時間戳記防止快取
-    fetch("/api/checkout/summary?t=" + new Date().getTime())
+    // 同樣靠 ETag，購物車沒變時回 304
+    fetch("/api/checkout/summary")
     .then(res => res.ok ? res.json() : null)
     .then(data => {
         if (!data) return;
@@ -248,7 +301,7 @@ function openCartModal() {
     modalBody.innerHTML = '<p style="text-align:center;">載入中...</p>'; 
     document.getElementById('cart-modal').style.display = 'flex';
     
-    fetch("/api/checkout/summary?t=" + new Date().getTime())
+    fetch("/api/checkout/summary")
     .then(res => res.json())
     .then(data => {
         const list = data.order || [];
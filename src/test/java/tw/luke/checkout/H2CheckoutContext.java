@@ -0,0 +1,52 @@
+package tw.luke.checkout;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+// Benchmark 共用：在 JMH fork 裡起一個接 H2 (application-h2.yml) 的 Spring Context
+// 不起 web server，排隊區與預約回收的背景工作也關掉，量到的只有結帳本身
+@State(Scope.Benchmark)
+public class H2CheckoutContext {
+
+    public static final long EVENT_TICKET_TYPE_ID = 1L;
+
+    private ConfigurableApplicationContext context;
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = new SpringApplicationBuilder(CheckoutBackendApplication.class)
+            .web(WebApplicationType.NONE)
+            .profiles("h2")
+            .properties(
+                "spring.devtools.restart.enabled=false",
+                "app.checkout-queue.enabled=false",
+                "app.reservation-expiry.enabled=false",
+                "logging.level.root=WARN"
+            )
+            .run();
+
+        JdbcTemplate jdbcTemplate = bean(JdbcTemplate.class);
+        jdbcTemplate.update("INSERT INTO otp.user (id, account, email) VALUES (1, 'bench', 'bench@example.com')");
+        jdbcTemplate.update("INSERT INTO otp.event (id, title) VALUES (1, 'MLB 東京開幕戰')");
+        jdbcTemplate.update("INSERT INTO otp.ticket_type (id, name, price) VALUES (1, '一般票', 1000)");
+        jdbcTemplate.update("INSERT INTO otp.ticket_type (id, name, price) VALUES (2, '身障票', 500)");
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit) VALUES (1, 1, 1, 1, 1000000000)");
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit) VALUES (2, 1, 2, 0, NULL)");
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    public <T> T bean(Class<T> type) {
+        return context.getBean(type);
+    }
+}
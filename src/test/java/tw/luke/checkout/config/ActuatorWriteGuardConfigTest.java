@@ -0,0 +1,84 @@
+package tw.luke.checkout.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// /actuator 的寫入操作沒帶 (或帶錯) X-Admin-Token 回 403，讀取不用
+@SpringBootTest(properties = {
+    "app.checkout-queue.enabled=false",
+    "app.reservation-expiry.enabled=false",
+    "app.actuator.admin-token=s3cret"
+})
+@AutoConfigureMockMvc
+@ActiveProfiles("h2")
+class ActuatorWriteGuardConfigTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    void ticketCatalogInvalidationNeedsAdminToken() throws Exception {
+        mockMvc.perform(get("/actuator/ticketcatalog"))
+            .andExpect(status().isOk());
+
+        mockMvc.perform(delete("/actuator/ticketcatalog"))
+            .andExpect(status().isForbidden())
+            .andExpect(jsonPath("$.status").value("error"));
+        mockMvc.perform(delete("/actuator/ticketcatalog/1").header(ActuatorWriteGuardConfig.ADMIN_TOKEN_HEADER, "guess"))
+            .andExpect(status().isForbidden());
+
+        mockMvc.perform(delete("/actuator/ticketcatalog").header(ActuatorWriteGuardConfig.ADMIN_TOKEN_HEADER, "s3cret"))
+            .andExpect(status().isNoContent());
+    }
+
+    @Test
+    void stockShardChangesNeedAdminToken() throws Exception {
+        mockMvc.perform(get("/actuator/stockshards"))
+            .andExpect(status().isOk());
+
+        mockMvc.perform(post("/actuator/stockshards/1").contentType(MediaType.APPLICATION_JSON).content("{\"shards\": 8}"))
+            .andExpect(status().isForbidden());
+        mockMvc.perform(delete("/actuator/stockshards/1"))
+            .andExpect(status().isForbidden());
+        mockMvc.perform(post("/actuator/stockshards"))
+            .andExpect(status().isForbidden());
+
+        mockMvc.perform(post("/actuator/stockshards").header(ActuatorWriteGuardConfig.ADMIN_TOKEN_HEADER, "s3cret"))
+            .andExpect(status().isOk());
+    }
+
+    @Test
+    void reconciliationNeedsAdminToken() throws Exception {
+        // 掃描 (不管修不修) 與調整庫存都要 token；GET 只看最後一次的結果，不會觸發掃描
+        mockMvc.perform(post("/actuator/reconciliation"))
+            .andExpect(status().isForbidden());
+        mockMvc.perform(post("/actuator/reconciliation").contentType(MediaType.APPLICATION_JSON).content("{\"fix\": true}"))
+            .andExpect(status().isForbidden());
+        mockMvc.perform(post("/actuator/reconciliation/1").contentType(MediaType.APPLICATION_JSON).content("{\"restock\": 10}"))
+            .andExpect(status().isForbidden());
+
+        mockMvc.perform(post("/actuator/reconciliation").header(ActuatorWriteGuardConfig.ADMIN_TOKEN_HEADER, "s3cret")
+                .contentType(MediaType.APPLICATION_JSON).content("{}"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.fix").value(false));
+        mockMvc.perform(get("/actuator/reconciliation"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.fix").value(false));
+
+        mockMvc.perform(post("/actuator/reconciliation").header(ActuatorWriteGuardConfig.ADMIN_TOKEN_HEADER, "s3cret")
+                .contentType(MediaType.APPLICATION_JSON).content("{\"fix\": true}"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.fix").value(true));
+    }
+}
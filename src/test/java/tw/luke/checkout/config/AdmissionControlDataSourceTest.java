@@ -0,0 +1,118 @@
+package tw.luke.checkout.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 閘門本身的行為 + platform thread / virtual thread 兩種執行模式的對照
+// 資料庫用假的 DataSource 模擬：拿到連線後 sleep 代表查詢時間
+class AdmissionControlDataSourceTest {
+
+    private static final int PERMITS = 10;
+    private static final int REQUESTS = 5000;
+    private static final int TOMCAT_MAX_THREADS = 200;   // server.tomcat.threads.max 預設值
+    private static final long QUERY_MS = 1;             // 拿著連線的時間
+    private static final long OTHER_IO_MS = 200;        // 請求裡其他不需要連線的等待 (例如呼叫外部服務)
+
+    @Test
+    void rejectsWhenWaitingTooLongAndReleasesOnClose() throws Exception {
+        AdmissionControlDataSource gate = new AdmissionControlDataSource(new StubDataSource(new AtomicInteger(), new AtomicInteger()), 1, Duration.ofMillis(50), 100);
+
+        Connection first = gate.getConnection();
+        assertEquals(1, gate.getActive());
+        assertThrows(SQLTransientConnectionException.class, gate::getConnection);
+        assertEquals(1, gate.getRejected());
+
+        first.close();
+        first.close();   // 重複 close 不能多還 permit
+        assertEquals(0, gate.getActive());
+        try (Connection again = gate.getConnection()) {
+            assertEquals(1, gate.getActive());
+        }
+    }
+
+    @Test
+    void platformVersusVirtualThreads() throws Exception {
+        Result platform = run(Executors.newFixedThreadPool(TOMCAT_MAX_THREADS));
+        Result virtual = run(Executors.newVirtualThreadPerTaskExecutor());
+
+        // 不管哪種模式，同時拿著連線的數量都不會超過閘門
+        assertTrue(platform.maxConnections <= PERMITS);
+        assertTrue(virtual.maxConnections <= PERMITS);
+        // platform thread 卡在不需要連線的等待上 (200 條 thread 一輪 200ms)，virtual thread 只被閘門限制
+        assertTrue(virtual.elapsedMillis < platform.elapsedMillis,
+            "virtual " + virtual.elapsedMillis + " ms, platform " + platform.elapsedMillis + " ms");
+    }
+
+    private Result run(ExecutorService executor) throws Exception {
+        AtomicInteger inUse = new AtomicInteger();
+        AtomicInteger maxInUse = new AtomicInteger();
+        AdmissionControlDataSource gate = new AdmissionControlDataSource(new StubDataSource(inUse, maxInUse), PERMITS, Duration.ofSeconds(30), REQUESTS);
+
+        long start = System.nanoTime();
+        try (executor) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < REQUESTS; i++) {
+                futures.add(executor.submit(() -> {
+                    Thread.sleep(OTHER_IO_MS);
+                    try (Connection ignored = gate.getConnection()) {
+                        Thread.sleep(QUERY_MS);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        return new Result((System.nanoTime() - start) / 1_000_000, maxInUse.get());
+    }
+
+    private record Result(long elapsedMillis, int maxConnections) {}
+
+    // 假的連線：只記錄同時有幾條連線被借出去
+    private static class StubDataSource extends AbstractDataSource {
+
+        private final AtomicInteger inUse;
+        private final AtomicInteger maxInUse;
+
+        StubDataSource(AtomicInteger inUse, AtomicInteger maxInUse) {
+            this.inUse = inUse;
+            this.maxInUse = maxInUse;
+        }
+
+        @Override
+        public Connection getConnection() {
+            maxInUse.accumulateAndGet(inUse.incrementAndGet(), Math::max);
+            return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class },
+                (proxy, method, args) -> {
+                    if ("close".equals(method.getName())) {
+                        inUse.decrementAndGet();
+                    }
+                    return null;
+                }
+            );
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) {
+            return getConnection();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package tw.luke.checkout.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import tw.luke.checkout.service.CartStore;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// 加入購物車超過 burst 之後回 429：不進 controller (購物車沒變)、一個 SQL 都沒送，被擋的次數進指標
+@SpringBootTest(properties = {
+    "app.checkout-queue.enabled=false",
+    "app.reservation-expiry.enabled=false",
+    "app.current-user.header-enabled=true",
+    "app.rate-limit.add.per-second=0.1",
+    "app.rate-limit.add.burst=2"
+})
+@AutoConfigureMockMvc
+@ActiveProfiles("h2")
+class RateLimitConfigTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private CartStore cartStore;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void seed() {
+        for (String table : List.of("event_ticket_type", "ticket_type", "event")) {
+            jdbcTemplate.update("DELETE FROM otp." + table);
+        }
+        jdbcTemplate.update("INSERT INTO otp.event (id, title) VALUES (1, 'MLB 東京開幕戰')");
+        jdbcTemplate.update("INSERT INTO otp.ticket_type (id, name, price) VALUES (1, '一般票', 1000)");
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit) VALUES (1, 1, 1, 1, 100)");
+    }
+
+    @Test
+    void overLimitRequestsAreRejectedBeforeTheController() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            SqlStatementCounter.begin();
+            mockMvc.perform(add(7L, "10.0.0.1")).andExpect(status().isOk());
+            assertTrue(SqlStatementCounter.end() > 0);
+        }
+
+        SqlStatementCounter.begin();
+        mockMvc.perform(add(7L, "10.0.0.1"))
+            .andExpect(status().isTooManyRequests())
+            .andExpect(header().string(HttpHeaders.RETRY_AFTER, "10"))
+            .andExpect(jsonPath("$.status").value("error"));
+        assertEquals(0, SqlStatementCounter.end());
+        assertEquals(2, cartStore.quantity(7L, 1L));
+        assertEquals(1.0, meterRegistry.get("checkout.rate_limit.rejected").tag("endpoint", "add").counter().count());
+
+        // 同一個使用者換一個 IP、同一個 IP 換一個使用者、同一個人打別的 API：都是各自的額度
+        mockMvc.perform(add(7L, "10.0.0.2")).andExpect(status().isOk());
+        mockMvc.perform(add(8L, "10.0.0.1")).andExpect(status().isOk());
+        mockMvc.perform(post("/api/checkout/add-bulk").header(CurrentUserConfig.USER_ID_HEADER, "7")
+                .with(request -> {
+                    request.setRemoteAddr("10.0.0.1");
+                    return request;
+                })
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[{\"ticketTypeId\": 1, \"quantity\": 1}]"))
+            .andExpect(status().isOk());
+        assertEquals(4, cartStore.quantity(7L, 1L));
+    }
+
+    private static MockHttpServletRequestBuilder add(long userId, String clientIp) {
+        return post("/api/checkout/add")
+            .header(CurrentUserConfig.USER_ID_HEADER, String.valueOf(userId))
+            .with(request -> {
+                request.setRemoteAddr(clientIp);
+                return request;
+            })
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("{\"ticketTypeId\": 1, \"quantity\": 1}");
+    }
+}
@@ -0,0 +1,101 @@
+package tw.luke.checkout.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// token bucket 用假的時鐘測：先用完 burst、再依 per-second 補回來；閒置的 bucket 會被移除
+class RateLimiterTest {
+
+    private static final RateLimiter.Key BUYER = new RateLimiter.Key(1L, "10.0.0.1");
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void burstThenRefillAtConfiguredRate() {
+        AtomicLong now = new AtomicLong(1_000 * SECOND);
+        RateLimiter limiter = new RateLimiter(2, 5, Duration.ofMinutes(1), 1_000, now::get);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, limiter.tryAcquire(BUYER), "第 " + i + " 個");
+        }
+        // 用完了：每秒補 2 個，要等半秒
+        assertEquals(SECOND / 2, limiter.tryAcquire(BUYER));
+        now.addAndGet(SECOND / 4);
+        assertEquals(SECOND / 4, limiter.tryAcquire(BUYER));
+        now.addAndGet(SECOND / 4);
+        assertEquals(0, limiter.tryAcquire(BUYER));
+        assertTrue(limiter.tryAcquire(BUYER) > 0);
+
+        // 別的 IP、別的使用者各自一個 bucket
+        assertEquals(0, limiter.tryAcquire(new RateLimiter.Key(1L, "10.0.0.2")));
+        assertEquals(0, limiter.tryAcquire(new RateLimiter.Key(2L, "10.0.0.1")));
+
+        // 閒置很久也只補到 burst 個
+        now.addAndGet(60 * SECOND);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, limiter.tryAcquire(BUYER));
+        }
+        assertTrue(limiter.tryAcquire(BUYER) > 0);
+    }
+
+    @Test
+    void contendedThreadsNeverExceedBurst() throws Exception {
+        // 時間不動：不管幾條 thread 一起搶，剛好 burst 個通過
+        RateLimiter limiter = new RateLimiter(1, 100, Duration.ofMinutes(1), 1_000, () -> 0L);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<Integer>> futures = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(16)) {
+            for (int t = 0; t < 16; t++) {
+                futures.add(executor.submit(() -> {
+                    go.await();
+                    int allowed = 0;
+                    for (int i = 0; i < 10_000; i++) {
+                        if (limiter.tryAcquire(BUYER) == 0) {
+                            allowed++;
+                        }
+                    }
+                    return allowed;
+                }));
+            }
+            go.countDown();
+        }
+        int allowed = 0;
+        for (Future<Integer> future : futures) {
+            allowed += future.get();
+        }
+        assertEquals(100, allowed);
+    }
+
+    @Test
+    void idleBucketsAreEvictedAndSizeIsBounded() {
+        AtomicLong now = new AtomicLong();
+        RateLimiter limiter = new RateLimiter(10, 10, Duration.ofSeconds(30), 1_000, now::get);
+        for (int ip = 0; ip < 500; ip++) {
+            limiter.tryAcquire(new RateLimiter.Key(1L, "10.0.0." + ip));
+        }
+        limiter.cleanUp();
+        assertEquals(500, limiter.size());
+
+        now.addAndGet(31 * SECOND);
+        limiter.cleanUp();
+        assertEquals(0, limiter.size());
+
+        // 一直有新的 IP 進來也不會超過 maxBuckets
+        for (int ip = 0; ip < 5_000; ip++) {
+            limiter.tryAcquire(new RateLimiter.Key(1L, "10.0." + ip / 256 + "." + ip % 256));
+        }
+        limiter.cleanUp();
+        assertTrue(limiter.size() <= 1_000, String.valueOf(limiter.size()));
+    }
+}
@@ -0,0 +1,128 @@
+package tw.luke.checkout.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import tw.luke.checkout.service.CartStore;
+import tw.luke.checkout.service.CheckoutSummaryService;
+
+import javax.sql.DataSource;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 讀寫分流：主庫 (application-h2.yml) 與副本是兩個各自獨立的 H2，同一個使用者在兩邊放不同的 email，看讀到哪一邊
+@SpringBootTest(properties = {
+    "app.checkout-queue.enabled=false",
+    "app.reservation-expiry.enabled=false",
+    "app.read-replica.enabled=true",
+    "app.read-replica.url=jdbc:h2:mem:otp-replica-${random.uuid};MODE=MySQL;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=USER,VALUE"
+        + ";INIT=CREATE SCHEMA IF NOT EXISTS otp\\\\;SET SCHEMA otp\\\\;RUNSCRIPT FROM 'classpath:db/migration/V1__otp_baseline.sql'"
+        + "\\\\;RUNSCRIPT FROM 'classpath:db/migration/V2__reservation_expiry.sql'"
+        + "\\\\;RUNSCRIPT FROM 'classpath:db/migration/V3__checkout_idempotency.sql'"
+        + "\\\\;RUNSCRIPT FROM 'classpath:db/migration/V4__ecpay_callback.sql'"
+        + "\\\\;RUNSCRIPT FROM 'classpath:db/migration/V5__cart_items_unique.sql'"
+        + "\\\\;RUNSCRIPT FROM 'classpath:db/migration/V6__stock_shards.sql'"
+        + "\\\\;RUNSCRIPT FROM 'classpath:db/migration/V7__checkout_order_items_index.sql'"
+        + "\\\\;RUNSCRIPT FROM 'classpath:db/migration/V8__event_ticket_type_event_index.sql'"
+        + "\\\\;RUNSCRIPT FROM 'classpath:db/migration/V9__inventory_reconciliation.sql'"
+        + "\\\\;RUNSCRIPT FROM 'classpath:db/migration/V10__checkout_idempotency_order_ref.sql'"
+        + "\\\\;RUNSCRIPT FROM 'classpath:db/migration/V11__payment_exceptions.sql'"
+        + "\\\\;RUNSCRIPT FROM 'classpath:db/migration/V12__orders_payment_method.sql'",
+    "app.read-replica.username=sa",
+    "app.read-replica.driver-class-name=org.h2.Driver",
+    "app.read-replica.hikari.maximum-pool-size=4",
+    "app.read-replica.read-your-writes=1m"
+})
+@ActiveProfiles("h2")
+class ReadWriteRoutingDataSourceTest {
+
+    private static final String EMAIL_SQL = "SELECT email FROM otp.user WHERE id = ?";
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private CheckoutSummaryService checkoutSummaryService;
+
+    @Autowired
+    private CartStore cartStore;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private JdbcTemplate replica;
+
+    @BeforeEach
+    void seed() throws Exception {
+        ReadWriteRoutingDataSource routing = dataSource.unwrap(ReadWriteRoutingDataSource.class);
+        replica = new JdbcTemplate(routing.getResolvedDataSources().get(ReadWriteRoutingDataSource.Pool.REPLICA));
+        for (JdbcTemplate db : List.of(jdbcTemplate, replica)) {
+            db.update("DELETE FROM otp.user");
+        }
+        for (long userId = 1; userId <= 3; userId++) {
+            jdbcTemplate.update("INSERT INTO otp.user (id, account, email) VALUES (?, ?, ?)", userId, "u" + userId, "primary@example.com");
+            replica.update("INSERT INTO otp.user (id, account, email) VALUES (?, ?, ?)", userId, "u" + userId, "replica@example.com");
+        }
+    }
+
+    @Test
+    void readOnlyTransactionsAndReadPathsGoToReplica() {
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        TransactionTemplate readWrite = new TransactionTemplate(transactionManager);
+
+        // 一般查詢 (沒有交易、沒有指定) 走主庫
+        assertEquals("primary@example.com", email(1));
+        assertEquals("replica@example.com", readOnly.execute(status -> email(1)));
+        assertEquals("replica@example.com", ReadWriteRoutingDataSource.onReplica(() -> email(1)));
+        // 寫入交易裡就算指定副本也用主庫 (交易的連線只有一條)
+        assertEquals("primary@example.com", readWrite.execute(status -> ReadWriteRoutingDataSource.onReplica(() -> email(1))));
+        // 唯讀交易裡也可以指定主庫
+        assertEquals("primary@example.com", readOnly.execute(status -> ReadWriteRoutingDataSource.onPrimary(() -> email(1))));
+
+        readWrite.executeWithoutResult(status -> jdbcTemplate.update("UPDATE otp.user SET account = 'written' WHERE id = 1"));
+        assertEquals("written", jdbcTemplate.queryForObject("SELECT account FROM otp.user WHERE id = 1", String.class));
+        assertEquals("u1", replica.queryForObject("SELECT account FROM otp.user WHERE id = 1", String.class));
+    }
+
+    @Test
+    void userReadsOwnWritesFromPrimary() {
+        assertEquals("replica@example.com", checkoutSummaryService.summary(2).response().customer().email());
+
+        // 改過購物車的使用者在 read-your-writes 期間讀主庫，其他人照樣讀副本
+        cartStore.setQuantity(3, 1, 1);
+        assertEquals("primary@example.com", checkoutSummaryService.summary(3).response().customer().email());
+        assertEquals("replica@example.com", checkoutSummaryService.summary(2).response().customer().email());
+    }
+
+    @Test
+    void metricsPerPool() {
+        ReadWriteRoutingDataSource.onReplica(() -> email(1));
+        email(1);
+
+        assertTrue(meterRegistry.get("datasource.routing").tag("pool", "replica").counter().count() > 0);
+        assertTrue(meterRegistry.get("datasource.routing").tag("pool", "primary").counter().count() > 0);
+        assertNotNull(meterRegistry.find("hikaricp.connections.max").tag("pool", "replica").gauge());
+        assertEquals(4, meterRegistry.get("hikaricp.connections.max").tag("pool", "replica").gauge().value());
+        assertNotNull(meterRegistry.find("hikaricp.connections.max").tag("pool", "primary").gauge());
+    }
+
+    private String email(long userId) {
+        return jdbcTemplate.queryForObject(EMAIL_SQL, String.class, userId);
+    }
+}
@@ -0,0 +1,87 @@
+package tw.luke.checkout.db;
+
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// 正式庫從 V1 (導入 Flyway 之前的 schema) 往上套用：購物車同一票種的多列在加唯一索引之前會先合併；既有的限量票種填上總配額
+class FlywayMigrationTest {
+
+    @Test
+    void duplicateCartLinesAreMergedBeforeTheUniqueIndex() {
+        DriverManagerDataSource dataSource = dataSource();
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+
+        flyway(dataSource, "4").migrate();
+        jdbcTemplate.update("INSERT INTO otp.cart_items (id, user_id, event_ticket_type_id, quantity) VALUES (1, 7, 1, 1)");
+        jdbcTemplate.update("INSERT INTO otp.cart_items (id, user_id, event_ticket_type_id, quantity) VALUES (2, 7, 1, 2)");
+        jdbcTemplate.update("INSERT INTO otp.cart_items (id, user_id, event_ticket_type_id, quantity) VALUES (3, 7, 2, 1)");
+        jdbcTemplate.update("INSERT INTO otp.cart_items (id, user_id, event_ticket_type_id, quantity) VALUES (4, 8, 1, 4)");
+        jdbcTemplate.update("INSERT INTO otp.cart_items (id, user_id, event_ticket_type_id, quantity) VALUES (5, 7, 1, 1)");
+
+        flyway(dataSource, "latest").migrate();
+
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList("SELECT id, quantity FROM otp.cart_items ORDER BY id");
+        assertEquals(List.of(
+            Map.of("id", 1L, "quantity", 4),
+            Map.of("id", 3L, "quantity", 1),
+            Map.of("id", 4L, "quantity", 4)
+        ), rows);
+        assertThrows(Exception.class, () ->
+            jdbcTemplate.update("INSERT INTO otp.cart_items (user_id, event_ticket_type_id, quantity) VALUES (7, 1, 1)"));
+    }
+
+    @Test
+    void existingLimitedTicketTypesGetCapacityFromCurrentNumbers() {
+        DriverManagerDataSource dataSource = dataSource();
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+
+        flyway(dataSource, "8").migrate();
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit) VALUES (1, 1, 1, 1, 10)");
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit) VALUES (2, 1, 1, 0, NULL)");
+        jdbcTemplate.update("INSERT INTO otp.ticket_stock_shards (event_ticket_type_id, shard_no, remaining) VALUES (1, 0, 5)");
+        reservation(jdbcTemplate, 1, "LOCKED", 2);
+        reservation(jdbcTemplate, 2, "CONFIRMED", 3);
+        reservation(jdbcTemplate, 3, "EXPIRED", 4);
+
+        flyway(dataSource, "latest").migrate();
+
+        // 剩餘 10 + 分片 5 + LOCKED 2 + CONFIRMED 3 (過期的已經還回去了)
+        assertEquals(20, jdbcTemplate.queryForObject("SELECT capacity FROM otp.event_ticket_type WHERE id = 1", Integer.class));
+        assertNull(jdbcTemplate.queryForObject("SELECT capacity FROM otp.event_ticket_type WHERE id = 2", Integer.class));
+    }
+
+    private static void reservation(JdbcTemplate jdbcTemplate, long id, String status, int quantity) {
+        jdbcTemplate.update("""
+            INSERT INTO otp.reservations
+            (id, user_id, event_id, quantity, ticket_type_id, totalAmount, scheduleId, userId, created_at, expires_at, status)
+            VALUES (?, 1, 1, ?, 1, 0, 1, 1, NOW(), NOW(), ?)
+        """, id, quantity, status);
+        jdbcTemplate.update("INSERT INTO otp.reservation_items (reservationId, ticketTypeId, quantity, unitPrice) VALUES (?, 1, ?, 1000)", id, quantity);
+    }
+
+    private static DriverManagerDataSource dataSource() {
+        return new DriverManagerDataSource(
+            "jdbc:h2:mem:otp-migration-" + UUID.randomUUID()
+                + ";DB_CLOSE_DELAY=-1;MODE=MySQL;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=USER,VALUE;INIT=CREATE SCHEMA IF NOT EXISTS otp",
+            "sa", "");
+    }
+
+    private static Flyway flyway(DriverManagerDataSource dataSource, String target) {
+        return Flyway.configure()
+            .dataSource(dataSource)
+            .schemas("otp")
+            .defaultSchema("otp")
+            .target(target)
+            .load();
+    }
+}
@@ -0,0 +1,389 @@
+package tw.luke.checkout.loadtest;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import tw.luke.checkout.CheckoutBackendApplication;
+import tw.luke.checkout.repository.StockShardRepository;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+// 開賣壓測：整個服務在本機跑起來 (h2 + loadtest profile：H2 MySQL 相容模式、綠界換成 ECPayStubController)，不需要網路
+// N 個買家 (各自一條 virtual thread、各自的 X-User-Id) 同時開搶同一個限量票種：
+//   加入購物車 → 看結帳摘要 → 送出訂單 (排隊就輪詢) → 信用卡的話把綠界表單送到 stub 付款
+// 結束後印出每個 API 的 p50 / p99 / p999、整體吞吐量、結帳結果分類 (售完 / deadlock / lock timeout...) 與超賣檢查
+// 執行：./mvnw -Ploadtest test -Dloadtest.buyers=2000 -Dloadtest.stock=500
+// 分片庫存：加 -Dloadtest.stock-shards=8 (限量票種開賣前先切成 8 個分片)
+public final class FlashSaleLoadTest {
+
+    static final long EVENT_ID = 1;
+    // 限量 (大家搶的) 與不限量的票種
+    static final long HOT_TICKET = 1;
+    static final long UNLIMITED_TICKET = 2;
+
+    private static final Pattern FORM_ACTION = Pattern.compile("action='([^']+)'");
+    private static final Pattern FORM_INPUT = Pattern.compile("name='([^']+)' value='([^']*)'");
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private final String baseUrl;
+    private final double cardRatio;
+    private final HttpClient http = HttpClient.newBuilder()
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+
+    // API 名稱 -> 延遲 (依出現順序)
+    private final Map<String, Latencies> latencies = new ConcurrentHashMap<>();
+    // 結帳結果分類 -> 人數
+    private final Map<String, AtomicInteger> outcomes = new ConcurrentHashMap<>();
+    // 歸到 other 的錯誤訊息 -> 次數 (報告裡列出最多的幾個)
+    private final Map<String, AtomicInteger> otherErrors = new ConcurrentHashMap<>();
+
+    FlashSaleLoadTest(String baseUrl, double cardRatio) {
+        this.baseUrl = baseUrl;
+        this.cardRatio = cardRatio;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int buyers = Integer.getInteger("loadtest.buyers", 1000);
+        int stock = Integer.getInteger("loadtest.stock", 300);
+        int port = Integer.getInteger("loadtest.port", 18080);
+        double cardRatio = Double.parseDouble(System.getProperty("loadtest.card-ratio", "0.5"));
+        int stockShards = Integer.getInteger("loadtest.stock-shards", 0);
+
+        // 服務本身的 DEBUG 輸出太多，壓測期間關掉，報告用原本的 stdout 印
+        PrintStream out = System.out;
+        // devtools 的自動重啟會在另一條 thread 重跑 main，這裡要自己控制流程
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(CheckoutBackendApplication.class)
+                .profiles("h2", "loadtest")
+                .run("--server.port=" + port, "--app.domain=http://localhost:" + port);
+        try {
+            JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+            seed(jdbcTemplate, buyers, stock);
+            if (stockShards > 0) {
+                context.getBean(StockShardRepository.class).enable(HOT_TICKET, stockShards);
+            }
+
+            FlashSaleLoadTest test = new FlashSaleLoadTest("http://localhost:" + port, cardRatio);
+            long started = System.nanoTime();
+            test.run(buyers);
+            long elapsed = System.nanoTime() - started;
+
+            test.report(out, buyers, stock, elapsed);
+            int oversold = checkOversell(out, jdbcTemplate, stock);
+            if (oversold > 0) {
+                System.exit(1);
+            }
+        } finally {
+            System.setOut(out);
+            context.close();
+        }
+    }
+
+    static void seed(JdbcTemplate jdbcTemplate, int buyers, int stock) {
+        jdbcTemplate.update("INSERT INTO otp.event (id, title) VALUES (?, '壓測開賣場')", EVENT_ID);
+        jdbcTemplate.update("INSERT INTO otp.ticket_type (id, name, price) VALUES (1, '搖滾區', 3800), (2, '身障席', 800)");
+        jdbcTemplate.update("""
+            INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit)
+            VALUES (?, ?, 1, 1, ?), (?, ?, 2, 0, NULL)
+        """, HOT_TICKET, EVENT_ID, stock, UNLIMITED_TICKET, EVENT_ID);
+        List<Object[]> users = new ArrayList<>(buyers);
+        for (long userId = 1; userId <= buyers; userId++) {
+            users.add(new Object[] { userId, "buyer" + userId, "buyer" + userId + "@example.com" });
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO otp.user (id, account, email) VALUES (?, ?, ?)", users);
+    }
+
+    // 所有買家準備好之後同時放行
+    void run(int buyers) throws InterruptedException {
+        CountDownLatch ready = new CountDownLatch(buyers);
+        CountDownLatch go = new CountDownLatch(1);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (long userId = 1; userId <= buyers; userId++) {
+                long buyer = userId;
+                executor.execute(() -> {
+                    ready.countDown();
+                    try {
+                        go.await();
+                        buy(buyer);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (Exception e) {
+                        outcome("client_error", e.toString());
+                    }
+                });
+            }
+            ready.await();
+            go.countDown();
+        }
+    }
+
+    private void buy(long userId) throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        // 1. 加入購物車 (搶的票 1~2 張 + 一張不限量的)
+        String cart = JSON.writeValueAsString(List.of(
+            Map.of("ticketTypeId", HOT_TICKET, "quantity", 1 + random.nextInt(2)),
+            Map.of("ticketTypeId", UNLIMITED_TICKET, "quantity", 1)
+        ));
+        Response add = call("add", userId, post("/api/checkout/add-bulk", cart));
+        if (!add.ok()) {
+            outcome(classify(add.message()), add.message());
+            return;
+        }
+
+        // 2. 結帳頁
+        Response summary = call("summary", userId, get("/api/checkout/summary"));
+        if (!summary.ok()) {
+            outcome(classify(summary.message()), summary.message());
+            return;
+        }
+
+        // 3. 送出訂單 (信用卡走綠界，其他用 ATM)
+        boolean card = random.nextDouble() < cardRatio;
+        Map<String, String> form = new LinkedHashMap<>();
+        form.put("paymentMethod", card ? "CARD" : "ATM");
+        form.put("atmLast5", "12345");
+        form.put("invoiceType", "COMPANY");
+        form.put("invoiceValue", "12345678");
+        form.put("customerEmail", "buyer" + userId + "@example.com");
+        long submitted = System.nanoTime();
+        Response submit = call("submit", userId, post("/api/checkout/submit", JSON.writeValueAsString(form))
+            .header("Idempotency-Key", UUID.randomUUID().toString()));
+        Map<String, String> result = submit.json();
+
+        // 4. 排隊的話輪詢到有結果
+        while ("queued".equals(result.get("status")) || "processing".equals(result.get("status"))) {
+            Thread.sleep(50);
+            Response poll = call("poll", userId, get("/api/checkout/submit/" + result.get("ticketId")));
+            result = poll.json();
+        }
+        record("checkout", System.nanoTime() - submitted);
+
+        switch (String.valueOf(result.get("status"))) {
+            case "success" -> outcome("ordered_atm", null);
+            case "ecpay" -> pay(userId, result.get("message"));
+            default -> outcome(classify(result.get("message")), result.get("message"));
+        }
+    }
+
+    // 5. 把綠界表單原封不動送到 stub (stub 會回呼 ReturnURL 入帳，回傳 1|OK 才算付款成功)
+    private void pay(long userId, String html) throws Exception {
+        Matcher action = FORM_ACTION.matcher(html);
+        if (!action.find()) {
+            outcome("other", "綠界表單沒有 action");
+            return;
+        }
+        Matcher input = FORM_INPUT.matcher(html);
+        List<String> fields = new ArrayList<>();
+        while (input.find()) {
+            fields.add(URLEncoder.encode(input.group(1), StandardCharsets.UTF_8) + "=" + URLEncoder.encode(input.group(2), StandardCharsets.UTF_8));
+        }
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(action.group(1)))
+            .header("Content-Type", "application/x-www-form-urlencoded")
+            .POST(HttpRequest.BodyPublishers.ofString(String.join("&", fields)));
+        Response paid = call("ecpay", userId, request);
+        if ("1|OK".equals(paid.body())) {
+            outcome("paid_card", null);
+        } else {
+            outcome("payment_not_acked", paid.body());
+        }
+    }
+
+    private HttpRequest.Builder get(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).GET();
+    }
+
+    private HttpRequest.Builder post(String path, String json) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(json));
+    }
+
+    private Response call(String endpoint, long userId, HttpRequest.Builder request) throws Exception {
+        long started = System.nanoTime();
+        HttpResponse<String> response = http.send(
+            request.header("X-User-Id", String.valueOf(userId)).timeout(Duration.ofSeconds(60)).build(),
+            HttpResponse.BodyHandlers.ofString()
+        );
+        record(endpoint, System.nanoTime() - started);
+        Response result = new Response(response.statusCode(), response.body());
+        if (!result.ok()) {
+            latencies.get(endpoint).errors.incrementAndGet();
+        }
+        return result;
+    }
+
+    private void record(String endpoint, long nanos) {
+        latencies.computeIfAbsent(endpoint, name -> new Latencies()).add(nanos);
+    }
+
+    private void outcome(String kind, String message) {
+        outcomes.computeIfAbsent(kind, k -> new AtomicInteger()).incrementAndGet();
+        if ("other".equals(kind) || "client_error".equals(kind)) {
+            otherErrors.computeIfAbsent(String.valueOf(message), k -> new AtomicInteger()).incrementAndGet();
+        }
+    }
+
+    static String classify(String message) {
+        if (message == null) {
+            return "other";
+        }
+        String lower = message.toLowerCase(Locale.ROOT);
+        if (message.contains("庫存不足")) {
+            return "sold_out";
+        }
+        if (lower.contains("deadlock")) {
+            return "deadlock";
+        }
+        if (lower.contains("timeout trying to lock") || lower.contains("lock wait timeout")) {
+            return "lock_timeout";
+        }
+        if (message.contains("排隊人數過多")) {
+            return "queue_full";
+        }
+        return "other";
+    }
+
+    void report(PrintStream out, int buyers, int stock, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        int requests = latencies.entrySet().stream()
+            .filter(e -> !"checkout".equals(e.getKey()))
+            .mapToInt(e -> e.getValue().size())
+            .sum();
+
+        out.println();
+        out.printf("===== 開賣壓測：%d 位買家搶 %d 張，耗時 %.2f 秒 =====%n", buyers, stock, seconds);
+        out.printf("吞吐量：%.1f req/s (共 %d 個請求)，%.1f 結帳/s%n", requests / seconds, requests, buyers / seconds);
+        out.printf("%-10s %8s %8s %10s %10s %10s %10s%n", "API", "次數", "失敗", "p50(ms)", "p99(ms)", "p999(ms)", "max(ms)");
+        for (String endpoint : List.of("add", "summary", "submit", "poll", "ecpay", "checkout")) {
+            Latencies l = latencies.get(endpoint);
+            if (l == null) {
+                continue;
+            }
+            long[] sorted = l.sorted();
+            out.printf("%-10s %8d %8d %10.1f %10.1f %10.1f %10.1f%n", endpoint, sorted.length, l.errors.get(),
+                percentile(sorted, 0.50), percentile(sorted, 0.99), percentile(sorted, 0.999), percentile(sorted, 1.0));
+        }
+        out.println("(checkout = 送出訂單到拿到結果，包含排隊時間)");
+
+        out.println("結帳結果：" + outcomes.entrySet().stream()
+            .sorted(Map.Entry.comparingByKey())
+            .map(e -> e.getKey() + "=" + e.getValue().get())
+            .collect(Collectors.joining(", ")));
+        out.printf("deadlock：%d，lock timeout：%d%n", count("deadlock"), count("lock_timeout"));
+        otherErrors.entrySet().stream()
+            .sorted((a, b) -> b.getValue().get() - a.getValue().get())
+            .limit(5)
+            .forEach(e -> out.println("  其他錯誤 x" + e.getValue().get() + "：" + e.getKey()));
+    }
+
+    // 超賣檢查：剩餘庫存不能是負的，LOCKED / CONFIRMED 預約的張數不能超過開賣數量，而且兩者加起來要剛好等於開賣數量
+    static int checkOversell(PrintStream out, JdbcTemplate jdbcTemplate, int stock) {
+        Integer remaining = jdbcTemplate.queryForObject(
+            "SELECT " + StockShardRepository.TOTAL_STOCK_SQL + " FROM otp.event_ticket_type ett WHERE ett.id = ?",
+            Integer.class, HOT_TICKET);
+        Integer reserved = jdbcTemplate.queryForObject("""
+            SELECT COALESCE(SUM(ri.quantity), 0)
+            FROM otp.reservation_items ri
+            JOIN otp.reservations r ON r.id = ri.reservationId
+            WHERE ri.ticketTypeId = ? AND r.status IN ('LOCKED', 'CONFIRMED')
+        """, Integer.class, HOT_TICKET);
+        int oversold = Math.max(0, reserved - stock) + Math.max(0, -remaining);
+        out.printf("超賣檢查：開賣 %d 張，已賣出 %d 張，剩餘 %d 張 → %s%n", stock, reserved, remaining,
+            oversold > 0 ? "超賣 " + oversold + " 張！"
+                : reserved + remaining == stock ? "沒有超賣" : "沒有超賣，但庫存帳對不起來 (差 " + (stock - reserved - remaining) + " 張)");
+        return oversold;
+    }
+
+    private int count(String kind) {
+        AtomicInteger n = outcomes.get(kind);
+        return n == null ? 0 : n.get();
+    }
+
+    // nearest-rank，回傳毫秒
+    static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(p * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)] / 1e6;
+    }
+
+    private static final class Latencies {
+        private final List<Long> nanos = new ArrayList<>();
+        final AtomicInteger errors = new AtomicInteger();
+
+        synchronized void add(long value) {
+            nanos.add(value);
+        }
+
+        synchronized int size() {
+            return nanos.size();
+        }
+
+        synchronized long[] sorted() {
+            long[] values = nanos.stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(values);
+            return values;
+        }
+    }
+
+    private record Response(int status, String body) {
+
+        boolean ok() {
+            return status / 100 == 2;
+        }
+
+        // 錯誤回應 (server.error.include-message: always) 的 message，成功的話是整個 body
+        String message() {
+            if (ok()) {
+                return body;
+            }
+            Object message = json().get("message");
+            return message == null ? "HTTP " + status : message.toString();
+        }
+
+        Map<String, String> json() {
+            try {
+                Map<String, Object> parsed = JSON.readValue(body, new TypeReference<>() {});
+                Map<String, String> values = new LinkedHashMap<>();
+                parsed.forEach((key, value) -> values.put(key, value == null ? null : value.toString()));
+                if (!ok() && !values.containsKey("status")) {
+                    values.put("status", "error");
+                }
+                return values;
+            } catch (Exception e) {
+                return Map.of("status", "error", "message", "HTTP " + status + " " + body);
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package tw.luke.checkout.repository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import tw.luke.checkout.config.ReadYourWrites;
+import tw.luke.checkout.config.SqlStatementCounter;
+import tw.luke.checkout.dto.TicketAvailability;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 剩餘數量的快照：所有活動共用一份，過了 refresh 先回舊的、背景只查一次；加入購物車的預檢 (findShortages) 先看快照
+@JdbcTest(properties = "app.availability.snapshot-refresh=200ms")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("h2")
+@Import({ AvailabilityRepository.class, OrderRepository.class, TicketCatalogRepository.class, StockShardRepository.class, ReadYourWrites.class, SimpleMeterRegistry.class })
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class AvailabilityRepositoryTest {
+
+    private static final long EVENT = 1L;
+    private static final long LIMITED_TICKET = 1L;
+    private static final long UNLIMITED_TICKET = 2L;
+    private static final long SHARDED_TICKET = 3L;
+
+    @Autowired
+    private AvailabilityRepository availabilityRepository;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private StockShardRepository stockShardRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void seed() {
+        for (String table : List.of("ticket_stock_shards", "event_ticket_type", "ticket_type", "event")) {
+            jdbcTemplate.update("DELETE FROM otp." + table);
+        }
+        jdbcTemplate.update("INSERT INTO otp.event (id, title) VALUES (?, 'MLB 東京開幕戰')", EVENT);
+        jdbcTemplate.update("INSERT INTO otp.event (id, title) VALUES (2, '別的活動')");
+        jdbcTemplate.update("INSERT INTO otp.ticket_type (id, name, price) VALUES (1, '一般票', 1000)");
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit) VALUES (?, ?, 1, 1, 5)", LIMITED_TICKET, EVENT);
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit) VALUES (?, ?, 1, 0, NULL)", UNLIMITED_TICKET, EVENT);
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit) VALUES (?, ?, 1, 1, 40)", SHARDED_TICKET, EVENT);
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit) VALUES (4, 2, 1, 1, 9)");
+        stockShardRepository.enable(SHARDED_TICKET, 4);
+        availabilityRepository.invalidateAll();
+    }
+
+    @Test
+    void staleWhileRevalidate() throws Exception {
+        long initialLoads = availabilityRepository.stats().loadCount();
+        assertEquals(List.of(
+            new TicketAvailability(LIMITED_TICKET, true, 5),
+            new TicketAvailability(UNLIMITED_TICKET, false, 0),
+            new TicketAvailability(SHARDED_TICKET, true, 40)
+        ), availabilityRepository.findByEvent(EVENT));
+        assertEquals(List.of(new TicketAvailability(4, true, 9)), availabilityRepository.findByEvent(2L));
+        assertEquals(List.of(), availabilityRepository.findByEvent(99L));
+        // 兩個活動同一份快照：只查一次
+        assertEquals(initialLoads + 1, availabilityRepository.stats().loadCount());
+
+        // 還沒到 refresh：資料庫變了也還是舊的
+        jdbcTemplate.update("UPDATE otp.event_ticket_type SET custom_limit = 0 WHERE id = ?", LIMITED_TICKET);
+        assertEquals(5, availabilityRepository.find(LIMITED_TICKET).remaining());
+
+        // 過了 refresh：一大群同時讀，不用等資料庫 (背景查詢還沒回來就拿舊的)，背景只查一次
+        Thread.sleep(300);
+        long loads = availabilityRepository.stats().loadCount();
+        List<Future<Integer>> storm = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(16)) {
+            for (int i = 0; i < 1_000; i++) {
+                storm.add(executor.submit(() -> availabilityRepository.find(LIMITED_TICKET).remaining()));
+            }
+        }
+        for (Future<Integer> reader : storm) {
+            assertTrue(reader.get() == 5 || reader.get() == 0, String.valueOf(reader.get()));
+        }
+        awaitRemaining(LIMITED_TICKET, 0);
+        assertEquals(loads + 1, availabilityRepository.stats().loadCount());
+    }
+
+    @Test
+    void findShortagesUsesSnapshotAsPreCheck() throws Exception {
+        assertEquals(List.of(), orderRepository.findShortages(Map.of(LIMITED_TICKET, 5, SHARDED_TICKET, 40, UNLIMITED_TICKET, 1_000)));
+
+        // 快照說夠，資料庫說不夠：以資料庫為準
+        jdbcTemplate.update("UPDATE otp.event_ticket_type SET custom_limit = 2 WHERE id = ?", LIMITED_TICKET);
+        assertEquals(List.of(LIMITED_TICKET), orderRepository.findShortages(Map.of(LIMITED_TICKET, 5)));
+
+        // 快照已經刷新成不夠：資料庫補回來了也先擋下，不查資料庫 (最多晚一個 refresh)
+        Thread.sleep(300);
+        availabilityRepository.findByEvent(EVENT);
+        awaitRemaining(LIMITED_TICKET, 2);
+        jdbcTemplate.update("UPDATE otp.event_ticket_type SET custom_limit = 10 WHERE id = ?", LIMITED_TICKET);
+        SqlStatementCounter.begin();
+        assertEquals(List.of(LIMITED_TICKET), orderRepository.findShortages(Map.of(LIMITED_TICKET, 5)));
+        assertEquals(0, SqlStatementCounter.end());
+        assertEquals(List.of(), orderRepository.findShortages(Map.of(LIMITED_TICKET, 2)));
+    }
+
+    private void awaitRemaining(long ticketTypeId, int expected) throws InterruptedException {
+        for (int i = 0; i < 100 && availabilityRepository.find(ticketTypeId).remaining() != expected; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(expected, availabilityRepository.find(ticketTypeId).remaining());
+    }
+}
@@ -0,0 +1,55 @@
+package tw.luke.checkout.repository;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import tw.luke.checkout.H2CheckoutContext;
+import tw.luke.checkout.dto.CartSnapshot;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// OrderRepository 的讀取路徑：RowMapper 直接把 ResultSet 讀成 record / 基本型別 (金額用 long 分)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(3)
+public class OrderRepositoryBenchmark {
+
+    // 購物車固定在另一個使用者身上，不會被 processOrder 清掉
+    private static final long CART_USER_ID = 42L;
+    private static final Map<Long, Integer> SHORTAGE_CHECK = Map.of(H2CheckoutContext.EVENT_TICKET_TYPE_ID, 4);
+
+    private OrderRepository orderRepository;
+
+    @Setup
+    public void setUp(H2CheckoutContext context) {
+        orderRepository = context.bean(OrderRepository.class);
+        JdbcTemplate jdbcTemplate = context.bean(JdbcTemplate.class);
+        jdbcTemplate.update("DELETE FROM otp.cart_items WHERE user_id = ?", CART_USER_ID);
+        jdbcTemplate.update("INSERT INTO otp.cart_items (user_id, event_ticket_type_id, quantity) VALUES (?, 1, 2)", CART_USER_ID);
+        jdbcTemplate.update("INSERT INTO otp.cart_items (user_id, event_ticket_type_id, quantity) VALUES (?, 2, 1)", CART_USER_ID);
+    }
+
+    @Benchmark
+    public CartSnapshot loadCartSnapshot() {
+        return orderRepository.loadCartSnapshot(CART_USER_ID);
+    }
+
+    // 加入購物車的庫存預檢 (快照夠的話還是查一次資料庫)
+    @Benchmark
+    public List<Long> findShortages() {
+        return orderRepository.findShortages(SHORTAGE_CHECK);
+    }
+}
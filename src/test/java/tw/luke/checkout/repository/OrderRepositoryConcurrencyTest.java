@@ -0,0 +1,158 @@
+package tw.luke.checkout.repository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import tw.luke.checkout.dto.CartSnapshot;
+import tw.luke.checkout.config.ReadYourWrites;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 搶票情境：幾千個結帳同時扣同一個票種，確認不會超賣
+@JdbcTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("h2")
+@Import({ OrderRepository.class, TicketCatalogRepository.class, StockShardRepository.class, AvailabilityRepository.class, ReadYourWrites.class, SimpleMeterRegistry.class })
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class OrderRepositoryConcurrencyTest {
+
+    private static final long HOT_TICKET = 1L;
+    private static final long UNLIMITED_TICKET = 2L;
+    private static final long LAST_ONE_TICKET = 3L;
+
+    private static final int STOCK = 500;
+    private static final int BUYERS = 2000;
+    private static final int THREADS = 32;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private StockShardRepository stockShardRepository;
+
+    @BeforeEach
+    void seed() {
+        jdbcTemplate.update("DELETE FROM otp.cart_items");
+        jdbcTemplate.update("DELETE FROM otp.ticket_stock_shards");
+        jdbcTemplate.update("DELETE FROM otp.event_ticket_type");
+        jdbcTemplate.update("DELETE FROM otp.ticket_type");
+        jdbcTemplate.update("DELETE FROM otp.event");
+
+        jdbcTemplate.update("INSERT INTO otp.event (id, title) VALUES (1, 'MLB 東京開幕戰')");
+        jdbcTemplate.update("INSERT INTO otp.ticket_type (id, name, price) VALUES (1, '一般票', 1000)");
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit) VALUES (?, 1, 1, 1, ?)", HOT_TICKET, STOCK);
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit) VALUES (?, 1, 1, 0, NULL)", UNLIMITED_TICKET);
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit) VALUES (?, 1, 1, 1, 1)", LAST_ONE_TICKET);
+
+        List<Object[]> carts = new ArrayList<>();
+        for (long userId = 1; userId <= BUYERS; userId++) {
+            carts.add(new Object[] { userId, HOT_TICKET, 1 });
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO otp.cart_items (user_id, event_ticket_type_id, quantity) VALUES (?, ?, ?)", carts);
+    }
+
+    @Test
+    void parallelCheckoutsNeverOversell() throws Exception {
+        AtomicInteger sold = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+
+        runBuyers(userId -> {
+            try {
+                orderRepository.decreaseStock(orderRepository.loadCartSnapshot(userId));
+                sold.incrementAndGet();
+            } catch (StockShortageException e) {
+                rejected.incrementAndGet();
+            }
+        });
+
+        assertEquals(STOCK, sold.get());
+        assertEquals(BUYERS - STOCK, rejected.get());
+        assertEquals(0, remaining(HOT_TICKET));
+    }
+
+    @Test
+    void shardedStockNeverOversells() throws Exception {
+        stockShardRepository.enable(HOT_TICKET, 8);
+        // 一半的人買兩張：分片剩一張的時候要從別的分片湊
+        jdbcTemplate.update("UPDATE otp.cart_items SET quantity = 2 WHERE MOD(user_id, 2) = 0");
+        assertEquals(STOCK, orderRepository.loadCartSnapshot(1).lines().get(0).stockAtLoad());
+
+        AtomicInteger sold = new AtomicInteger();
+        runBuyers(userId -> {
+            try {
+                CartSnapshot cart = orderRepository.loadCartSnapshot(userId);
+                orderRepository.decreaseStock(cart);
+                sold.addAndGet(cart.totalQuantity());
+            } catch (StockShortageException e) {
+                // 賣完
+            }
+        });
+
+        int left = jdbcTemplate.queryForObject(
+            "SELECT SUM(remaining) FROM otp.ticket_stock_shards WHERE event_ticket_type_id = ?", Integer.class, HOT_TICKET);
+        assertEquals(STOCK, sold.get() + left);
+        assertTrue(left <= 1, "只可能剩下不夠買兩張的零頭: " + left);
+        assertEquals(0, remaining(HOT_TICKET));
+        assertEquals(List.of(), orderRepository.findShortages(Map.of(HOT_TICKET, left)));
+    }
+
+    @Test
+    void shortLineRollsBackWholeCart() {
+        long userId = BUYERS + 1;
+        jdbcTemplate.update("INSERT INTO otp.cart_items (user_id, event_ticket_type_id, quantity) VALUES (?, ?, 2)", userId, HOT_TICKET);
+        jdbcTemplate.update("INSERT INTO otp.cart_items (user_id, event_ticket_type_id, quantity) VALUES (?, ?, 3)", userId, UNLIMITED_TICKET);
+        jdbcTemplate.update("INSERT INTO otp.cart_items (user_id, event_ticket_type_id, quantity) VALUES (?, ?, 2)", userId, LAST_ONE_TICKET);
+
+        StockShortageException e = assertThrows(StockShortageException.class, () -> orderRepository.decreaseStock(orderRepository.loadCartSnapshot(userId)));
+
+        assertEquals(List.of(LAST_ONE_TICKET), e.getShortTicketTypeIds());
+        assertEquals(STOCK, remaining(HOT_TICKET));
+        assertEquals(1, remaining(LAST_ONE_TICKET));
+    }
+
+    private void runBuyers(BuyerAction action) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (long userId = 1; userId <= BUYERS; userId++) {
+                long buyer = userId;
+                futures.add(pool.submit(() -> action.checkout(buyer)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private int remaining(long ticketTypeId) {
+        return jdbcTemplate.queryForObject("SELECT custom_limit FROM otp.event_ticket_type WHERE id = ?", Integer.class, ticketTypeId);
+    }
+
+    @FunctionalInterface
+    private interface BuyerAction {
+        void checkout(long userId);
+    }
+}
@@ -0,0 +1,178 @@
+package tw.luke.checkout.repository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import tw.luke.checkout.config.ReadYourWrites;
+import tw.luke.checkout.dto.CartSnapshot;
+import tw.luke.checkout.dto.CheckoutForm;
+import tw.luke.checkout.service.strategy.PaymentStrategy;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 結帳熱門路徑的查詢計畫：把 OrderRepository 的每個方法都跑一次，記下實際送出的 SQL (含它呼叫的票種目錄、分片庫存)，
+// 再逐一 EXPLAIN，任何一句整張表掃 (H2 的計畫裡出現 tableScan) 就失敗 —— 通常代表 db/migration 少了索引
+@JdbcTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("h2")
+@Import({ OrderRepository.class, TicketCatalogRepository.class, StockShardRepository.class, AvailabilityRepository.class, ReadYourWrites.class, SimpleMeterRegistry.class })
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class OrderRepositoryQueryPlanTest {
+
+    private static final long HOT_TICKET = 1L;
+    private static final long UNLIMITED_TICKET = 2L;
+    private static final long SHARDED_TICKET = 3L;
+
+    // 送出過的 SQL (依內容去重)
+    private static final Set<String> RECORDED = ConcurrentHashMap.newKeySet();
+
+    @TestConfiguration
+    static class RecordingConfig {
+
+        // DataSource 包一層，記下每一個 prepareStatement 的 SQL
+        @Bean
+        static BeanPostProcessor recordingDataSource() {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    if (!(bean instanceof DataSource dataSource)) {
+                        return bean;
+                    }
+                    return new DelegatingDataSource(dataSource) {
+                        @Override
+                        public Connection getConnection() throws SQLException {
+                            return recording(super.getConnection());
+                        }
+                    };
+                }
+            };
+        }
+
+        private static Connection recording(Connection connection) {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+                (proxy, method, args) -> {
+                    if (method.getName().equals("prepareStatement") && args[0] instanceof String sql) {
+                        RECORDED.add(sql);
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        }
+    }
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private StockShardRepository stockShardRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    void seed() {
+        for (String table : List.of("checkout_orders", "orders", "reservation_items", "reservations", "cart_items",
+                "ticket_stock_shards", "event_ticket_type", "ticket_type", "event")) {
+            jdbcTemplate.update("DELETE FROM otp." + table);
+        }
+        jdbcTemplate.update("INSERT INTO otp.event (id, title) VALUES (1, '查詢計畫場')");
+        jdbcTemplate.update("INSERT INTO otp.ticket_type (id, name, price) VALUES (1, '一般票', 1000)");
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit) VALUES (?, 1, 1, 1, 100)", HOT_TICKET);
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit) VALUES (?, 1, 1, 0, NULL)", UNLIMITED_TICKET);
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit) VALUES (?, 1, 1, 1, 100)", SHARDED_TICKET);
+        stockShardRepository.enable(SHARDED_TICKET, 4);
+
+        // 讓每張表都有其他使用者的資料，全表掃與索引的成本才分得出來
+        List<Object[]> carts = new ArrayList<>();
+        for (long userId = 1; userId <= 200; userId++) {
+            carts.add(new Object[] { userId, HOT_TICKET, 1 });
+            carts.add(new Object[] { userId, UNLIMITED_TICKET, 1 });
+            carts.add(new Object[] { userId, SHARDED_TICKET, 1 });
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO otp.cart_items (user_id, event_ticket_type_id, quantity) VALUES (?, ?, ?)", carts);
+        RECORDED.clear();
+    }
+
+    @Test
+    void checkoutQueriesUseIndexes() throws SQLException {
+        CheckoutForm form = new CheckoutForm("ATM", "12345", "E_INVOICE", null, "buyer@example.com", "SAME_EMAIL", null);
+        for (long userId = 1; userId <= 3; userId++) {
+            long buyer = userId;
+            transactionTemplate.executeWithoutResult(status -> {
+                CartSnapshot cart = orderRepository.loadCartSnapshot(buyer);
+                orderRepository.decreaseStock(cart);
+                long reservationId = orderRepository.createReservations(cart, PaymentStrategy.DEFAULT_HOLD);
+                orderRepository.createOrder(cart, form, reservationId, "T" + buyer);
+                orderRepository.clearCart(buyer);
+            });
+        }
+        orderRepository.findShortages(Map.of(HOT_TICKET, 1, UNLIMITED_TICKET, 1, SHARDED_TICKET, 1));
+        orderRepository.checkStock(HOT_TICKET, 1);
+        orderRepository.checkStock(SHARDED_TICKET, 1);
+
+        // EXPLAIN 本身也會經過 DataSource，先複製一份
+        List<String> executed = List.copyOf(RECORDED);
+        assertFalse(executed.isEmpty());
+        List<String> scans = new ArrayList<>();
+        for (String sql : executed) {
+            String plan = explain(sql);
+            if (plan.toLowerCase(Locale.ROOT).contains(".tablescan")) {
+                scans.add(plan);
+            }
+        }
+        assertTrue(scans.isEmpty(), "整張表掃的查詢：\n" + String.join("\n\n", scans));
+    }
+
+    // 參數全部代 1 (計畫只看有沒有用到索引，跟實際的值無關)
+    private String explain(String sql) throws SQLException {
+        return jdbcTemplate.execute((Connection connection) -> {
+            try (PreparedStatement ps = connection.prepareStatement("EXPLAIN " + sql)) {
+                int parameters = ps.getParameterMetaData().getParameterCount();
+                for (int i = 1; i <= parameters; i++) {
+                    ps.setObject(i, 1);
+                }
+                StringBuilder plan = new StringBuilder();
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        plan.append(rs.getString(1));
+                    }
+                }
+                return plan.toString();
+            }
+        });
+    }
+}
@@ -0,0 +1,102 @@
+package tw.luke.checkout.repository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 預約到期回收：過期的還庫存、沒過期的不動、兩台機器同時認領只還一次
+@JdbcTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("h2")
+@Import({ ReservationRepository.class, StockShardRepository.class })
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ReservationRepositoryTest {
+
+    private static final long LIMITED_TICKET = 1L;
+    private static final long UNLIMITED_TICKET = 2L;
+
+    @Autowired
+    private ReservationRepository reservationRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void seed() {
+        jdbcTemplate.update("DELETE FROM otp.orders");
+        jdbcTemplate.update("DELETE FROM otp.reservation_items");
+        jdbcTemplate.update("DELETE FROM otp.reservations");
+        jdbcTemplate.update("DELETE FROM otp.event_ticket_type");
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit) VALUES (?, 1, 1, 1, 10)", LIMITED_TICKET);
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit) VALUES (?, 1, 1, 0, NULL)", UNLIMITED_TICKET);
+    }
+
+    @Test
+    void expiredReservationReturnsStockAndExpiresOrder() {
+        long expired = reservation(-60, 3, 2);
+        long live = reservation(600, 4, 0);
+        jdbcTemplate.update("INSERT INTO otp.orders (user_id, event_id, total_amount, status, reservation_id) VALUES (1, 1, 3000, 'PENDING', ?)", expired);
+
+        List<ReservationRepository.Due> due = reservationRepository.findLockedDueWithin(Duration.ofMinutes(2), 100);
+        assertEquals(List.of(expired), due.stream().map(ReservationRepository.Due::reservationId).toList());
+        assertTrue(due.get(0).secondsLeft() <= 0);
+
+        assertEquals(List.of(expired), reservationRepository.expireAndRelease(List.of(live, expired)));
+
+        assertEquals(13, stock(LIMITED_TICKET));
+        assertEquals("EXPIRED", status(expired));
+        assertEquals("LOCKED", status(live));
+        assertEquals("EXPIRED", jdbcTemplate.queryForObject("SELECT status FROM otp.orders WHERE reservation_id = ?", String.class, expired));
+        assertTrue(reservationRepository.findLockedDueWithin(Duration.ofMinutes(2), 100).isEmpty());
+    }
+
+    @Test
+    void concurrentSweepersReleaseOnlyOnce() throws Exception {
+        long a = reservation(-5, 1, 0);
+        long b = reservation(-5, 2, 1);
+
+        // 模擬兩台機器拿到同一批 (順序不同)
+        CompletableFuture<List<Long>> node1 = CompletableFuture.supplyAsync(() -> reservationRepository.expireAndRelease(List.of(a, b)));
+        CompletableFuture<List<Long>> node2 = CompletableFuture.supplyAsync(() -> reservationRepository.expireAndRelease(List.of(b, a)));
+
+        assertEquals(2, node1.get().size() + node2.get().size());
+        assertEquals(13, stock(LIMITED_TICKET));
+    }
+
+    // 建一筆預約，expires_at = 現在 + offsetSeconds
+    private long reservation(int offsetSeconds, int limitedQty, int unlimitedQty) {
+        jdbcTemplate.update("""
+            INSERT INTO otp.reservations
+            (user_id, event_id, quantity, ticket_type_id, totalAmount, scheduleId, userId, created_at, expires_at, status)
+            VALUES (1, 1, ?, 1, 0, 1, 1, NOW(), TIMESTAMPADD(SECOND, ?, NOW()), 'LOCKED')
+        """, limitedQty + unlimitedQty, offsetSeconds);
+        long id = jdbcTemplate.queryForObject("SELECT MAX(id) FROM otp.reservations", Long.class);
+        jdbcTemplate.update("INSERT INTO otp.reservation_items (reservationId, ticketTypeId, quantity, unitPrice) VALUES (?, ?, ?, 1000)", id, LIMITED_TICKET, limitedQty);
+        if (unlimitedQty > 0) {
+            jdbcTemplate.update("INSERT INTO otp.reservation_items (reservationId, ticketTypeId, quantity, unitPrice) VALUES (?, ?, ?, 1000)", id, UNLIMITED_TICKET, unlimitedQty);
+        }
+        return id;
+    }
+
+    private int stock(long ticketTypeId) {
+        return jdbcTemplate.queryForObject("SELECT custom_limit FROM otp.event_ticket_type WHERE id = ?", Integer.class, ticketTypeId);
+    }
+
+    private String status(long reservationId) {
+        return jdbcTemplate.queryForObject("SELECT status FROM otp.reservations WHERE id = ?", String.class, reservationId);
+    }
+}
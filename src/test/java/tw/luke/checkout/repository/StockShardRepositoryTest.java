@@ -0,0 +1,106 @@
+package tw.luke.checkout.repository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import tw.luke.checkout.service.StockShardRebalancer;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 分片庫存：開關分片、重新分配、預約到期還到分片，總數都不能變
+@JdbcTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("h2")
+@Import({ StockShardRepository.class, ReservationRepository.class })
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class StockShardRepositoryTest {
+
+    private static final long HOT_TICKET = 1L;
+
+    @Autowired
+    private StockShardRepository stockShardRepository;
+
+    @Autowired
+    private ReservationRepository reservationRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void seed() {
+        jdbcTemplate.update("DELETE FROM otp.reservation_items");
+        jdbcTemplate.update("DELETE FROM otp.reservations");
+        jdbcTemplate.update("DELETE FROM otp.ticket_stock_shards");
+        jdbcTemplate.update("DELETE FROM otp.event_ticket_type");
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit) VALUES (?, 1, 1, 1, 103)", HOT_TICKET);
+    }
+
+    @Test
+    void enableRebalanceAndDisableKeepTotal() {
+        stockShardRepository.enable(HOT_TICKET, 4);
+        assertEquals(List.of(26, 26, 26, 25), remaining());
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT custom_limit FROM otp.event_ticket_type WHERE id = ?", Integer.class, HOT_TICKET));
+        assertEquals(List.of(HOT_TICKET), stockShardRepository.findSharded());
+
+        // 賣到不平均：分片 0 見底
+        jdbcTemplate.update("UPDATE otp.ticket_stock_shards SET remaining = 0 WHERE shard_no = 0");
+        StockShardRebalancer rebalancer = new StockShardRebalancer(stockShardRepository, 20);
+        assertEquals(Map.of(HOT_TICKET, 3), rebalancer.rebalanceAll());
+        assertEquals(List.of(26, 26, 25), remaining());
+        assertEquals(Map.of(), rebalancer.rebalanceAll());
+
+        // 剩下的不夠每片 20 張就減少分片數
+        jdbcTemplate.update("UPDATE otp.ticket_stock_shards SET remaining = 10");
+        assertEquals(Map.of(HOT_TICKET, 1), rebalancer.rebalanceAll());
+        assertEquals(List.of(30), remaining());
+
+        stockShardRepository.disable(HOT_TICKET);
+        assertEquals(List.of(), remaining());
+        assertEquals(30, jdbcTemplate.queryForObject("SELECT custom_limit FROM otp.event_ticket_type WHERE id = ?", Integer.class, HOT_TICKET));
+        assertTrue(stockShardRepository.findSharded().isEmpty());
+    }
+
+    @Test
+    void expiredReservationReturnsStockToShards() {
+        stockShardRepository.enable(HOT_TICKET, 2);
+        jdbcTemplate.update("""
+            INSERT INTO otp.reservations
+            (user_id, event_id, quantity, ticket_type_id, totalAmount, scheduleId, userId, created_at, expires_at, status)
+            VALUES (1, 1, 3, 1, 0, 1, 1, NOW(), TIMESTAMPADD(SECOND, -60, NOW()), 'LOCKED')
+        """);
+        long id = jdbcTemplate.queryForObject("SELECT MAX(id) FROM otp.reservations", Long.class);
+        jdbcTemplate.update("INSERT INTO otp.reservation_items (reservationId, ticketTypeId, quantity, unitPrice) VALUES (?, ?, 3, 1000)", id, HOT_TICKET);
+
+        assertEquals(List.of(id), reservationRepository.expireAndRelease(List.of(id)));
+
+        assertEquals(106, remaining().stream().mapToInt(Integer::intValue).sum());
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT custom_limit FROM otp.event_ticket_type WHERE id = ?", Integer.class, HOT_TICKET));
+    }
+
+    @Test
+    void decreaseFallsBackToOtherShards() {
+        stockShardRepository.enable(HOT_TICKET, 3);
+        jdbcTemplate.update("UPDATE otp.ticket_stock_shards SET remaining = 1");
+
+        // 沒有一個分片夠 2 張，從兩個分片湊
+        assertTrue(stockShardRepository.decrease(HOT_TICKET, 3, 2));
+        assertEquals(1, remaining().stream().mapToInt(Integer::intValue).sum());
+        assertFalse(stockShardRepository.decrease(HOT_TICKET, 3, 2));
+    }
+
+    private List<Integer> remaining() {
+        return stockShardRepository.shards(HOT_TICKET).stream().map(StockShardRepository.Shard::remaining).toList();
+    }
+}
@@ -0,0 +1,129 @@
+package tw.luke.checkout.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import tw.luke.checkout.config.SqlStatementCounter;
+import tw.luke.checkout.repository.AvailabilityRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// 活動剩餘數量 (快照) 與即時庫存 (SSE)：一個 tick 不管有幾條連線都只查一次資料庫，只推有變的票種；新連線與商品頁拿記憶體裡同一份快照
+@SpringBootTest(properties = {
+    "app.checkout-queue.enabled=false",
+    "app.reservation-expiry.enabled=false",
+    // tick 由測試自己呼叫
+    "app.availability.tick=1h",
+    "app.availability.heartbeat=1h"
+})
+@AutoConfigureMockMvc
+@ActiveProfiles("h2")
+class AvailabilityStreamTest {
+
+    private static final int CONNECTIONS = 200;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private AvailabilityStream availabilityStream;
+
+    @Autowired
+    private AvailabilityRepository availabilityRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void seed() {
+        for (String table : List.of("ticket_stock_shards", "event_ticket_type", "ticket_type", "event")) {
+            jdbcTemplate.update("DELETE FROM otp." + table);
+        }
+        jdbcTemplate.update("INSERT INTO otp.event (id, title) VALUES (1, 'MLB 東京開幕戰')");
+        jdbcTemplate.update("INSERT INTO otp.ticket_type (id, name, price) VALUES (1, '一般票', 1000)");
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit) VALUES (1, 1, 1, 1, 5)");
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit) VALUES (2, 1, 1, 1, 3)");
+        // 不限量的不推
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit) VALUES (3, 1, 1, 0, NULL)");
+        availabilityRepository.invalidateAll();
+    }
+
+    @Test
+    void oneQueryPerTickFannedOutToEveryConnection() throws Exception {
+        List<MvcResult> connections = new ArrayList<>();
+        for (int i = 0; i < CONNECTIONS; i++) {
+            connections.add(mockMvc.perform(get("/api/checkout/availability")).andExpect(request().asyncStarted()).andReturn());
+        }
+        assertEquals(CONNECTIONS, availabilityStream.subscriberCount());
+
+        assertEquals(1, tick());
+        String full = event("{\"1\":5,\"2\":3}");
+        for (MvcResult connection : connections) {
+            assertEquals(full, connection.getResponse().getContentAsString());
+        }
+
+        // 兩次結帳合併在同一個 tick：只推有變的票種
+        jdbcTemplate.update("UPDATE otp.event_ticket_type SET custom_limit = 1 WHERE id = 2");
+        jdbcTemplate.update("UPDATE otp.event_ticket_type SET custom_limit = 0 WHERE id = 2");
+        assertEquals(1, tick());
+        for (MvcResult connection : connections) {
+            assertEquals(full + event("{\"2\":0}"), connection.getResponse().getContentAsString());
+        }
+
+        // 沒有變動就不推
+        assertEquals(1, tick());
+        assertEquals(full + event("{\"2\":0}"), connections.get(0).getResponse().getContentAsString());
+
+        // 新連線馬上拿到記憶體裡的完整快照，不查資料庫
+        SqlStatementCounter.begin();
+        MvcResult late = mockMvc.perform(get("/api/checkout/availability")).andReturn();
+        assertEquals(0, SqlStatementCounter.end());
+        assertEquals(event("{\"1\":5,\"2\":0}"), late.getResponse().getContentAsString());
+
+        // 商品頁載入跟 tick 共用同一份快照：不用另外查
+        SqlStatementCounter.begin();
+        mockMvc.perform(get("/api/checkout/events/1/availability"))
+            .andExpect(content().json("[{\"id\":1,\"remaining\":5},{\"id\":2,\"remaining\":0},{\"id\":3,\"limited\":false}]"));
+        assertEquals(0, SqlStatementCounter.end());
+    }
+
+    @Test
+    void eventAvailabilityIsServedFromSnapshot() throws Exception {
+        mockMvc.perform(get("/api/checkout/events/1/availability"))
+            .andExpect(status().isOk())
+            .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=1, public"))
+            .andExpect(content().json("[{\"id\":1,\"limited\":true,\"remaining\":5},"
+                + "{\"id\":2,\"limited\":true,\"remaining\":3},{\"id\":3,\"limited\":false,\"remaining\":0}]"));
+
+        // 快照還沒過期：不查資料庫
+        SqlStatementCounter.begin();
+        mockMvc.perform(get("/api/checkout/events/1/availability")).andExpect(status().isOk());
+        assertEquals(0, SqlStatementCounter.end());
+    }
+
+    // 回傳這個 tick 送了幾個 SQL
+    private int tick() {
+        SqlStatementCounter.begin();
+        availabilityStream.tick();
+        return SqlStatementCounter.end();
+    }
+
+    private static String event(String data) {
+        return "event:" + AvailabilityStream.EVENT + "\ndata:" + data + "\n\n";
+    }
+}
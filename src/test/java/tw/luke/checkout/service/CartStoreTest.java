@@ -0,0 +1,147 @@
+package tw.luke.checkout.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import tw.luke.checkout.config.ReadYourWrites;
+import tw.luke.checkout.dto.CheckoutForm;
+import tw.luke.checkout.repository.CartRepository;
+import tw.luke.checkout.repository.StockShortageException;
+import tw.luke.checkout.repository.TicketCatalogRepository;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 記憶體購物車：變動合併寫回、結帳前一定寫進去、重啟後從資料庫恢復
+@SpringBootTest(properties = {
+    "app.checkout-queue.enabled=false",
+    "app.reservation-expiry.enabled=false",
+    "app.cart-store.flush-interval=1h"
+})
+@ActiveProfiles("h2")
+class CartStoreTest {
+
+    private static final long USER = 1L;
+
+    @Autowired
+    private CartStore cartStore;
+
+    @Autowired
+    private CartRepository cartRepository;
+
+    @Autowired
+    private TicketCatalogRepository ticketCatalogRepository;
+
+    @Autowired
+    private ReadYourWrites readYourWrites;
+
+    @Autowired
+    private CheckoutService checkoutService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void seed() {
+        for (String table : List.of("checkout_idempotency", "checkout_orders", "orders", "reservation_items", "reservations",
+                                    "cart_items", "event_ticket_type", "ticket_type", "event")) {
+            jdbcTemplate.update("DELETE FROM otp." + table);
+        }
+        jdbcTemplate.update("INSERT INTO otp.event (id, title) VALUES (1, 'MLB 東京開幕戰')");
+        jdbcTemplate.update("INSERT INTO otp.ticket_type (id, name, price) VALUES (1, '一般票', 1000)");
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit) VALUES (1, 1, 1, 1, 3)");
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit) VALUES (2, 1, 1, 0, NULL)");
+        // 上一個測試留在記憶體的購物車清掉
+        for (Long ticketTypeId : cartStore.items(USER).keySet()) {
+            cartStore.setQuantity(USER, ticketTypeId, 0);
+        }
+        cartStore.flush();
+    }
+
+    @Test
+    void mutationsAreCoalescedUntilFlush() {
+        for (int quantity = 1; quantity <= 4; quantity++) {
+            cartStore.setQuantity(USER, 1, quantity);
+        }
+        cartStore.setQuantity(USER, 2, 1);
+        cartStore.setQuantity(USER, 2, 0);
+
+        // 讀記憶體，資料庫還沒寫
+        assertEquals(Map.of(1L, 4), cartStore.items(USER));
+        assertEquals(0, cartRows());
+
+        cartStore.flush();
+        assertEquals(List.of(Map.of("EVENT_TICKET_TYPE_ID", 1L, "QUANTITY", 4)),
+            jdbcTemplate.queryForList("SELECT event_ticket_type_id, quantity FROM otp.cart_items WHERE user_id = ?", USER));
+    }
+
+    @Test
+    void flushUpsertsInPlaceAndDeletesRemovedLines() {
+        cartStore.setQuantity(USER, 1, 2);
+        cartStore.setQuantity(USER, 2, 1);
+        cartStore.flush();
+        Long rowId = jdbcTemplate.queryForObject(
+            "SELECT id FROM otp.cart_items WHERE user_id = ? AND event_ticket_type_id = 1", Long.class, USER);
+
+        cartStore.update(USER, items -> Map.of(1L, items.get(1L) + 1, 2L, 0));
+        cartStore.flush();
+
+        // 同一列改張數 (ON DUPLICATE KEY UPDATE)，移除的票種刪掉
+        assertEquals(List.of(Map.of("ID", rowId, "QUANTITY", 3)),
+            jdbcTemplate.queryForList("SELECT id, quantity FROM otp.cart_items WHERE user_id = ?", USER));
+    }
+
+    @Test
+    void checkoutSeesUnflushedChangesAndClearsTheCart() {
+        cartStore.setQuantity(USER, 1, 2);
+        cartStore.setQuantity(USER, 2, 1);
+        assertEquals(0, cartRows());
+
+        assertEquals("success", checkoutService.processOrder(1L, atm()).get("status"));
+
+        assertEquals(1, jdbcTemplate.queryForObject("SELECT custom_limit FROM otp.event_ticket_type WHERE id = 1", Integer.class));
+        assertTrue(cartStore.items(USER).isEmpty());
+        assertEquals(0, cartRows());
+        cartStore.flush();
+        assertEquals(0, cartRows());
+    }
+
+    @Test
+    void failedCheckoutKeepsTheCart() {
+        cartStore.setQuantity(USER, 1, 4);
+
+        assertThrows(StockShortageException.class, () -> checkoutService.processOrder(1L, atm()));
+
+        // 結帳的交易 rollback 了，購物車還在，之後照常寫回
+        assertEquals(Map.of(1L, 4), cartStore.items(USER));
+        cartStore.flush();
+        assertEquals(1, cartRows());
+    }
+
+    @Test
+    void restartReloadsFlushedCart() {
+        cartStore.setQuantity(USER, 1, 2);
+        cartStore.setQuantity(USER, 2, 3);
+        cartStore.shutdown();
+
+        CartStore restarted = new CartStore(cartRepository, ticketCatalogRepository, readYourWrites, 500, Duration.ofMinutes(30));
+        assertEquals(Map.of(1L, 2, 2L, 3), restarted.items(USER));
+        assertEquals(1L, restarted.eventId(USER));
+    }
+
+    private int cartRows() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM otp.cart_items WHERE user_id = ?", Integer.class, USER);
+    }
+
+    private static CheckoutForm atm() {
+        return new CheckoutForm("ATM", "12345", "COMPANY", "12345678", "cart@example.com", null, null);
+    }
+}
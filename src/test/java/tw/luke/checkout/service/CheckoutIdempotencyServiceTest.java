@@ -0,0 +1,138 @@
+package tw.luke.checkout.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import tw.luke.checkout.dto.CheckoutForm;
+import tw.luke.checkout.repository.DuplicateSubmissionException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// 連點 / 重送同一個 idempotency key：只成立一筆訂單、只扣一次庫存，大家拿到同一份結果
+// 結果沒存下來的 key 過一段時間可以從訂單重建 (訂單已經失效的話重新結帳)
+@SpringBootTest(properties = {
+    "app.checkout-queue.enabled=false",
+    "app.reservation-expiry.enabled=false",
+    "app.checkout-idempotency.stale-after=1m"
+})
+@ActiveProfiles("h2")
+class CheckoutIdempotencyServiceTest {
+
+    private static final int STOCK = 10;
+
+    @Autowired
+    private CheckoutIdempotencyService checkoutIdempotencyService;
+
+    @Autowired
+    private CheckoutService checkoutService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void seed() {
+        for (String table : List.of("checkout_idempotency", "checkout_orders", "orders", "reservation_items", "reservations",
+                                    "cart_items", "event_ticket_type", "ticket_type", "event")) {
+            jdbcTemplate.update("DELETE FROM otp." + table);
+        }
+        jdbcTemplate.update("INSERT INTO otp.event (id, title) VALUES (1, 'MLB 東京開幕戰')");
+        jdbcTemplate.update("INSERT INTO otp.ticket_type (id, name, price) VALUES (1, '一般票', 1000)");
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit) VALUES (1, 1, 1, 1, ?)", STOCK);
+        jdbcTemplate.update("INSERT INTO otp.cart_items (user_id, event_ticket_type_id, quantity) VALUES (1, 1, 2)");
+    }
+
+    @Test
+    void concurrentDuplicatesCheckoutOnce() throws Exception {
+        CheckoutForm form = atm("double-click-1");
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Map<String, String>>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(pool.submit(() -> checkoutIdempotencyService.processOrder(1L, form)));
+            }
+            for (Future<Map<String, String>> future : futures) {
+                assertEquals("success", future.get().get("status"));
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        assertEquals(1, count("orders"));
+        assertEquals(1, count("reservations"));
+        assertEquals(STOCK - 2, jdbcTemplate.queryForObject("SELECT custom_limit FROM otp.event_ticket_type WHERE id = 1", Integer.class));
+    }
+
+    @Test
+    void storedResultIsReturnedWithoutTouchingInventory() {
+        Map<String, String> first = checkoutIdempotencyService.processOrder(1L, atm("retry-1"));
+
+        // 另一台機器 / 重啟後：本機記憶體沒有，資料庫擋下來
+        assertThrows(DuplicateSubmissionException.class, () -> checkoutService.processOrder(1L, atm("retry-1")));
+
+        jdbcTemplate.update("INSERT INTO otp.cart_items (user_id, event_ticket_type_id, quantity) VALUES (1, 1, 2)");
+        assertEquals(first, checkoutIdempotencyService.processOrder(1L, atm("retry-1")));
+        assertEquals(1, count("orders"));
+        assertEquals(STOCK - 2, jdbcTemplate.queryForObject("SELECT custom_limit FROM otp.event_ticket_type WHERE id = 1", Integer.class));
+    }
+
+    @Test
+    void orphanedKeyIsRecoveredFromItsOrder() {
+        // 訂單 commit 了，結果存下來之前當機 (本機記憶體也沒有)
+        checkoutService.processOrder(1L, atm("crash-1"));
+        jdbcTemplate.update("UPDATE otp.checkout_idempotency SET response = NULL");
+
+        // 剛佔用的 key 可能還在處理中
+        assertThrows(DuplicateSubmissionException.class, () -> checkoutIdempotencyService.processOrder(1L, atm("crash-1")));
+
+        // 超過 stale-after：從訂單重建結果，不會再結帳一次
+        jdbcTemplate.update("UPDATE otp.checkout_idempotency SET created_at = TIMESTAMPADD(MINUTE, -2, created_at)");
+        assertEquals("success", checkoutIdempotencyService.processOrder(1L, atm("crash-1")).get("status"));
+        assertEquals(1, count("orders"));
+        assertEquals(STOCK - 2, jdbcTemplate.queryForObject("SELECT custom_limit FROM otp.event_ticket_type WHERE id = 1", Integer.class));
+        assertEquals(1, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM otp.checkout_idempotency WHERE response IS NOT NULL", Integer.class));
+    }
+
+    @Test
+    void orphanedKeyIsRecoveredWithTheOrdersPaymentMethod() {
+        CheckoutForm card = new CheckoutForm("CARD", null, "COMPANY", "12345678", "buyer@example.com", null, "crash-3");
+        checkoutService.processOrder(1L, card);
+        jdbcTemplate.update("UPDATE otp.checkout_idempotency SET response = NULL, created_at = TIMESTAMPADD(MINUTE, -2, created_at)");
+
+        // 重試時換成 ATM：訂單是用信用卡建的，照信用卡重建 (一樣回綠界表單，不是 ATM 的結果)
+        assertEquals("ecpay", checkoutIdempotencyService.processOrder(1L, atm("crash-3")).get("status"));
+        assertEquals(1, count("orders"));
+    }
+
+    @Test
+    void orphanedKeyOfCancelledOrderCanCheckoutAgain() {
+        checkoutService.processOrder(1L, atm("crash-2"));
+        jdbcTemplate.update("UPDATE otp.checkout_idempotency SET response = NULL, created_at = TIMESTAMPADD(MINUTE, -2, created_at)");
+        // 當機之後預約過期、訂單失效
+        jdbcTemplate.update("UPDATE otp.orders SET status = 'EXPIRED'");
+        jdbcTemplate.update("INSERT INTO otp.cart_items (user_id, event_ticket_type_id, quantity) VALUES (1, 1, 1)");
+
+        assertEquals("success", checkoutIdempotencyService.processOrder(1L, atm("crash-2")).get("status"));
+        assertEquals(2, count("orders"));
+        assertEquals("PENDING", jdbcTemplate.queryForObject("SELECT o.status FROM otp.orders o JOIN otp.checkout_idempotency ci ON ci.merchant_trade_no = o.merchant_trade_no", String.class));
+    }
+
+    private static CheckoutForm atm(String idempotencyKey) {
+        return new CheckoutForm("ATM", "12345", "COMPANY", "12345678", "buyer@example.com", null, idempotencyKey);
+    }
+
+    private int count(String table) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM otp." + table, Integer.class);
+    }
+}
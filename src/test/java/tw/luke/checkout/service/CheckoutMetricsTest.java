@@ -0,0 +1,88 @@
+package tw.luke.checkout.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import tw.luke.checkout.dto.CheckoutForm;
+import tw.luke.checkout.repository.StockShortageException;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 結帳指標：每個步驟都有計時、SQL 數有記到、失敗依原因分類
+@SpringBootTest(properties = {
+    "app.checkout-queue.enabled=false",
+    "app.reservation-expiry.enabled=false"
+})
+@ActiveProfiles("h2")
+class CheckoutMetricsTest {
+
+    @Autowired
+    private CheckoutService checkoutService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void seed() {
+        for (String table : List.of("checkout_idempotency", "checkout_orders", "orders", "reservation_items", "reservations",
+                                    "cart_items", "event_ticket_type", "ticket_type", "event")) {
+            jdbcTemplate.update("DELETE FROM otp." + table);
+        }
+        jdbcTemplate.update("INSERT INTO otp.event (id, title) VALUES (1, 'MLB 東京開幕戰')");
+        jdbcTemplate.update("INSERT INTO otp.ticket_type (id, name, price) VALUES (1, '一般票', 1000)");
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit) VALUES (1, 1, 1, 1, 1)");
+    }
+
+    @Test
+    void successfulCheckoutRecordsEveryStage() {
+        jdbcTemplate.update("INSERT INTO otp.cart_items (user_id, event_ticket_type_id, quantity) VALUES (1, 1, 1)");
+        DistributionSummary sql = meterRegistry.find("checkout.sql.statements").summary();
+        long before = sql.count();
+        double sqlBefore = sql.totalAmount();
+
+        checkoutService.processOrder(1L, atm("12345678"));
+
+        for (String stage : List.of("load_cart", "reservation", "stock", "total", "order", "cart_clear")) {
+            assertTrue(meterRegistry.get("checkout.stage").tag("stage", stage).timer().count() > 0, stage);
+        }
+        assertTrue(meterRegistry.get("checkout.payment").tag("method", "ATM").timer().count() > 0);
+        assertTrue(meterRegistry.get("checkout.duration").tag("outcome", "success").timer().count() > 0);
+        assertEquals(before + 1, sql.count());
+        // 讀購物車、預約、扣庫存、建訂單、清購物車... 至少這幾個
+        assertTrue(sql.totalAmount() - sqlBefore >= 5, "statements = " + (sql.totalAmount() - sqlBefore));
+    }
+
+    @Test
+    void failuresAreCountedByReason() {
+        assertThrows(RuntimeException.class, () -> checkoutService.processOrder(1L, atm("123")));
+        assertEquals(1, failures("invalid_invoice"), 0.0);
+
+        assertThrows(RuntimeException.class, () -> checkoutService.processOrder(1L, atm("12345678")));
+        assertEquals(1, failures("empty_cart"), 0.0);
+
+        jdbcTemplate.update("INSERT INTO otp.cart_items (user_id, event_ticket_type_id, quantity) VALUES (1, 1, 2)");
+        assertThrows(StockShortageException.class, () -> checkoutService.processOrder(1L, atm("12345678")));
+        assertEquals(1, failures("out_of_stock"), 0.0);
+    }
+
+    private double failures(String reason) {
+        var counter = meterRegistry.find("checkout.failures").tag("reason", reason).counter();
+        return counter == null ? 0 : counter.count();
+    }
+
+    private static CheckoutForm atm(String taxId) {
+        return new CheckoutForm("ATM", "12345", "COMPANY", taxId, "metrics@example.com", null, null);
+    }
+}
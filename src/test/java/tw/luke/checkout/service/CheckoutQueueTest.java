@@ -0,0 +1,86 @@
+package tw.luke.checkout.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.ServletException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import tw.luke.checkout.config.CurrentUserConfig;
+import tw.luke.checkout.dto.CheckoutForm;
+import tw.luke.checkout.repository.TicketCatalogRepository;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// 排隊結果只給排隊的本人看：別人拿到號碼牌也查不到
+@SpringBootTest(properties = {
+    "app.checkout-queue.workers=1",
+    "app.reservation-expiry.enabled=false",
+    "app.current-user.header-enabled=true"
+})
+@AutoConfigureMockMvc
+@ActiveProfiles("h2")
+class CheckoutQueueTest {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private CartStore cartStore;
+
+    @Autowired
+    private TicketCatalogRepository ticketCatalogRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void seed() {
+        for (String table : List.of("user", "event_ticket_type", "ticket_type", "event")) {
+            jdbcTemplate.update("DELETE FROM otp." + table);
+        }
+        jdbcTemplate.update("INSERT INTO otp.user (id, account, email) VALUES (7, 'queue', 'queue@example.com')");
+        jdbcTemplate.update("INSERT INTO otp.event (id, title) VALUES (1, 'MLB 東京開幕戰')");
+        jdbcTemplate.update("INSERT INTO otp.ticket_type (id, name, price) VALUES (1, '一般票', 1000)");
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit) VALUES (1, 1, 1, 1, 10)");
+        ticketCatalogRepository.invalidateAll();
+        cartStore.setQuantity(7L, 1, 1);
+    }
+
+    @Test
+    void statusIsOnlyVisibleToTicketOwner() throws Exception {
+        // 不支援的付款方式：worker 很快就會把這張號碼牌標成失敗 (失敗的結果也帶著序號)，不會真的去建立訂單
+        CheckoutForm form = new CheckoutForm("NONE", null, "E_INVOICE", "/ABC1234", "queue@example.com", null, null);
+        String body = mockMvc.perform(post("/api/checkout/submit")
+                .header(CurrentUserConfig.USER_ID_HEADER, "7")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(JSON.writeValueAsString(form)))
+            .andExpect(status().isOk())
+            .andReturn().getResponse().getContentAsString();
+        @SuppressWarnings("unchecked")
+        String ticketId = (String) JSON.readValue(body, Map.class).get("ticketId");
+
+        mockMvc.perform(get("/api/checkout/submit/" + ticketId).header(CurrentUserConfig.USER_ID_HEADER, "7"))
+            .andExpect(status().isOk());
+
+        ServletException e = assertThrows(ServletException.class, () ->
+            mockMvc.perform(get("/api/checkout/submit/" + ticketId).header(CurrentUserConfig.USER_ID_HEADER, "8")));
+        assertTrue(e.getCause().getMessage().contains("查無此排隊序號"), e.getCause().getMessage());
+        assertEquals(RuntimeException.class, e.getCause().getClass());
+    }
+}
@@ -0,0 +1,76 @@
+package tw.luke.checkout.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.jdbc.core.JdbcTemplate;
+import tw.luke.checkout.H2CheckoutContext;
+import tw.luke.checkout.dto.CheckoutForm;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// 結帳：表單檢查 (純 CPU) 與整個 processOrder (H2 記憶體資料庫，含預約、扣庫存、建訂單、清購物車)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(3)
+public class CheckoutServiceBenchmark {
+
+    private static final CheckoutForm COMPANY = new CheckoutForm("ATM", "12345", "COMPANY", "12345678", "bench@example.com", null, null);
+    private static final CheckoutForm E_INVOICE = new CheckoutForm("ATM", "12345", "E_INVOICE", "/ABC1234", "bench@example.com", "CUSTOM_BARCODE", null);
+    private static final CheckoutForm DONATION = new CheckoutForm("ATM", "12345", "DONATION", "UNITED_WAY_CODE", "bench@example.com", null, null);
+
+    @State(Scope.Benchmark)
+    public static class Validation {
+        CheckoutService checkoutService;
+
+        @Setup
+        public void setUp() {
+            // validateInvoice 不碰其他相依
+            checkoutService = new CheckoutService(Map.of(), null, null, null, null, null, null, null, null);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Checkout {
+        CheckoutService checkoutService;
+        JdbcTemplate jdbcTemplate;
+
+        @Setup(Level.Trial)
+        public void setUp(H2CheckoutContext context) {
+            checkoutService = context.bean(CheckoutService.class);
+            jdbcTemplate = context.bean(JdbcTemplate.class);
+        }
+
+        // 每次結帳前把購物車放回去 (一張限量票 + 一張不限量票)
+        @Setup(Level.Invocation)
+        public void fillCart() {
+            jdbcTemplate.update("INSERT INTO otp.cart_items (user_id, event_ticket_type_id, quantity) VALUES (1, 1, 2)");
+            jdbcTemplate.update("INSERT INTO otp.cart_items (user_id, event_ticket_type_id, quantity) VALUES (1, 2, 1)");
+        }
+    }
+
+    @Benchmark
+    public void validateInvoice(Validation state, Blackhole bh) {
+        state.checkoutService.validateInvoice(COMPANY);
+        state.checkoutService.validateInvoice(E_INVOICE);
+        state.checkoutService.validateInvoice(DONATION);
+        bh.consume(state);
+    }
+
+    @Benchmark
+    public Map<String, String> processOrder(Checkout state) {
+        return state.checkoutService.processOrder(1L, COMPANY);
+    }
+}
@@ -0,0 +1,217 @@
+package tw.luke.checkout.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+import tw.luke.checkout.dto.CheckoutForm;
+import tw.luke.checkout.dto.ECPayNotification;
+import tw.luke.checkout.repository.PaymentRepository;
+import tw.luke.checkout.repository.ReservationRepository;
+import tw.luke.checkout.service.strategy.PaymentStrategy;
+
+import java.time.Duration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 結帳拆成短交易 + 交易外的付款準備：
+// 付款準備很慢時，別的結帳等 row lock (checkout.stage{stage=stock}) 的時間不會跟著變長；付款準備失敗時訂單取消、庫存還回去
+// ATM 轉帳的預約保留到繳費期限，入帳通知回來時確認
+@SpringBootTest(properties = {
+    "app.checkout-queue.enabled=false",
+    "app.reservation-expiry.enabled=false",
+    "app.reservation-expiry.atm-hold=72h"
+})
+@ActiveProfiles("h2")
+class CheckoutServiceTransactionTest {
+
+    private static final long HOT_TICKET = 1L;
+    private static final int BUYERS = 32;
+    private static final int THREADS = 8;
+    private static final long PAYMENT_MILLIS = 50;
+
+    @TestConfiguration
+    static class SlowPayments {
+
+        // 付款準備要 PAYMENT_MILLIS (像是呼叫外部 API)
+        @Bean("SLOW")
+        PaymentStrategy slowPayment() {
+            return (form, totalAmount, merchantTradeNo) -> {
+                try {
+                    Thread.sleep(PAYMENT_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "SLOW_ORDER_CREATED";
+            };
+        }
+
+        @Bean("BROKEN")
+        PaymentStrategy brokenPayment() {
+            return (form, totalAmount, merchantTradeNo) -> {
+                throw new RuntimeException("金流暫時無法使用");
+            };
+        }
+    }
+
+    @Autowired
+    private CheckoutService checkoutService;
+
+    @Autowired
+    private CartStore cartStore;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ReservationRepository reservationRepository;
+
+    @Autowired
+    private PaymentRepository paymentRepository;
+
+    @BeforeEach
+    void seed() {
+        for (String table : List.of("checkout_idempotency", "checkout_orders", "orders", "reservation_items", "reservations",
+                                    "cart_items", "ticket_stock_shards", "event_ticket_type", "ticket_type", "event")) {
+            jdbcTemplate.update("DELETE FROM otp." + table);
+        }
+        jdbcTemplate.update("INSERT INTO otp.event (id, title) VALUES (1, 'MLB 東京開幕戰')");
+        jdbcTemplate.update("INSERT INTO otp.ticket_type (id, name, price) VALUES (1, '一般票', 1000)");
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit) VALUES (?, 1, 1, 1, 10000)", HOT_TICKET);
+    }
+
+    @Test
+    void slowPaymentDoesNotExtendLockWait() throws Exception {
+        // 暖身 (JIT、連線池)
+        runBuyers(1_000, userId -> checkoutService.processOrder(userId, form("SLOW", null)));
+
+        // 對照組：整個 processOrder 包在一個交易裡 (拆開之前的寫法)，row lock 要等付款準備完才放
+        Stats before = measure(2_000, userId -> transactionTemplate.executeWithoutResult(
+            status -> checkoutService.processOrder(userId, form("SLOW", null))));
+        Stats after = measure(3_000, userId -> checkoutService.processOrder(userId, form("SLOW", null)));
+
+        assertEquals(10_000 - 3 * BUYERS, stock());
+        // 拆開之後扣庫存不用等別人的付款準備
+        assertTrue(after.stockMillis * 2 < before.stockMillis, before + " -> " + after);
+        assertTrue(after.stockMillis < PAYMENT_MILLIS, after.toString());
+        // 整個交易也不含付款準備的時間 (對照組的 inventory_tx 不含外層交易等付款的時間，不能拿來比)
+        assertTrue(after.txMillis < PAYMENT_MILLIS, after.toString());
+    }
+
+    @Test
+    void failedPaymentAfterCommitCancelsOrderAndReleasesStock() {
+        jdbcTemplate.update("INSERT INTO otp.cart_items (user_id, event_ticket_type_id, quantity) VALUES (1, ?, 3)", HOT_TICKET);
+
+        RuntimeException e = assertThrows(RuntimeException.class, () -> checkoutService.processOrder(1L, form("BROKEN", "k1")));
+        assertEquals("金流暫時無法使用", e.getMessage());
+
+        assertEquals(10_000, stock());
+        assertEquals("CANCELLED", jdbcTemplate.queryForObject("SELECT status FROM otp.reservations", String.class));
+        assertEquals("CANCELLED", jdbcTemplate.queryForObject("SELECT status FROM otp.orders", String.class));
+        assertEquals(3, cartStore.quantity(1L, HOT_TICKET));
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM otp.checkout_idempotency", Integer.class));
+
+        // 同一個 key 可以重試
+        assertEquals("success", checkoutService.processOrder(1L, form("SLOW", "k1")).get("status"));
+        assertEquals(10_000 - 3, stock());
+    }
+
+    @Test
+    void atmReservationIsHeldUntilPaymentDeadline() {
+        jdbcTemplate.update("INSERT INTO otp.cart_items (user_id, event_ticket_type_id, quantity) VALUES (1, ?, 2)", HOT_TICKET);
+        jdbcTemplate.update("INSERT INTO otp.cart_items (user_id, event_ticket_type_id, quantity) VALUES (2, ?, 1)", HOT_TICKET);
+
+        assertEquals("success", checkoutService.processOrder(1L, form("ATM", null)).get("status"));
+        checkoutService.processOrder(2L, form("SLOW", null));
+
+        assertEquals(Duration.ofHours(72).toSeconds(), holdSeconds(1L));
+        assertEquals(Duration.ofMinutes(15).toSeconds(), holdSeconds(2L));
+        // 到期回收往後看一小時也撿不到 ATM 的預約
+        assertTrue(reservationRepository.findLockedDueWithin(Duration.ofHours(1), 100).stream()
+            .noneMatch(due -> due.reservationId() == reservationId(1L)));
+
+        // 轉帳入帳 (綠界 ATM 的付款通知)：預約確認、訂單 PAID，不是 PAID_LATE
+        String merchantTradeNo = jdbcTemplate.queryForObject("SELECT merchant_trade_no FROM otp.orders WHERE user_id = 1", String.class);
+        assertEquals(Map.of(merchantTradeNo, PaymentRepository.PAID),
+            paymentRepository.applyNotifications(List.of(new ECPayNotification(merchantTradeNo, "ATM-1", 1, 2000))));
+        assertEquals("CONFIRMED", jdbcTemplate.queryForObject("SELECT status FROM otp.reservations WHERE user_id = 1", String.class));
+        assertEquals(10_000 - 3, stock());
+    }
+
+    private long holdSeconds(long userId) {
+        return jdbcTemplate.queryForObject("SELECT TIMESTAMPDIFF(SECOND, created_at, expires_at) FROM otp.reservations WHERE user_id = ?",
+            Long.class, userId);
+    }
+
+    private long reservationId(long userId) {
+        return jdbcTemplate.queryForObject("SELECT id FROM otp.reservations WHERE user_id = ?", Long.class, userId);
+    }
+
+    private Stats measure(long firstUserId, LongConsumer checkout) throws Exception {
+        Timer stock = meterRegistry.get("checkout.stage").tag("stage", "stock").timer();
+        Timer tx = meterRegistry.get("checkout.stage").tag("stage", "inventory_tx").timer();
+        long stockCount = stock.count();
+        double stockTotal = stock.totalTime(TimeUnit.MILLISECONDS);
+        long txCount = tx.count();
+        double txTotal = tx.totalTime(TimeUnit.MILLISECONDS);
+
+        runBuyers(firstUserId, checkout);
+
+        return new Stats(
+            (stock.totalTime(TimeUnit.MILLISECONDS) - stockTotal) / (stock.count() - stockCount),
+            (tx.totalTime(TimeUnit.MILLISECONDS) - txTotal) / (tx.count() - txCount));
+    }
+
+    private void runBuyers(long firstUserId, LongConsumer checkout) throws Exception {
+        List<Object[]> carts = new ArrayList<>();
+        for (long userId = firstUserId; userId < firstUserId + BUYERS; userId++) {
+            carts.add(new Object[] { userId, HOT_TICKET });
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO otp.cart_items (user_id, event_ticket_type_id, quantity) VALUES (?, ?, 1)", carts);
+
+        List<Future<?>> futures = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(THREADS)) {
+            for (long userId = firstUserId; userId < firstUserId + BUYERS; userId++) {
+                long buyer = userId;
+                futures.add(executor.submit(() -> checkout.accept(buyer)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+    }
+
+    private int stock() {
+        return jdbcTemplate.queryForObject("SELECT custom_limit FROM otp.event_ticket_type WHERE id = ?", Integer.class, HOT_TICKET);
+    }
+
+    private static CheckoutForm form(String paymentMethod, String idempotencyKey) {
+        return new CheckoutForm(paymentMethod, "12345", "COMPANY", "12345678", "buyer@example.com", null, idempotencyKey);
+    }
+
+    private record Stats(double stockMillis, double txMillis) {}
+}
@@ -0,0 +1,137 @@
+package tw.luke.checkout.service;
+
+import jakarta.servlet.ServletException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import tw.luke.checkout.repository.TicketCatalogRepository;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// 結帳摘要的 ETag：購物車沒變回 304，加入購物車或改價之後換新的 ETag (票種目錄 TTL 到期重新載入的改價也算)
+@SpringBootTest(properties = {
+    "app.checkout-queue.enabled=false",
+    "app.reservation-expiry.enabled=false",
+    "app.catalog-cache.ttl=500ms"
+})
+@AutoConfigureMockMvc
+@ActiveProfiles("h2")
+class CheckoutSummaryServiceTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private CartStore cartStore;
+
+    @Autowired
+    private TicketCatalogRepository ticketCatalogRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void seed() {
+        for (String table : List.of("user", "event_ticket_type", "ticket_type", "event")) {
+            jdbcTemplate.update("DELETE FROM otp." + table);
+        }
+        jdbcTemplate.update("INSERT INTO otp.user (id, account, email) VALUES (1, 'etag', 'etag@example.com')");
+        jdbcTemplate.update("INSERT INTO otp.event (id, title) VALUES (1, 'MLB 東京開幕戰')");
+        jdbcTemplate.update("INSERT INTO otp.ticket_type (id, name, price) VALUES (1, '一般票', 1000)");
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit) VALUES (1, 1, 1, 1, 10)");
+        ticketCatalogRepository.invalidateAll();
+        for (Long ticketTypeId : cartStore.items(1L).keySet()) {
+            cartStore.setQuantity(1L, ticketTypeId, 0);
+        }
+    }
+
+    @Test
+    void unchangedCartIsNotModified() throws Exception {
+        cartStore.setQuantity(1L, 1, 2);
+
+        String etag = mockMvc.perform(get("/api/checkout/summary"))
+            .andExpect(status().isOk())
+            .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-cache, private"))
+            .andExpect(jsonPath("$.totalAmount").value(2000))
+            // 內部用分計算，JSON 還是元
+            .andExpect(jsonPath("$.order[0].unitprice").value(1000))
+            .andExpect(jsonPath("$.order[0].subtotal").value(2000))
+            .andExpect(jsonPath("$.order[0].unitPriceCents").doesNotExist())
+            .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(get("/api/checkout/summary").header(HttpHeaders.IF_NONE_MATCH, etag))
+            .andExpect(status().isNotModified());
+        mockMvc.perform(get("/api/checkout/my-cart-simple").header(HttpHeaders.IF_NONE_MATCH, etag))
+            .andExpect(status().isNotModified());
+
+        // 加入購物車 → 版本號變了
+        mockMvc.perform(post("/api/checkout/add").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"ticketTypeId\": 1, \"quantity\": 1}"))
+            .andExpect(status().isOk());
+        String afterAdd = mockMvc.perform(get("/api/checkout/summary").header(HttpHeaders.IF_NONE_MATCH, etag))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.totalAmount").value(3000))
+            .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotEquals(etag, afterAdd);
+
+        // 後台改價並清掉票種目錄快取 → 也要換 ETag
+        jdbcTemplate.update("UPDATE otp.ticket_type SET price = 1200 WHERE id = 1");
+        ticketCatalogRepository.invalidateAll();
+        mockMvc.perform(get("/api/checkout/summary").header(HttpHeaders.IF_NONE_MATCH, afterAdd))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.totalAmount").value(3600));
+    }
+
+    @Test
+    void catalogReloadAfterTtlChangesEtag() throws Exception {
+        cartStore.setQuantity(1L, 1, 2);
+        String etag = mockMvc.perform(get("/api/checkout/summary"))
+            .andExpect(jsonPath("$.totalAmount").value(2000))
+            .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        // 後台改價但沒有清快取：TTL 到期重新載入之後 ETag 與摘要都要跟著變
+        jdbcTemplate.update("UPDATE otp.ticket_type SET price = 1500 WHERE id = 1");
+        Thread.sleep(800);
+        String reloaded = mockMvc.perform(get("/api/checkout/summary").header(HttpHeaders.IF_NONE_MATCH, etag))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.totalAmount").value(3000))
+            .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotEquals(etag, reloaded);
+
+        mockMvc.perform(get("/api/checkout/summary").header(HttpHeaders.IF_NONE_MATCH, reloaded))
+            .andExpect(status().isNotModified());
+    }
+
+    @Test
+    void bulkAddIsAllOrNothing() throws Exception {
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit) VALUES (2, 1, 1, 1, 1)");
+
+        // 票種 2 只剩 1 張，整批都不加
+        assertThrows(ServletException.class, () -> mockMvc.perform(post("/api/checkout/add-bulk")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("[{\"ticketTypeId\": 1, \"quantity\": 2}, {\"ticketTypeId\": 2, \"quantity\": 2}]")));
+        mockMvc.perform(get("/api/checkout/my-cart-simple"))
+            .andExpect(jsonPath("$.length()").value(0));
+
+        mockMvc.perform(post("/api/checkout/add-bulk").contentType(MediaType.APPLICATION_JSON)
+                .content("[{\"ticketTypeId\": 1, \"quantity\": 2}, {\"ticketTypeId\": 2, \"quantity\": 1}]"))
+            .andExpect(status().isOk());
+        mockMvc.perform(get("/api/checkout/my-cart-simple"))
+            .andExpect(jsonPath("$.length()").value(2));
+    }
+}
@@ -0,0 +1,185 @@
+package tw.luke.checkout.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+
+// 用本機 stub 重播綠界付款通知：驗章、重送去重、批次入帳、逾期付款、對不上的通知留紀錄
+@SpringBootTest(properties = {
+    "app.checkout-queue.enabled=false",
+    "app.reservation-expiry.enabled=false"
+})
+@AutoConfigureMockMvc
+@ActiveProfiles("h2")
+class ECPayCallbackProcessorTest {
+
+    private static final int ORDERS = 300;
+    private static final int AMOUNT = 2000;
+
+    private final String run = Long.toString(System.nanoTime(), 36);
+
+    @Autowired
+    private ECPayCallbackProcessor processor;
+
+    @Autowired
+    private ECPayService ecPayService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void seed() {
+        jdbcTemplate.update("DELETE FROM otp.orders");
+        jdbcTemplate.update("DELETE FROM otp.reservations");
+        for (int i = 1; i <= ORDERS; i++) {
+            order(i, "LOCKED", "PENDING");
+        }
+    }
+
+    @Test
+    void burstOfRepeatedNotificationsIsAppliedOnce() throws Exception {
+        // 每則通知重送 3 次，全部打亂後同時送進來
+        List<Map<String, String>> callbacks = new ArrayList<>();
+        for (int i = 1; i <= ORDERS; i++) {
+            for (int copy = 0; copy < 3; copy++) {
+                callbacks.add(notify(tradeNo(i), 1, AMOUNT));
+            }
+        }
+        Collections.shuffle(callbacks);
+
+        ExecutorService pool = Executors.newFixedThreadPool(64);
+        try {
+            List<Future<String>> replies = new ArrayList<>();
+            for (Map<String, String> callback : callbacks) {
+                replies.add(pool.submit(() -> processor.handle(callback)));
+            }
+            for (Future<String> reply : replies) {
+                assertEquals(ECPayCallbackProcessor.ACK, reply.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        assertEquals(ORDERS, count("SELECT COUNT(*) FROM otp.orders WHERE status = 'PAID' AND paid_at IS NOT NULL"));
+        assertEquals(ORDERS, count("SELECT COUNT(*) FROM otp.reservations WHERE status = 'CONFIRMED'"));
+        assertEquals(0, count("SELECT COUNT(*) FROM otp.payment_exceptions WHERE merchant_trade_no LIKE 'T" + run + "%'"));
+    }
+
+    @Test
+    void rejectsTamperedAndHandlesEdgeCases() throws Exception {
+        Map<String, String> tampered = notify(tradeNo(1), 1, AMOUNT);
+        tampered.put("TradeAmt", "1");
+        assertEquals("0|CheckMacValue Error", processor.handle(tampered));
+        assertEquals("PENDING", status(1));
+
+        // 金額不符：不入帳，但回 1|OK (重送也不會變)，留一筆紀錄給人工對帳
+        assertEquals(ECPayCallbackProcessor.ACK, processor.handle(notify(tradeNo(2), 1, AMOUNT + 1)));
+        assertEquals("PENDING", status(2));
+        assertEquals("AMOUNT_MISMATCH:" + (AMOUNT + 1) + ":" + AMOUNT, jdbcTemplate.queryForObject(
+            "SELECT CONCAT(reason, ':', trade_amt, ':', order_amount) FROM otp.payment_exceptions WHERE merchant_trade_no = ?", String.class, tradeNo(2)));
+
+        // 找不到訂單
+        assertEquals(ECPayCallbackProcessor.ACK, processor.handle(notify(tradeNo(ORDERS + 9), 1, AMOUNT)));
+        assertEquals("UNKNOWN_ORDER", jdbcTemplate.queryForObject(
+            "SELECT reason FROM otp.payment_exceptions WHERE merchant_trade_no = ? AND order_id IS NULL", String.class, tradeNo(ORDERS + 9)));
+
+        // 付款失敗
+        assertEquals(ECPayCallbackProcessor.ACK, processor.handle(notify(tradeNo(3), 10300066, AMOUNT)));
+        assertEquals("PAYMENT_FAILED", status(3));
+
+        // 付款失敗之後重新付款成功 (預約還是 LOCKED)：預約確認、訂單入帳
+        assertEquals(ECPayCallbackProcessor.ACK, processor.handle(notify(tradeNo(3), 1, AMOUNT)));
+        assertEquals("PAID", status(3));
+        assertEquals("CONFIRMED", jdbcTemplate.queryForObject("SELECT status FROM otp.reservations WHERE id = 3", String.class));
+
+        // 訂單已經取消才收到錢：訂單、預約都不動，留一筆紀錄
+        order(ORDERS + 3, "CANCELLED", "CANCELLED");
+        assertEquals(ECPayCallbackProcessor.ACK, processor.handle(notify(tradeNo(ORDERS + 3), 1, AMOUNT)));
+        assertEquals("CANCELLED", status(ORDERS + 3));
+        assertEquals("ORDER_CLOSED", jdbcTemplate.queryForObject(
+            "SELECT reason FROM otp.payment_exceptions WHERE merchant_trade_no = ?", String.class, tradeNo(ORDERS + 3)));
+
+        // 預約已經過期還庫存之後才付款
+        order(ORDERS + 1, "EXPIRED", "EXPIRED");
+        assertEquals(ECPayCallbackProcessor.ACK, processor.handle(notify(tradeNo(ORDERS + 1), 1, AMOUNT)));
+        assertEquals("PAID_LATE", status(ORDERS + 1));
+
+        // 沒有預約的訂單 (reservation_id 是 NULL)：直接入帳
+        jdbcTemplate.update("INSERT INTO otp.orders (user_id, event_id, total_amount, status, reservation_id, merchant_trade_no) VALUES (1, 1, ?, 'PENDING', NULL, ?)",
+            AMOUNT, tradeNo(ORDERS + 2));
+        assertEquals(ECPayCallbackProcessor.ACK, processor.handle(notify(tradeNo(ORDERS + 2), 1, AMOUNT)));
+        assertEquals("PAID", status(ORDERS + 2));
+
+        // 綠界實際打進來的樣子：form POST，body 回 1|OK
+        MockHttpServletRequestBuilder request = post("/api/checkout/ecpay-return").contentType(MediaType.APPLICATION_FORM_URLENCODED);
+        notify(tradeNo(4), 1, AMOUNT).forEach(request::param);
+        mockMvc.perform(request).andExpect(content().string(ECPayCallbackProcessor.ACK));
+        assertEquals("PAID", status(4));
+    }
+
+    // 綠界 ReturnURL 通知的 stub (欄位照綠界文件，CheckMacValue 用同一組 HashKey / HashIV 簽)
+    private Map<String, String> notify(String merchantTradeNo, int rtnCode, int tradeAmt) {
+        Map<String, String> params = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        params.put("CustomField1", "");
+        params.put("MerchantID", "2000132");
+        params.put("MerchantTradeNo", merchantTradeNo);
+        params.put("PaymentDate", "2025/11/20 12:35:10");
+        params.put("PaymentType", "Credit_CreditCard");
+        params.put("PaymentTypeChargeFee", "40");
+        params.put("RtnCode", String.valueOf(rtnCode));
+        params.put("RtnMsg", rtnCode == 1 ? "交易成功" : "交易失敗");
+        params.put("SimulatePaid", "0");
+        params.put("StoreID", "");
+        params.put("TradeAmt", String.valueOf(tradeAmt));
+        params.put("TradeDate", "2025/11/20 12:34:56");
+        params.put("TradeNo", "2511201234" + merchantTradeNo.substring(merchantTradeNo.length() - 6));
+        params.put("CheckMacValue", ecPayService.generateCheckMacValue(params));
+        return params;
+    }
+
+    private void order(int i, String reservationStatus, String orderStatus) {
+        jdbcTemplate.update("""
+            INSERT INTO otp.reservations
+            (id, user_id, event_id, quantity, ticket_type_id, totalAmount, scheduleId, userId, created_at, expires_at, status)
+            VALUES (?, 1, 1, 2, 1, ?, 1, 1, NOW(), NOW(), ?)
+        """, i, AMOUNT, reservationStatus);
+        jdbcTemplate.update("INSERT INTO otp.orders (user_id, event_id, total_amount, status, reservation_id, merchant_trade_no) VALUES (1, 1, ?, ?, ?, ?)",
+            AMOUNT, orderStatus, i, tradeNo(i));
+    }
+
+    // 每個測試用不同的編號 (同一個 Spring Context 的去重快取會記得上一個測試送過的通知)
+    private String tradeNo(int i) {
+        return "T" + run + String.format("%06d", i);
+    }
+
+    private String status(int i) {
+        return jdbcTemplate.queryForObject("SELECT status FROM otp.orders WHERE merchant_trade_no = ?", String.class, tradeNo(i));
+    }
+
+    private int count(String sql) {
+        return jdbcTemplate.queryForObject(sql, Integer.class);
+    }
+}
@@ -0,0 +1,66 @@
+package tw.luke.checkout.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+// 綠界表單與檢查碼 (每一筆信用卡 / LINE Pay 結帳都會跑一次)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(3)
+public class ECPayServiceBenchmark {
+
+    private ECPayService ecPayService;
+    private Map<String, String> params;
+
+    @Setup
+    public void setUp() {
+        ecPayService = new ECPayService();
+        ReflectionTestUtils.setField(ecPayService, "merchantId", "2000132");
+        ReflectionTestUtils.setField(ecPayService, "hashKey", "5294y06JbISpM5x9");
+        ReflectionTestUtils.setField(ecPayService, "hashIv", "v77hoKGq4kWxNNIS");
+        ReflectionTestUtils.setField(ecPayService, "apiUrl", "https://payment-stage.ecpay.com.tw/Cashier/AioCheckOut/V5");
+        ReflectionTestUtils.setField(ecPayService, "clientBackUrl", "http://localhost:8080/success.html");
+        ReflectionTestUtils.setField(ecPayService, "domain", "http://localhost:8080");
+        ecPayService.init();
+
+        // 跟 genAioCheckOutALL 實際送出的參數一樣 (含中文與需要編碼的符號)
+        params = new TreeMap<>();
+        params.put("MerchantID", "2000132");
+        params.put("MerchantTradeNo", "Tkt1700000000000");
+        params.put("MerchantTradeDate", "2025/11/20 12:34:56");
+        params.put("PaymentType", "aio");
+        params.put("TotalAmount", "3000");
+        params.put("TradeDesc", "票券交易");
+        params.put("ReturnURL", "http://localhost:8080/api/checkout/ecpay-return");
+        params.put("ClientBackURL", "http://localhost:8080/success.html");
+        params.put("ItemName", "OpenTicket 票券訂單");
+        params.put("ChoosePayment", "Credit");
+        params.put("EncryptType", "1");
+    }
+
+    @Benchmark
+    public String generateCheckMacValue() {
+        return ecPayService.generateCheckMacValue(params);
+    }
+
+    @Benchmark
+    public String genAioCheckOutALL() {
+        return ecPayService.genAioCheckOutALL(3000, "OpenTicket 票券訂單", "票券交易", "Credit", "Tkt1700000000000");
+    }
+}
@@ -0,0 +1,147 @@
+package tw.luke.checkout.service;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// 新的 CheckMacValue / 表單產生要跟原本的寫法 (保留在下面的 legacy*) 逐字元相同
+class ECPayServiceTest {
+
+    private static final String HASH_KEY = "5294y06JbISpM5x9";
+    private static final String HASH_IV = "v77hoKGq4kWxNNIS";
+    private static final String API_URL = "https://payment-stage.ecpay.com.tw/Cashier/AioCheckOut/V5";
+    private static final String CLIENT_BACK_URL = "http://localhost:8080/success.html";
+    private static final String DOMAIN = "http://localhost:8080";
+
+    private ECPayService ecPayService;
+
+    @BeforeEach
+    void setUp() {
+        ecPayService = new ECPayService();
+        ReflectionTestUtils.setField(ecPayService, "merchantId", "2000132");
+        ReflectionTestUtils.setField(ecPayService, "hashKey", HASH_KEY);
+        ReflectionTestUtils.setField(ecPayService, "hashIv", HASH_IV);
+        ReflectionTestUtils.setField(ecPayService, "apiUrl", API_URL);
+        ReflectionTestUtils.setField(ecPayService, "clientBackUrl", CLIENT_BACK_URL);
+        ReflectionTestUtils.setField(ecPayService, "domain", DOMAIN);
+        ecPayService.init();
+    }
+
+    @Test
+    void checkMacValueMatchesGoldenVectors() {
+        List<String> values = List.of(
+            "",
+            "aio",
+            "OpenTicket 票券訂單",
+            "http://localhost:8080/api/checkout/ecpay-return?a=1&b=2#frag",
+            "2025/11/20 12:34:56",
+            " !\"#$%&'()*+,-./:;<=>?@[\\]^_`{|}~",
+            "%21%28%29%2d%5f%2e%2a%20%2521",
+            "ÀÉÎõü ß ÇĞİŞ",
+            "表情符號 😀🎫 與 𠀀",
+            "單獨 surrogate \uD83D 結尾\uDE00",
+            "\uD83D",
+            "TAB\tNEWLINE\nCRLF\r\n"
+        );
+        for (String value : values) {
+            Map<String, String> params = new TreeMap<>();
+            params.put("MerchantID", "2000132");
+            params.put("ItemName", value);
+            params.put("TradeDesc", value + value);
+            assertEquals(legacyCheckMacValue(params), ecPayService.generateCheckMacValue(params), value);
+        }
+    }
+
+    @Test
+    void checkMacValueMatchesLegacyOnRandomInput() {
+        Random random = new Random(20251120);
+        // 各種編碼長度的字元都要抽到 (ASCII、2/3 byte UTF-8、surrogate pair、單獨 surrogate)
+        char[] pool = "aZ09 .-*_!()~%&=+/?#'\"<>\téß中文😀👍\uDFFF\uD800".toCharArray();
+        for (int i = 0; i < 2000; i++) {
+            Map<String, String> params = new TreeMap<>();
+            int fields = 1 + random.nextInt(12);
+            for (int f = 0; f < fields; f++) {
+                StringBuilder key = new StringBuilder("K").append(f);
+                StringBuilder value = new StringBuilder();
+                int length = random.nextInt(i % 10 == 0 ? 400 : 40);
+                for (int c = 0; c < length; c++) {
+                    value.append(pool[random.nextInt(pool.length)]);
+                }
+                params.put(key.toString(), value.toString());
+            }
+            assertEquals(legacyCheckMacValue(params), ecPayService.generateCheckMacValue(params), params.toString());
+        }
+    }
+
+    @Test
+    void formMatchesLegacy() {
+        for (String choosePayment : new String[] { "Credit", "ATM", "", null }) {
+            String expected = legacyForm(3000, "OpenTicket 票券訂單", "票券交易", choosePayment, "Tkt1700000000000", "2025/11/20 12:34:56");
+            String actual = ecPayService.buildForm(3000, "OpenTicket 票券訂單", "票券交易", choosePayment, "Tkt1700000000000", "2025/11/20 12:34:56");
+            assertEquals(expected, actual, String.valueOf(choosePayment));
+        }
+    }
+
+    // ---- 原本的寫法 (改寫前 ECPayService 的內容) ----
+
+    private static String legacyForm(int totalAmount, String itemName, String tradeDesc, String choosePayment, String tradeNo, String tradeDate) {
+        Map<String, String> params = new TreeMap<>();
+        params.put("MerchantID", "2000132");
+        params.put("MerchantTradeNo", tradeNo);
+        params.put("MerchantTradeDate", tradeDate);
+        params.put("PaymentType", "aio");
+        params.put("TotalAmount", String.valueOf(totalAmount));
+        params.put("TradeDesc", tradeDesc);
+        params.put("ReturnURL", DOMAIN + "/api/checkout/ecpay-return");
+        params.put("ClientBackURL", CLIENT_BACK_URL);
+        params.put("ItemName", itemName);
+        if (choosePayment != null && !choosePayment.isEmpty()) {
+            params.put("ChoosePayment", choosePayment);
+        }
+        params.put("EncryptType", "1");
+
+        params.put("CheckMacValue", legacyCheckMacValue(params));
+
+        StringBuilder html = new StringBuilder();
+        html.append("<form id='ecpay-form' action='").append(API_URL).append("' method='POST'>");
+        for (Map.Entry<String, String> entry : params.entrySet()) {
+            html.append("<input type='hidden' name='").append(entry.getKey())
+                .append("' value='").append(entry.getValue()).append("'>");
+        }
+        html.append("</form>");
+        html.append("<script>document.getElementById('ecpay-form').submit();</script>");
+        return html.toString();
+    }
+
+    private static String legacyCheckMacValue(Map<String, String> params) {
+        String raw = params.entrySet().stream()
+                .map(e -> e.getKey() + "=" + e.getValue())
+                .collect(Collectors.joining("&"));
+
+        raw = "HashKey=" + HASH_KEY + "&" + raw + "&HashIV=" + HASH_IV;
+
+        String urlEncoded = URLEncoder.encode(raw, StandardCharsets.UTF_8).toLowerCase();
+
+        urlEncoded = urlEncoded.replace("%2d", "-")
+                               .replace("%5f", "_")
+                               .replace("%2e", ".")
+                               .replace("%21", "!")
+                               .replace("%2a", "*")
+                               .replace("%28", "(")
+                               .replace("%29", ")")
+                               .replace("%20", "+");
+
+        return DigestUtils.sha256Hex(urlEncoded).toUpperCase();
+    }
+}
@@ -0,0 +1,72 @@
+package tw.luke.checkout.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+// 壓測用的綠界 stub (只在 loadtest profile 啟用，ecpay.api-url 指到這裡)
+// 收到結帳表單 → 驗 CheckMacValue → 跟綠界一樣把付款結果 POST 回 ReturnURL，回傳 ReturnURL 的回應 (應該是 1|OK)
+// 放在 service package 才能用 ECPayService.generateCheckMacValue 幫通知簽章
+@RestController
+@Profile("loadtest")
+public class ECPayStubController {
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss");
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .build();
+
+    @Autowired
+    private ECPayService ecPayService;
+
+    @PostMapping(value = "/loadtest/ecpay/AioCheckOut", produces = MediaType.TEXT_PLAIN_VALUE)
+    public String checkout(@RequestParam Map<String, String> form) throws Exception {
+        if (!ecPayService.verifyCheckMacValue(form)) {
+            return "0|CheckMacValue Error";
+        }
+
+        String now = LocalDateTime.now().format(DATE_FORMAT);
+        Map<String, String> notification = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        notification.put("CustomField1", "");
+        notification.put("MerchantID", form.get("MerchantID"));
+        notification.put("MerchantTradeNo", form.get("MerchantTradeNo"));
+        notification.put("PaymentDate", now);
+        notification.put("PaymentType", "Credit_CreditCard");
+        notification.put("PaymentTypeChargeFee", "0");
+        notification.put("RtnCode", "1");
+        notification.put("RtnMsg", "交易成功");
+        notification.put("SimulatePaid", "1");
+        notification.put("StoreID", "");
+        notification.put("TradeAmt", form.get("TotalAmount"));
+        notification.put("TradeDate", form.get("MerchantTradeDate"));
+        notification.put("TradeNo", String.valueOf(ThreadLocalRandom.current().nextLong(1_000_000_000_000L, 10_000_000_000_000L)));
+        notification.put("CheckMacValue", ecPayService.generateCheckMacValue(notification));
+
+        String body = notification.entrySet().stream()
+            .map(e -> URLEncoder.encode(e.getKey(), StandardCharsets.UTF_8) + "=" + URLEncoder.encode(e.getValue(), StandardCharsets.UTF_8))
+            .collect(Collectors.joining("&"));
+        HttpRequest request = HttpRequest.newBuilder(URI.create(form.get("ReturnURL")))
+            .header("Content-Type", MediaType.APPLICATION_FORM_URLENCODED_VALUE)
+            .POST(HttpRequest.BodyPublishers.ofString(body))
+            .build();
+        return httpClient.send(request, HttpResponse.BodyHandlers.ofString()).body();
+    }
+}
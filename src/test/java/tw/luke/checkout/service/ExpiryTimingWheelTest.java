@@ -0,0 +1,37 @@
+package tw.luke.checkout.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExpiryTimingWheelTest {
+
+    @Test
+    void firesOnlyAfterDeadlineEvenPastOneRevolution() {
+        // 一格 1 秒、一圈 8 格
+        ExpiryTimingWheel wheel = new ExpiryTimingWheel(1000, 8, 0);
+        wheel.schedule(1, 2_500);
+        wheel.schedule(2, 20_000);  // 超過一圈 (8 秒)
+        wheel.schedule(3, -5_000);  // 早就過期
+
+        assertEquals(List.of(3L), wheel.advance(0));
+        assertTrue(wheel.advance(2_999).isEmpty());
+        assertEquals(List.of(1L), wheel.advance(3_000));
+        assertTrue(wheel.advance(19_999).isEmpty());
+        assertEquals(List.of(2L), wheel.advance(20_000));
+    }
+
+    @Test
+    void scheduleAfterLongPauseStillFires() {
+        ExpiryTimingWheel wheel = new ExpiryTimingWheel(1000, 8, 0);
+        wheel.advance(100_000);
+        wheel.schedule(7, 50_000);
+        wheel.schedule(8, 105_000);
+
+        assertEquals(List.of(7L), wheel.advance(100_500));
+        assertEquals(List.of(8L), wheel.advance(200_000));
+    }
+}
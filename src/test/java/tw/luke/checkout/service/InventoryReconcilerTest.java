@@ -0,0 +1,209 @@
+package tw.luke.checkout.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import tw.luke.checkout.repository.ReconciliationRepository;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 庫存對帳：帳對得上就沒有落差；剩餘數量被改錯會被抓到，fix 只用差值補回少掉的；多出來的、沒有總配額的、PAID_LATE 只回報
+// chunk-size 設得很小，讓明細表被切成很多區間平行加總
+@JdbcTest(properties = {
+    "app.reconciliation.chunk-size=3",
+    "app.reconciliation.parallelism=4"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("h2")
+@Import({ InventoryReconciler.class, ReconciliationRepository.class, SimpleMeterRegistry.class })
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class InventoryReconcilerTest {
+
+    private static final long TICKET = 1L;
+    private static final long NO_BASELINE_TICKET = 2L;
+    private static final long UNLIMITED_TICKET = 3L;
+
+    @Autowired
+    private InventoryReconciler inventoryReconciler;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ReconciliationRepository reconciliationRepository;
+
+    private long nextId;
+
+    @BeforeEach
+    void seed() {
+        for (String table : List.of("checkout_orders", "orders", "reservation_items", "reservations", "ticket_stock_shards", "event_ticket_type")) {
+            jdbcTemplate.update("DELETE FROM otp." + table);
+        }
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit, capacity) VALUES (?, 1, 1, 1, 100, 100)", TICKET);
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit, capacity) VALUES (?, 2, 1, 1, 50, NULL)", NO_BASELINE_TICKET);
+        jdbcTemplate.update("INSERT INTO otp.event_ticket_type (id, event_id, ticket_template_id, is_limited, custom_limit, capacity) VALUES (?, 1, 1, 0, NULL, NULL)", UNLIMITED_TICKET);
+        nextId = 1;
+
+        // 各種狀態的結帳：付款中、已付款、付款失敗、過期回收
+        for (int i = 0; i < 10; i++) {
+            checkout(TICKET, 2, "LOCKED", "PENDING");
+            checkout(TICKET, 1, "CONFIRMED", "PAID");
+            checkout(UNLIMITED_TICKET, 1, "CONFIRMED", "PAID");
+        }
+        checkout(TICKET, 3, "LOCKED", "PAYMENT_FAILED");
+        checkout(TICKET, 4, "EXPIRED", "EXPIRED");
+        checkout(NO_BASELINE_TICKET, 5, "CONFIRMED", "PAID");
+    }
+
+    @Test
+    void consistentInventoryHasNoDrift() {
+        jdbcTemplate.update("UPDATE otp.event_ticket_type SET capacity = 50 WHERE id = ?", NO_BASELINE_TICKET);
+
+        InventoryReconciler.Report report = inventoryReconciler.reconcile(false);
+
+        assertEquals(2, report.ticketTypes());
+        assertTrue(report.chunks() > 10, "chunks = " + report.chunks());
+        assertEquals(List.of(), report.discrepancies());
+    }
+
+    @Test
+    void missingStockIsReportedAndRestoredByDelta() {
+        // 回收預約時還庫存的 UPDATE 沒成功：剩餘數量少了 2 張 (會少賣)
+        jdbcTemplate.update("UPDATE otp.event_ticket_type SET custom_limit = custom_limit - 2 WHERE id = ?", TICKET);
+
+        InventoryReconciler.Discrepancy drift = find(inventoryReconciler.reconcile(false), TICKET);
+        assertEquals(List.of(InventoryReconciler.STOCK_DRIFT), drift.issues());
+        assertEquals(-2, drift.stockDrift());
+        assertEquals(23, drift.held());
+        assertEquals(10, drift.sold());
+        assertFalse(drift.corrected());
+        assertEquals(1, discrepancyGauge());
+        // 只回報不修改
+        assertEquals(100 - 23 - 10 - 2, stock(TICKET));
+
+        // 修正之前又有人結帳：差值修正不受影響
+        checkout(TICKET, 1, "LOCKED", "PENDING");
+        InventoryReconciler.Discrepancy fixed = find(inventoryReconciler.reconcile(true), TICKET);
+        assertTrue(fixed.corrected());
+        assertEquals(100 - 24 - 10, stock(TICKET));
+
+        assertTrue(inventoryReconciler.reconcile(false).discrepancies().stream().noneMatch(d -> d.ticketTypeId() == TICKET));
+    }
+
+    @Test
+    void surplusStockIsNeverTakenAway() {
+        // 扣庫存的 UPDATE 沒成功但預約建立了 (或後台補貨沒加總配額)：剩餘數量多了 2 張，fix 也只回報
+        jdbcTemplate.update("UPDATE otp.event_ticket_type SET custom_limit = custom_limit + 2 WHERE id = ?", TICKET);
+
+        InventoryReconciler.Discrepancy drift = find(inventoryReconciler.reconcile(true), TICKET);
+        assertEquals(List.of(InventoryReconciler.STOCK_DRIFT), drift.issues());
+        assertEquals(2, drift.stockDrift());
+        assertFalse(drift.corrected());
+        assertEquals(100 - 23 - 10 + 2, stock(TICKET));
+    }
+
+    @Test
+    void missingCapacityAndPaidLateAreOnlyReported() {
+        // 付款時預約已經過期、庫存還回去了
+        checkout(TICKET, 2, "EXPIRED", "PAID_LATE");
+
+        InventoryReconciler.Report report = inventoryReconciler.reconcile(true);
+
+        // 不拿現在的數字當總配額的基準，要後台填；只缺總配額的不用到主庫確認
+        assertEquals(1, report.suspects());
+        InventoryReconciler.Discrepancy baseline = find(report, NO_BASELINE_TICKET);
+        assertEquals(List.of(InventoryReconciler.NO_CAPACITY), baseline.issues());
+        assertFalse(baseline.corrected());
+        assertNull(jdbcTemplate.queryForObject("SELECT capacity FROM otp.event_ticket_type WHERE id = ?", Integer.class, NO_BASELINE_TICKET));
+
+        InventoryReconciler.Discrepancy late = find(report, TICKET);
+        assertEquals(List.of(InventoryReconciler.PAID_LATE), late.issues());
+        assertEquals(2, late.paidLate());
+        assertFalse(late.corrected());
+        assertEquals(100 - 23 - 10, stock(TICKET));
+
+        // 只缺總配額的不算進指標
+        assertEquals(1, discrepancyGauge());
+    }
+
+    @Test
+    void restockAndCapacityKeepTheBooksBalanced() {
+        // 後台新增的票種填上總配額
+        assertTrue(reconciliationRepository.setCapacity(NO_BASELINE_TICKET, 50));
+        // 補貨與收回：剩餘數量跟總配額一起動
+        assertTrue(reconciliationRepository.restock(TICKET, 20));
+        assertTrue(reconciliationRepository.restock(TICKET, -5));
+        // 剩下的不夠收回就不動
+        assertFalse(reconciliationRepository.restock(TICKET, -1_000));
+        assertFalse(reconciliationRepository.restock(UNLIMITED_TICKET, 1));
+
+        assertEquals(100 - 23 - 10 + 15, stock(TICKET));
+        InventoryReconciler.Report report = inventoryReconciler.reconcile(false);
+        assertEquals(List.of(), report.discrepancies());
+        assertSame(report, inventoryReconciler.lastReport());
+    }
+
+    @Test
+    void paidOrdersWithoutReservationAreNotCompared() {
+        // 沒有預約的已付款訂單 (reservation_id 是 NULL)：沒有 CONFIRMED 預約可以對
+        long id = nextId++;
+        jdbcTemplate.update("INSERT INTO otp.orders (id, user_id, event_id, total_amount, status, reservation_id) VALUES (?, 1, 1, 0, 'PAID', NULL)", id);
+        jdbcTemplate.update("INSERT INTO otp.checkout_orders (order_id, event_ticket_type_id, price_at_purchase, quantity) VALUES (?, ?, 1000, 3)", id, TICKET);
+        jdbcTemplate.update("UPDATE otp.event_ticket_type SET capacity = 50 WHERE id = ?", NO_BASELINE_TICKET);
+
+        assertEquals(List.of(), inventoryReconciler.reconcile(false).discrepancies());
+        assertEquals(0, discrepancyGauge());
+    }
+
+    // 一次結帳：預約 + 預約明細 + 訂單 + 訂單明細；預約還鎖著或已付款的話跟結帳一樣扣庫存
+    private void checkout(long ticketTypeId, int quantity, String reservationStatus, String orderStatus) {
+        long id = nextId++;
+        jdbcTemplate.update("""
+            INSERT INTO otp.reservations
+            (id, user_id, event_id, quantity, ticket_type_id, totalAmount, scheduleId, userId, created_at, expires_at, status)
+            VALUES (?, 1, 1, ?, ?, 0, 1, 1, NOW(), NOW(), ?)
+        """, id, quantity, ticketTypeId, reservationStatus);
+        jdbcTemplate.update("INSERT INTO otp.reservation_items (reservationId, ticketTypeId, quantity, unitPrice) VALUES (?, ?, ?, 1000)",
+            id, ticketTypeId, quantity);
+        jdbcTemplate.update("INSERT INTO otp.orders (id, user_id, event_id, total_amount, status, reservation_id) VALUES (?, 1, 1, 0, ?, ?)",
+            id, orderStatus, id);
+        jdbcTemplate.update("INSERT INTO otp.checkout_orders (order_id, event_ticket_type_id, price_at_purchase, quantity) VALUES (?, ?, 1000, ?)",
+            id, ticketTypeId, quantity);
+        if (reservationStatus.equals("LOCKED") || reservationStatus.equals("CONFIRMED")) {
+            jdbcTemplate.update("UPDATE otp.event_ticket_type SET custom_limit = custom_limit - ? WHERE id = ? AND is_limited = 1", quantity, ticketTypeId);
+        }
+    }
+
+    private double discrepancyGauge() {
+        return meterRegistry.get("checkout.reconciliation.discrepancies").gauge().value();
+    }
+
+    private int stock(long ticketTypeId) {
+        return jdbcTemplate.queryForObject("SELECT custom_limit FROM otp.event_ticket_type WHERE id = ?", Integer.class, ticketTypeId);
+    }
+
+    private static InventoryReconciler.Discrepancy find(InventoryReconciler.Report report, long ticketTypeId) {
+        return report.discrepancies().stream()
+            .filter(d -> d.ticketTypeId() == ticketTypeId)
+            .findFirst()
+            .orElseThrow(() -> new AssertionError("沒有票種 " + ticketTypeId + " 的落差: " + report));
+    }
+}
@@ -0,0 +1,44 @@
+package tw.luke.checkout.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// 訂單編號產生器：單一 thread 與 8 條 thread 搶同一個 AtomicLong (開賣時所有結帳 worker 同時要編號)
+// 不重複由 MerchantTradeNoGeneratorTest 檢查，這裡只看吞吐量
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(3)
+public class MerchantTradeNoGeneratorBenchmark {
+
+    private MerchantTradeNoGenerator generator;
+
+    @Setup
+    public void setUp() {
+        generator = new MerchantTradeNoGenerator(1, System::currentTimeMillis);
+    }
+
+    @Benchmark
+    public String next() {
+        return generator.next();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String nextContended() {
+        return generator.next();
+    }
+}
@@ -0,0 +1,96 @@
+package tw.luke.checkout.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MerchantTradeNoGeneratorTest {
+
+    private static final int THREADS = 16;
+    private static final int PER_THREAD = 250_000;
+
+    @Test
+    void contendedThreadsNeverCollide() throws Exception {
+        MerchantTradeNoGenerator generator = new MerchantTradeNoGenerator(7, System::currentTimeMillis);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<String[]>> futures = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(THREADS)) {
+            for (int t = 0; t < THREADS; t++) {
+                futures.add(executor.submit(() -> {
+                    go.await();
+                    String[] ids = new String[PER_THREAD];
+                    for (int i = 0; i < PER_THREAD; i++) {
+                        ids[i] = generator.next();
+                    }
+                    return ids;
+                }));
+            }
+            go.countDown();
+            for (Future<String[]> future : futures) {
+                future.get();
+            }
+        }
+
+        Set<String> unique = new HashSet<>(THREADS * PER_THREAD);
+        for (Future<String[]> future : futures) {
+            String[] ids = future.get();
+            for (int i = 0; i < ids.length; i++) {
+                assertTrue(ids[i].length() <= 20, ids[i]);
+                // 同一條 thread 拿到的編號一定越來越大 (字串比較就是先後順序)
+                if (i > 0) {
+                    assertTrue(ids[i].compareTo(ids[i - 1]) > 0, ids[i - 1] + " -> " + ids[i]);
+                }
+                unique.add(ids[i]);
+            }
+        }
+        assertEquals(THREADS * PER_THREAD, unique.size());
+    }
+
+    @Test
+    void clockGoingBackwardsOrSequenceExhaustedStillIncreases() {
+        AtomicLong now = new AtomicLong(MerchantTradeNoGenerator.EPOCH + 1_000);
+        MerchantTradeNoGenerator generator = new MerchantTradeNoGenerator(1, now::get);
+
+        long first = generator.nextId();
+        now.addAndGet(-500);
+        long afterRollback = generator.nextId();
+        assertTrue(afterRollback > first);
+
+        // 同一毫秒超過 4096 個：借下一毫秒，照樣遞增
+        long previous = afterRollback;
+        for (int i = 0; i < 10_000; i++) {
+            long id = generator.nextId();
+            assertTrue(id > previous);
+            previous = id;
+        }
+        // 時鐘追上之後用真正的時間
+        now.set(MerchantTradeNoGenerator.EPOCH + 60_000);
+        assertEquals(60_000L, generator.nextId() >>> (MerchantTradeNoGenerator.NODE_BITS + MerchantTradeNoGenerator.SEQUENCE_BITS));
+    }
+
+    @Test
+    void nodesShareNoIdsWithinTheSameMillisecond() {
+        long fixed = MerchantTradeNoGenerator.EPOCH + 42;
+        MerchantTradeNoGenerator a = new MerchantTradeNoGenerator(1, () -> fixed);
+        MerchantTradeNoGenerator b = new MerchantTradeNoGenerator(2, () -> fixed);
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < 1_000; i++) {
+            ids.add(a.next());
+            ids.add(b.next());
+        }
+        assertEquals(2_000, ids.size());
+        assertTrue(a.next().startsWith(MerchantTradeNoGenerator.PREFIX));
+        assertEquals(16, MerchantTradeNoGenerator.format(Long.MAX_VALUE).length());
+    }
+}